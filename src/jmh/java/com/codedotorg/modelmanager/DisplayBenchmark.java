@@ -0,0 +1,71 @@
+package com.codedotorg.modelmanager;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+/**
+ * Compares the render thread's cost per preview frame for the PNG round trip
+ * and for the direct pixel transfer into the double-buffered image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisplayBenchmark {
+
+    /** The width and height of the captured frame */
+    @Param({"640x480", "1280x720"})
+    public String resolution;
+
+    private CameraController controller;
+    private FrameRenderer renderer;
+    private Mat frame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        controller = new CameraController();
+        renderer = new FrameRenderer(new ImageView());
+
+        String[] size = resolution.split("x");
+        frame = new Mat(Integer.parseInt(size[1]), Integer.parseInt(size[0]), CvType.CV_8UC3);
+        Core.randu(frame, 0, 256);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+        renderer.release();
+        NativeResources.checkNoLeaks("DisplayBenchmark " + resolution);
+    }
+
+    @Benchmark
+    public Image pngRoundTrip() {
+        return controller.matToImage(frame);
+    }
+
+    @Benchmark
+    public Object directTransfer() {
+        return renderer.writeFrame(frame);
+    }
+}
@@ -0,0 +1,139 @@
+package com.codedotorg.modelmanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.tensorflow.Graph;
+
+/**
+ * Measures the frames per second of the InferencePool with the synthetic model for each
+ * number of workers and session mode. Running main() sweeps the workers from 1 to one per
+ * core and prints the scaling efficiency of each step against a single worker. For the raw
+ * numbers: mvn -Pbenchmark verify -Djmh.args="InferencePoolBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InferencePoolBenchmark {
+
+    /** The number of frames kept in flight, enough to keep every worker busy */
+    private static final int FRAMES_IN_FLIGHT = 32;
+
+    /** The number of threads running inference */
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    /** Whether the workers share one session or each have their own */
+    @Param({"SHARED", "PER_WORKER"})
+    public SessionMode sessionMode;
+
+    /** The intra-op threads of each session; 0 lets TensorFlow use every core */
+    @Param({"1", "0"})
+    public int intraOpThreads;
+
+    private Graph graph;
+    private ModelProcessor processor;
+    private InferencePool pool;
+    private Mat frame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+
+        graph = SyntheticModel.createGraph();
+        processor = SyntheticModel.createProcessor(graph);
+        pool = new InferencePool(new ModelManager(processor), workers, sessionMode, new SessionConfig(intraOpThreads, 1));
+
+        frame = new Mat(480, 640, CvType.CV_8UC3);
+        Core.randu(frame, 0, 256);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        frame.release();
+        processor.getSession().close();
+        graph.close();
+        NativeResources.checkNoLeaks("InferencePoolBenchmark with " + workers + " workers");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_IN_FLIGHT)
+    public Object predictFrames() {
+        List<CompletableFuture<Prediction>> futures = new ArrayList<>(FRAMES_IN_FLIGHT);
+
+        for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+            futures.add(pool.submit(frame));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    /**
+     * Runs the benchmark with 1, 2, 4... workers up to the number of cores for each session
+     * mode, with one intra-op thread per session, and prints the scaling efficiency.
+     *
+     * @param args not used
+     * @throws RunnerException if JMH fails to run
+     */
+    public static void main(String[] args) throws RunnerException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<String> counts = new ArrayList<>();
+
+        for (int count = 1; count < cores; count *= 2) {
+            counts.add(String.valueOf(count));
+        }
+        counts.add(String.valueOf(cores));
+
+        for (SessionMode mode : SessionMode.values()) {
+            Collection<RunResult> results = new Runner(new OptionsBuilder()
+                    .include(InferencePoolBenchmark.class.getSimpleName())
+                    .param("workers", counts.toArray(new String[0]))
+                    .param("sessionMode", mode.name())
+                    .param("intraOpThreads", "1")
+                    .build()).run();
+
+            double single = 0;
+            System.out.println(mode + " sessions:");
+
+            for (RunResult result : results) {
+                int count = Integer.parseInt(result.getParams().getParam("workers"));
+                double throughput = result.getPrimaryResult().getScore();
+
+                if (count == 1) {
+                    single = throughput;
+                }
+
+                System.out.println(String.format("  workers=%d, throughput=%.1f fps, efficiency=%.2f",
+                        count, throughput, InferencePool.scalingEfficiency(throughput, count, single)));
+            }
+        }
+    }
+}
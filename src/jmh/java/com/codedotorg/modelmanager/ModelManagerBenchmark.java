@@ -0,0 +1,133 @@
+package com.codedotorg.modelmanager;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.Graph;
+import org.tensorflow.Tensor;
+
+import javafx.scene.image.Image;
+
+/**
+ * Measures each step of the per-frame path in the modelmanager package, from the captured
+ * frame to the displayed image, at several capture resolutions. Uses the synthetic model so it
+ * runs offline. Run with the GC profiler (the default jmh.args) to see allocations per frame:
+ * mvn -Pbenchmark verify -Djmh.args="ModelManagerBenchmark -prof gc"
+ * Add -jvmArgsAppend -Dunlock.leakCheck=true to fail the trial if a step leaks a Mat or Tensor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelManagerBenchmark {
+
+    /** The width and height of the captured frame */
+    @Param({"320x240", "640x480", "1280x720"})
+    public String resolution;
+
+    /** Whether the hot path records into the metrics registry, to check what the metrics cost */
+    @Param({"true", "false"})
+    public boolean metrics;
+
+    private Graph graph;
+    private ModelProcessor processor;
+    private ModelPredictor predictor;
+    private CameraController controller;
+
+    private Mat frame;
+    private Mat resized;
+    private byte[] bytes;
+    private float[] floats;
+    private Tensor<Float> tensor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MetricsRegistry.getDefault().setEnabled(metrics);
+        controller = new CameraController();
+
+        graph = SyntheticModel.createGraph();
+        processor = SyntheticModel.createProcessor(graph);
+        predictor = new ModelPredictor(processor);
+
+        String[] size = resolution.split("x");
+        frame = new Mat(Integer.parseInt(size[1]), Integer.parseInt(size[0]), CvType.CV_8UC3);
+        Core.randu(frame, 0, 256);
+
+        // The input of each step is the output of the step before it
+        resized = processor.resizeFrame(frame);
+        bytes = processor.matToByteArray(resized);
+        floats = processor.byteArrayToFloatArray(bytes);
+        tensor = processor.floatArrayToTensor(floats);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        NativeResources.close(tensor);
+        NativeResources.release(resized);
+        frame.release();
+        processor.releasePreprocessContext();
+        processor.getSession().close();
+        graph.close();
+        NativeResources.checkNoLeaks("ModelManagerBenchmark " + resolution);
+    }
+
+    @Benchmark
+    public long resizeFrame() {
+        Mat result = processor.resizeFrame(frame);
+        long total = result.total();
+        NativeResources.release(result);
+        return total;
+    }
+
+    @Benchmark
+    public byte[] matToByteArray() {
+        return processor.matToByteArray(resized);
+    }
+
+    @Benchmark
+    public float[] byteArrayToFloatArray() {
+        return processor.byteArrayToFloatArray(bytes);
+    }
+
+    @Benchmark
+    public int floatArrayToTensor() {
+        Tensor<Float> result = processor.floatArrayToTensor(floats);
+        try {
+            return result.numBytes();
+        } finally {
+            NativeResources.close(result);
+        }
+    }
+
+    @Benchmark
+    public float[] predict() {
+        return predictor.predict(tensor);
+    }
+
+    @Benchmark
+    public Prediction processFrameAndGetClassNameWithConfidence() {
+        return predictor.processFrameAndGetClassNameWithConfidence(frame);
+    }
+
+    @Benchmark
+    public Image matToImage() {
+        return controller.matToImage(frame);
+    }
+}
@@ -0,0 +1,80 @@
+package com.codedotorg.modelmanager;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.Graph;
+import org.tensorflow.Tensor;
+
+/**
+ * Compares the per-frame cost of the Java and native (OpenCV) preprocessing paths,
+ * from a captured camera frame up to and including the copy into the input Tensor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreprocessBenchmark {
+
+    /** The width and height of the captured frame */
+    @Param({"640x480", "1280x720"})
+    public String resolution;
+
+    /** The preprocessing path to measure */
+    @Param({"JAVA", "NATIVE"})
+    public PreprocessMode mode;
+
+    private Graph graph;
+    private ModelProcessor processor;
+    private PreprocessContext context;
+    private Mat frame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+
+        graph = SyntheticModel.createGraph();
+        processor = SyntheticModel.createProcessor(graph);
+        processor.setPreprocessMode(mode);
+        context = new PreprocessContext(processor.getDescriptor());
+
+        String[] size = resolution.split("x");
+        frame = new Mat(Integer.parseInt(size[1]), Integer.parseInt(size[0]), CvType.CV_8UC3);
+        Core.randu(frame, 0, 256);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+        context.close();
+        processor.getSession().close();
+        graph.close();
+    }
+
+    @Benchmark
+    public long prepareAndCreateTensor() {
+        FloatBuffer floats = processor.prepareFrameForModel(frame, context);
+
+        try (Tensor<Float> tensor = Tensor.create(context.getTensorShape(), floats)) {
+            return tensor.numBytes();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.codedotorg.modelmanager;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.tensorflow.DataType;
+import org.tensorflow.Graph;
+import org.tensorflow.Output;
+import org.tensorflow.Shape;
+import org.tensorflow.Tensor;
+
+/**
+ * Builds a small image classifier graph in memory so benchmarks run offline without the
+ * Teachable Machine SavedModel. It has the same input and output signature as the real
+ * model (a [-1, 224, 224, 3] float input and a softmax over the classes in labels.txt)
+ * and does a convolution, so the session has real work to do.
+ */
+public final class SyntheticModel {
+
+    /** The labels file that ships with the app */
+    public static final String LABELS_PATH = "src/main/java/com/codedotorg/model/labels.txt";
+
+    /** The number of classes in labels.txt */
+    public static final int CLASS_COUNT = 10;
+
+    private SyntheticModel() {
+    }
+
+    /**
+     * Builds the synthetic graph. Weights are random but fixed, so runs are reproducible.
+     *
+     * @return the graph, with an input named "input" and an output named "probabilities"
+     */
+    public static Graph createGraph() {
+        Graph graph = new Graph();
+        Random random = new Random(42);
+
+        Output<?> input = graph.opBuilder("Placeholder", "input")
+                .setAttr("dtype", DataType.FLOAT)
+                .setAttr("shape", Shape.make(-1, 224, 224, 3))
+                .build()
+                .output(0);
+
+        // 3x3 convolution with 16 filters and stride 2, followed by ReLU
+        Output<?> filters = constant(graph, "filters", randomWeights(random, new float[3][3][3][16]));
+        Output<?> conv = graph.opBuilder("Conv2D", "conv")
+                .addInput(input)
+                .addInput(filters)
+                .setAttr("strides", new long[] {1, 2, 2, 1})
+                .setAttr("padding", "SAME")
+                .build()
+                .output(0);
+        Output<?> relu = graph.opBuilder("Relu", "relu").addInput(conv).build().output(0);
+
+        // Global average pooling and a dense layer to the classes
+        Output<?> axes = constant(graph, "axes", new int[] {1, 2});
+        Output<?> pooled = graph.opBuilder("Mean", "pool").addInput(relu).addInput(axes).build().output(0);
+
+        float[][] dense = new float[16][CLASS_COUNT];
+        for (float[] row : dense) {
+            randomWeights(random, row);
+        }
+        Output<?> weights = constant(graph, "weights", dense);
+        Output<?> logits = graph.opBuilder("MatMul", "logits").addInput(pooled).addInput(weights).build().output(0);
+        graph.opBuilder("Softmax", "probabilities").addInput(logits).build();
+
+        return graph;
+    }
+
+    /**
+     * Creates a ModelProcessor running the synthetic graph with the labels that ship with the app.
+     *
+     * @param graph the graph from createGraph()
+     * @return the loaded ModelProcessor
+     */
+    public static ModelProcessor createProcessor(Graph graph) {
+        ModelProcessor processor = new ModelProcessor();
+        processor.loadGraph(graph, "input", "probabilities");
+        processor.loadLabels(Paths.get(LABELS_PATH));
+        return processor;
+    }
+
+    private static Output<?> constant(Graph graph, String name, Object value) {
+        try (Tensor<?> tensor = Tensor.create(value)) {
+            return graph.opBuilder("Const", name)
+                    .setAttr("dtype", tensor.dataType())
+                    .setAttr("value", tensor)
+                    .build()
+                    .output(0);
+        }
+    }
+
+    private static <T> T randomWeights(Random random, T array) {
+        if (array instanceof float[]) {
+            float[] values = (float[]) array;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (float) random.nextGaussian() * 0.1f;
+            }
+        }
+        else {
+            for (Object child : (Object[]) array) {
+                randomWeights(random, child);
+            }
+        }
+        return array;
+    }
+}
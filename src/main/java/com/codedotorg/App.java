@@ -1,11 +1,41 @@
 package com.codedotorg;
 
+import java.util.Arrays;
+
+import com.codedotorg.modelmanager.BatchClassifier;
+import com.codedotorg.modelmanager.ModelConverter;
+import com.codedotorg.modelmanager.PrecisionReport;
+
 import javafx.application.Application;
 import javafx.stage.Stage;
 
 public class App extends Application {
 
     public static void main(String[] args) {
+        // "classify" scores recorded images or videos without starting JavaFX
+        if (args.length > 0 && args[0].equals("classify")) {
+            BatchClassifier.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // "convert" freezes the model into the model cache so later starts load it faster
+        if (args.length > 0 && args[0].equals("convert")) {
+            ModelConverter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // "compare" reports the accuracy and latency of quantized or smaller-input models against the float model
+        if (args.length > 0 && args[0].equals("compare")) {
+            PrecisionReport.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // "replay" feeds recorded sessions back through the model and PIN logic and diffs the results
+        if (args.length > 0 && args[0].equals("replay")) {
+            SessionReplay.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         launch();
     }
 
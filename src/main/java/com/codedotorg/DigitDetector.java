@@ -0,0 +1,296 @@
+package com.codedotorg;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.codedotorg.modelmanager.MetricsRegistry;
+import com.codedotorg.modelmanager.Prediction;
+
+public class DigitDetector {
+
+    /** The class that means the user is not showing a digit */
+    private static final String DEFAULT_NEUTRAL_CLASS = "neutral";
+
+    /** The number of digits accepted, across every DigitDetector */
+    private static final LongAdder DIGITS_ACCEPTED =
+            MetricsRegistry.getDefault().counter(MetricsRegistry.DIGITS_ACCEPTED);
+
+    /** The confidence a prediction needs to count towards a digit */
+    private float minConfidence;
+
+    /** The number of frames in a row a class must be predicted to be accepted */
+    private int stableFrames;
+
+    /** How long a class must be predicted without a break to be accepted, in nanoseconds */
+    private long stableNanos;
+
+    /** The number of confident frames of another class after which the last accepted class may be accepted again, or 0 to never */
+    private int releaseFrames;
+
+    /** The class name, without its leading number, that means no digit is being shown */
+    private String neutralClass;
+
+    /** Called with the prediction that completed each accepted digit */
+    private final Consumer<Prediction> onDigit;
+
+    /** Whether or not predictions are being turned into digits */
+    private boolean enabled;
+
+    /** The class of the current run of confident predictions, or null if there is no run */
+    private String runClass;
+
+    /** The number of predictions in the current run */
+    private int runFrames;
+
+    /** When the first frame of the current run was captured */
+    private long runStart;
+
+    /** Whether the current run has already been handled */
+    private boolean runHandled;
+
+    /** The last class accepted; it cannot be accepted again until another class is seen */
+    private String lastAccepted;
+
+    /** The number of confident frames of another class since the last accepted class was last seen */
+    private int gapFrames;
+
+    /**
+     * Constructs a new DigitDetector that accepts a class once it has been predicted with
+     * at least 80% confidence for 5 frames or 1 second, whichever comes first. The same
+     * class can be accepted again after the neutral class, or after 10 confident frames
+     * of another class.
+     *
+     * @param onDigit called with the prediction that completed each accepted digit,
+     *                on the thread that passed in the prediction
+     */
+    public DigitDetector(Consumer<Prediction> onDigit) {
+        this.onDigit = onDigit;
+        this.minConfidence = 0.8f;
+        this.stableFrames = 5;
+        this.stableNanos = 1_000_000_000L;
+        this.releaseFrames = 10;
+        this.neutralClass = DEFAULT_NEUTRAL_CLASS;
+        this.enabled = true;
+        reset();
+    }
+
+    /**
+     * Constructs a new DigitDetector configured by the system properties
+     * unlock.digit.confidence (default 0.8), unlock.digit.frames (default 5),
+     * unlock.digit.millis (default 1000) and unlock.digit.releaseFrames (default 10).
+     *
+     * @param onDigit called with the prediction that completed each accepted digit,
+     *                on the thread that passed in the prediction
+     * @return the configured DigitDetector
+     */
+    public static DigitDetector fromSystemProperties(Consumer<Prediction> onDigit) {
+        DigitDetector detector = new DigitDetector(onDigit);
+        detector.setMinConfidence(Float.parseFloat(System.getProperty("unlock.digit.confidence", "0.8")));
+        detector.setStableFrames(Integer.getInteger("unlock.digit.frames", 5));
+        detector.setStableMillis(Long.getLong("unlock.digit.millis", 1000L));
+        detector.setReleaseFrames(Integer.getInteger("unlock.digit.releaseFrames", 10));
+        return detector;
+    }
+
+    /**
+     * Feeds the next prediction into the detector. Should be called with every
+     * prediction the model makes, in frame order.
+     *
+     * @param prediction the latest prediction
+     */
+    public synchronized void accept(Prediction prediction) {
+        if (!enabled) {
+            return;
+        }
+
+        boolean confident = !prediction.isUncertain() && prediction.getConfidence() >= minConfidence;
+        String className = prediction.getClassName();
+
+        // A digit held once is not accepted twice, but once another class has been shown for
+        // long enough the user may be giving it again even if the neutral class never came up.
+        // Uncertain frames leave the gap alone, so a digit whose confidence dips is not repeated.
+        if (lastAccepted != null && confident) {
+            if (className.equals(lastAccepted)) {
+                gapFrames = 0;
+            }
+            else if (releaseFrames > 0 && ++gapFrames >= releaseFrames) {
+                lastAccepted = null;
+                gapFrames = 0;
+            }
+        }
+
+        // An uncertain or low confidence frame breaks the current run
+        if (!confident) {
+            clearRun();
+            return;
+        }
+
+        if (!className.equals(runClass)) {
+            runClass = className;
+            runFrames = 0;
+            runStart = timestampOf(prediction);
+            runHandled = false;
+        }
+
+        runFrames++;
+
+        if (runHandled || !isStable(prediction)) {
+            return;
+        }
+
+        runHandled = true;
+
+        if (isNeutral(className)) {
+            // The user has lowered their hand, so the same digit may be given again
+            lastAccepted = null;
+        }
+        else if (!className.equals(lastAccepted)) {
+            lastAccepted = className;
+            gapFrames = 0;
+            DIGITS_ACCEPTED.increment();
+            onDigit.accept(prediction);
+        }
+    }
+
+    /**
+     * Returns whether the current run has lasted long enough to be accepted.
+     *
+     * @param prediction the latest prediction in the run
+     * @return true if the run has enough frames or has lasted long enough
+     */
+    private boolean isStable(Prediction prediction) {
+        return runFrames >= stableFrames || timestampOf(prediction) - runStart >= stableNanos;
+    }
+
+    /**
+     * Returns whether the given class means no digit is being shown.
+     *
+     * @param className the predicted class name, such as "9 neutral"
+     * @return true if the class is the neutral class
+     */
+    private boolean isNeutral(String className) {
+        return className.substring(className.indexOf(" ") + 1).equals(neutralClass);
+    }
+
+    /**
+     * Returns when the frame of the prediction was captured, or now if that is not known.
+     *
+     * @param prediction the prediction
+     * @return the capture time from System.nanoTime()
+     */
+    private long timestampOf(Prediction prediction) {
+        return prediction.getTimestamp() != 0 ? prediction.getTimestamp() : System.nanoTime();
+    }
+
+    /**
+     * Ends the current run of predictions.
+     */
+    private void clearRun() {
+        runClass = null;
+        runFrames = 0;
+        runHandled = false;
+    }
+
+    /**
+     * Forgets the current run and the last accepted digit, ready for a new PIN.
+     */
+    public synchronized void reset() {
+        clearRun();
+        lastAccepted = null;
+        gapFrames = 0;
+    }
+
+    /**
+     * Sets whether or not predictions are turned into digits.
+     *
+     * @param enabled true to accept digits, false to ignore every prediction
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the confidence a prediction needs to count towards a digit.
+     *
+     * @return the minimum confidence between 0 and 1
+     */
+    public synchronized float getMinConfidence() {
+        return minConfidence;
+    }
+
+    /**
+     * Sets the confidence a prediction needs to count towards a digit.
+     *
+     * @param minConfidence the minimum confidence between 0 and 1
+     */
+    public synchronized void setMinConfidence(float minConfidence) {
+        this.minConfidence = minConfidence;
+    }
+
+    /**
+     * Returns the number of frames in a row a class must be predicted to be accepted.
+     *
+     * @return the number of stable frames
+     */
+    public synchronized int getStableFrames() {
+        return stableFrames;
+    }
+
+    /**
+     * Sets the number of frames in a row a class must be predicted to be accepted.
+     *
+     * @param stableFrames the number of stable frames, at least 1
+     */
+    public synchronized void setStableFrames(int stableFrames) {
+        this.stableFrames = Math.max(1, stableFrames);
+    }
+
+    /**
+     * Returns how long a class must be predicted without a break to be accepted.
+     *
+     * @return the stable time in milliseconds
+     */
+    public synchronized long getStableMillis() {
+        return stableNanos / 1_000_000L;
+    }
+
+    /**
+     * Sets how long a class must be predicted without a break to be accepted.
+     *
+     * @param stableMillis the stable time in milliseconds
+     */
+    public synchronized void setStableMillis(long stableMillis) {
+        this.stableNanos = stableMillis * 1_000_000L;
+    }
+
+    /**
+     * Returns the number of confident frames of another class after which the last
+     * accepted class may be accepted again.
+     *
+     * @return the number of release frames, or 0 if only the neutral class releases it
+     */
+    public synchronized int getReleaseFrames() {
+        return releaseFrames;
+    }
+
+    /**
+     * Sets the number of confident frames of another class after which the last accepted
+     * class may be accepted again, so a digit repeated in the PIN does not need the neutral
+     * class in between. Uncertain and low confidence frames do not count, so a held digit
+     * whose confidence dips is not accepted twice.
+     *
+     * @param releaseFrames the number of release frames, or 0 so only the neutral class releases it
+     */
+    public synchronized void setReleaseFrames(int releaseFrames) {
+        this.releaseFrames = Math.max(0, releaseFrames);
+    }
+
+    /**
+     * Sets the class name, without its leading number, that means no digit is being shown.
+     *
+     * @param neutralClass the neutral class name, such as "neutral"
+     */
+    public synchronized void setNeutralClass(String neutralClass) {
+        this.neutralClass = neutralClass;
+    }
+}
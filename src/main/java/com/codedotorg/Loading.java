@@ -41,6 +41,18 @@ public class Loading {
         return progress;
     }
 
+    /**
+     * Shows how far the model has loaded. The indicator fills up as the model, labels
+     * and warm-up inferences finish, and the label describes the current step.
+     *
+     * @param fraction how much of the loading is done, from 0 to 1
+     * @param message the current loading step
+     */
+    public void setProgress(double fraction, String message) {
+        progress.setProgress(fraction);
+        cameraLoadingLabel.setText(message);
+    }
+
     /**
      * Hides the camera view and displays the loading animation.
      */
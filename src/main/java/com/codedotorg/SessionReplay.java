@@ -0,0 +1,395 @@
+package com.codedotorg;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.opencv.core.Mat;
+
+import com.codedotorg.modelmanager.LatencyHistogram;
+import com.codedotorg.modelmanager.ModelManager;
+import com.codedotorg.modelmanager.MotionGate;
+import com.codedotorg.modelmanager.Prediction;
+import com.codedotorg.modelmanager.PredictionSmoother;
+import com.codedotorg.modelmanager.SessionRecording;
+
+public class SessionReplay {
+
+    /** How to run the replay from the command line */
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: SessionReplay [options] <recording>...",
+            "  --max-class-changes <n>  fail if more than this many frames change their top class (default 0)",
+            "  --tolerance <p>          fail if any class probability moves by more than this (default: not checked)",
+            "The model is the one in unlock.model, with the smoothing and motion settings of the app.",
+            "Exits with 1 if the replayed digits or predictions differ from the recording beyond the limits.");
+
+    /** The model the frames are replayed through */
+    private final ModelManager model;
+
+    /** The most frames whose top class may change before the replay fails */
+    private final long maxClassChanges;
+
+    /** The largest change in any class probability before the replay fails, or a negative number to not check */
+    private final double tolerance;
+
+    /** The time the model took for each replayed frame */
+    private final LatencyHistogram latency;
+
+    /** The number of frames replayed */
+    private long frames;
+
+    /** The number of recorded predictions compared with the replayed ones */
+    private long compared;
+
+    /** The number of recorded predictions with no recorded frame, or frames with no prediction */
+    private long unmatched;
+
+    /** The number of frames left out of the recording, whose recorded predictions were used as they are */
+    private long skipped;
+
+    /** The number of frames whose top class changed */
+    private long classChanges;
+
+    /** The number of frames with a class probability that moved by more than the tolerance */
+    private long drifted;
+
+    /** The largest change in any class probability */
+    private double maxDifference;
+
+    /** The sum over the compared frames of the mean absolute probability difference */
+    private double differenceSum;
+
+    /** The number of PIN attempts whose digits differed */
+    private long digitMismatches;
+
+    /** The number of PIN attempts replayed */
+    private long attempts;
+
+    /** The time spent replaying, in nanoseconds */
+    private long replayNanos;
+
+    /**
+     * Constructs a new SessionReplay.
+     *
+     * @param model the model to replay the frames through, with its model and labels loaded
+     * @param maxClassChanges the most frames whose top class may change before the replay fails
+     * @param tolerance the largest change in any class probability before the replay fails,
+     *                  or a negative number to not check it
+     */
+    public SessionReplay(ModelManager model, long maxClassChanges, double tolerance) {
+        this.model = model;
+        this.maxClassChanges = maxClassChanges;
+        this.tolerance = tolerance;
+        this.latency = new LatencyHistogram();
+    }
+
+    /**
+     * Feeds every frame of the recording through the model, the prediction smoothing and
+     * the PIN logic as fast as they go, in recorded order and with the recorded timestamps.
+     * Each prediction is compared with the one recorded for the same frame, and the digits
+     * accepted for each PIN attempt with the recorded digits. Frames the recorder dropped
+     * cannot be replayed, so their recorded predictions are not compared and go to the
+     * smoothing and PIN logic as they are, keeping the digit detector's frame runs the
+     * same as in the app.
+     *
+     * @param recording the recording to replay, open at its first record
+     * @throws IOException if the recording cannot be read
+     */
+    public void replay(SessionRecording recording) throws IOException {
+        List<String> labels = model.getModelProcessor().getLabels();
+        if (!recording.getLabels().equals(labels)) {
+            throw new IllegalArgumentException(recording.getPath() + " was recorded with the labels "
+                    + recording.getLabels() + ", not " + labels);
+        }
+
+        PredictionSmoother smoother = PredictionSmoother.fromSystemProperties(labels);
+        smoother.setConfidenceGate(model.getModelPredictor().getConfidenceGate());
+        MotionGate gate = MotionGate.fromSystemProperties();
+        AppLogic logic = new AppLogic();
+
+        List<String> recordedDigits = new ArrayList<>();
+        List<String> replayedDigits = new ArrayList<>();
+        DigitDetector detector = DigitDetector.fromSystemProperties(
+                prediction -> replayedDigits.add(prediction.getClassName()));
+        Map<Long, Prediction> pending = new HashMap<>();
+        Set<Long> dropped = new HashSet<>();
+
+        long start = System.nanoTime();
+        SessionRecording.Record record;
+
+        try {
+            while ((record = recording.next()) != null) {
+                switch (record.getType()) {
+                    case SessionRecording.FRAME:
+                        Prediction replayed = predict(record, gate);
+                        if (replayed != null) {
+                            pending.put(record.getSequence(), replayed);
+                            detect(replayed, smoother, detector, logic, replayedDigits);
+                        }
+                        break;
+                    case SessionRecording.DROP:
+                        dropped.add(record.getSequence());
+                        break;
+                    case SessionRecording.PREDICTION:
+                        Prediction expected = pending.remove(record.getSequence());
+                        if (dropped.remove(record.getSequence())) {
+                            skipped++;
+                            detect(record.toPrediction(), smoother, detector, logic, replayedDigits);
+                        }
+                        else if (expected != null) {
+                            compare(record.toPrediction(), expected);
+                        }
+                        else {
+                            unmatched++;
+                        }
+                        break;
+                    case SessionRecording.DIGIT:
+                        recordedDigits.add(record.getClassName());
+                        break;
+                    case SessionRecording.RESET:
+                        finishAttempt(recordedDigits, replayedDigits);
+                        logic.resetLogic();
+                        smoother.reset();
+                        detector.reset();
+                        detector.setEnabled(true);
+                        if (gate != null) {
+                            gate.reset();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            finishAttempt(recordedDigits, replayedDigits);
+            unmatched += pending.size();
+        } finally {
+            replayNanos += System.nanoTime() - start;
+            model.releaseThreadResources();
+            if (gate != null) {
+                gate.release();
+            }
+        }
+    }
+
+    /**
+     * Feeds a prediction through the same path as the app: smoothing, the digit detector,
+     * then the PIN. The detector is turned off once the PIN has four digits.
+     *
+     * @param prediction the raw prediction for a frame
+     * @param smoother the smoothing of the app
+     * @param detector the digit detector, which adds accepted digits to replayedDigits
+     * @param logic the PIN logic
+     * @param replayedDigits the digits accepted on replay in this PIN attempt
+     */
+    private void detect(Prediction prediction, PredictionSmoother smoother, DigitDetector detector,
+            AppLogic logic, List<String> replayedDigits) {
+        int digits = replayedDigits.size();
+        detector.accept(smoother.smooth(prediction));
+        if (replayedDigits.size() > digits && logic.createUserPin(replayedDigits.get(digits)).length() == 4) {
+            detector.setEnabled(false);
+        }
+    }
+
+    /**
+     * Decodes a recorded frame and runs it through the model, reusing the last prediction
+     * for unchanged frames if the app gates on motion.
+     *
+     * @param record the frame record
+     * @param gate the MotionGate of the app, or null if it runs the model on every frame
+     * @return the prediction tied to the recorded frame, or null if the frame could not be decoded
+     */
+    private Prediction predict(SessionRecording.Record record, MotionGate gate) {
+        Mat frame = record.decodeFrame();
+
+        try {
+            if (frame == null || frame.empty()) {
+                System.err.println("Skipping frame " + record.getSequence() + ", which could not be decoded");
+                return null;
+            }
+
+            Prediction result = gate != null ? gate.getUnchangedPrediction(frame) : null;
+
+            if (result == null) {
+                long begin = System.nanoTime();
+                result = model.getPrediction(frame);
+                latency.record(System.nanoTime() - begin);
+
+                if (gate != null) {
+                    gate.setLastPrediction(result);
+                }
+            }
+
+            frames++;
+            return result.forFrame(record.getSequence(), record.getTimestamp());
+        } finally {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Compares the prediction recorded for a frame with the replayed one.
+     *
+     * @param recorded the prediction the app made
+     * @param replayed the prediction made on replay
+     */
+    private void compare(Prediction recorded, Prediction replayed) {
+        compared++;
+
+        if (!recorded.getClassName().equals(replayed.getClassName())) {
+            classChanges++;
+            System.out.println(String.format(Locale.ROOT, "Frame %d: recorded %s (%.3f), replayed %s (%.3f)",
+                    recorded.getSequence(), recorded.getClassName(), recorded.getConfidence(),
+                    replayed.getClassName(), replayed.getConfidence()));
+        }
+
+        int classes = Math.min(recorded.getClassCount(), replayed.getClassCount());
+        double largest = 0;
+        double total = 0;
+
+        for (int i = 0; i < classes; i++) {
+            double difference = Math.abs(recorded.getProbability(i) - replayed.getProbability(i));
+            largest = Math.max(largest, difference);
+            total += difference;
+        }
+
+        if (tolerance >= 0 && largest > tolerance) {
+            drifted++;
+        }
+
+        maxDifference = Math.max(maxDifference, largest);
+        differenceSum += classes > 0 ? total / classes : 0;
+    }
+
+    /**
+     * Compares the digits of a PIN attempt and starts the next one.
+     *
+     * @param recorded the digits the app accepted, cleared here
+     * @param replayed the digits accepted on replay, cleared here
+     */
+    private void finishAttempt(List<String> recorded, List<String> replayed) {
+        if (recorded.isEmpty() && replayed.isEmpty()) {
+            return;
+        }
+
+        attempts++;
+
+        if (!recorded.equals(replayed)) {
+            digitMismatches++;
+            System.out.println("PIN attempt " + attempts + ": recorded " + recorded + ", replayed " + replayed);
+        }
+
+        recorded.clear();
+        replayed.clear();
+    }
+
+    /**
+     * Returns whether the replay matched the recording within the limits.
+     *
+     * @return true if every PIN attempt gave the same digits and the predictions stayed within the limits
+     */
+    public boolean passed() {
+        return digitMismatches == 0 && classChanges <= maxClassChanges && drifted == 0;
+    }
+
+    /**
+     * Returns the replay summary: the frames replayed and how fast, how far the predictions
+     * moved from the recording, and whether the digits matched.
+     *
+     * @return the summary
+     */
+    public String toString() {
+        double seconds = replayNanos / 1e9;
+
+        return String.format(Locale.ROOT, "Replayed %d frames in %.2fs (%.1f frames/s)%n", frames, seconds,
+                    seconds > 0 ? frames / seconds : 0)
+                + "Inference latency: " + latency + System.lineSeparator()
+                + String.format(Locale.ROOT, "Predictions: %d compared, %d unmatched, %d not recorded, "
+                    + "%d class changes, max |dp| %.5f, mean |dp| %.5f%s%n", compared, unmatched, skipped,
+                    classChanges, maxDifference,
+                    compared > 0 ? differenceSum / compared : 0,
+                    tolerance >= 0 ? String.format(Locale.ROOT, ", %d over %.5f", drifted, tolerance) : "")
+                + String.format("Digits: %d of %d PIN attempts differ%n", digitMismatches, attempts)
+                + (passed() ? "PASS" : "FAIL");
+    }
+
+    /**
+     * Replays the recordings given on the command line and exits with 1 if any of them
+     * no longer gives the recorded results, so it can gate model and pipeline changes.
+     *
+     * @param args the options and recordings, see USAGE
+     */
+    public static void main(String[] args) {
+        long maxClassChanges = 0;
+        double tolerance = -1;
+        List<Path> recordings = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--max-class-changes":
+                        maxClassChanges = Long.parseLong(args[++i]);
+                        break;
+                    case "--tolerance":
+                        tolerance = Double.parseDouble(args[++i]);
+                        break;
+                    case "--help":
+                        System.out.println(USAGE);
+                        return;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        recordings.add(Paths.get(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        if (recordings.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        nu.pattern.OpenCV.loadLocally();
+        ModelManager model = new ModelManager();
+
+        if (model.getModelProcessor().getSession() == null || model.getModelProcessor().getLabels() == null) {
+            System.err.println("The model or labels could not be loaded");
+            System.exit(1);
+        }
+
+        SessionReplay replay = new SessionReplay(model, maxClassChanges, tolerance);
+
+        try {
+            for (Path path : recordings) {
+                try (SessionRecording recording = new SessionRecording(path)) {
+                    replay.replay(recording);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to replay: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            model.getModelProcessor().getSession().close();
+        }
+
+        System.out.println(replay);
+
+        if (!replay.passed()) {
+            System.exit(1);
+        }
+    }
+}
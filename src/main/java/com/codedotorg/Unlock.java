@@ -1,11 +1,24 @@
 package com.codedotorg;
 
 import com.codedotorg.modelmanager.CameraController;
+import com.codedotorg.modelmanager.CaptureGovernor;
+import com.codedotorg.modelmanager.LatencyHistogram;
+import com.codedotorg.modelmanager.MetricsRegistry;
+import com.codedotorg.modelmanager.MetricsServer;
+import com.codedotorg.modelmanager.ModelLoader;
 import com.codedotorg.modelmanager.ModelManager;
+import com.codedotorg.modelmanager.MotionGate;
+import com.codedotorg.modelmanager.Prediction;
+import com.codedotorg.modelmanager.PredictionSmoother;
+import com.codedotorg.modelmanager.SessionRecorder;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
-import javafx.animation.KeyFrame;
 import javafx.animation.PauseTransition;
-import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.stage.Stage;
@@ -25,18 +38,34 @@ public class Unlock {
     /** The AppLogic to handle the logic of the app */
     private AppLogic logic;
 
-    /** Manages the TensorFlow model used for image classification */
-    private ModelManager model;
+    /** Manages the TensorFlow model used for image classification, or null while it is still loading */
+    private volatile ModelManager model;
+
+    /** Loads and warms up the model in the background while the camera starts */
+    private ModelLoader modelLoader;
+
+    /** When the app started, to report the time to the first prediction */
+    private final long startTime = System.nanoTime();
 
     /** Controls the camera capture and provides frames to the TensorFlow model for classification */
     private CameraController cameraController;
 
-    /** The Timeline to manage how often a prediction is made */
-    private Timeline timeline;
+    /** Turns the stream of predictions into PIN digits */
+    private DigitDetector digitDetector;
+
+    /** Serves the metrics, health and latest prediction over HTTP, or null if it is not enabled */
+    private volatile MetricsServer metricsServer;
+
+    /** Records the session for replay, or null if unlock.record is not set */
+    private volatile SessionRecorder recorder;
+
+    /** The newest prediction waiting to be shown, or null if the FX thread is up to date */
+    private final AtomicReference<Prediction> pendingResponse = new AtomicReference<>();
 
     /**
      * Constructor for the Unlock class.
-     * Initializes the window, model, camera capture, app scenes, and logic.
+     * Initializes the window, camera capture, app scenes, and logic. The model is
+     * loaded later on a background thread so the window and camera appear right away.
      *
      * @param primaryStage the primary stage for the application
      */
@@ -44,9 +73,28 @@ public class Unlock {
         // Set up the window using the primaryStage
         setUpWindow(primaryStage);
 
-        // Set up the model and camera capture
+        // Set up the camera capture
         cameraController = new CameraController();
-        model = new ModelManager();
+
+        // Skip the model for frames that have not changed, if a motion threshold is configured
+        cameraController.setMotionGate(MotionGate.fromSystemProperties());
+
+        // Capture slower and smaller while nobody is in front of the camera, if the governor is enabled
+        cameraController.setGovernor(CaptureGovernor.fromSystemProperties());
+
+        // Turn the camera off if the result scene is left showing, if a deep idle timeout is configured
+        int deepIdleSeconds = Integer.getInteger("unlock.pause.deepIdleSeconds", 0);
+        cameraController.setDeepIdleTimeout(deepIdleSeconds, TimeUnit.SECONDS);
+
+        // Print the pipeline metrics periodically if a logging period is configured
+        int metricsLogSeconds = Integer.getInteger("unlock.metrics.logSeconds", 0);
+        if (metricsLogSeconds > 0) {
+            MetricsRegistry.getDefault().startLogging(metricsLogSeconds);
+        }
+
+        // Serve the metrics on localhost if a port is configured; /health reports the model
+        // as not loaded until onModelLoaded has run
+        metricsServer = MetricsServer.startFromSystemProperties(cameraController, () -> model);
 
         // Set up the app scenes and logic
         lock = new LockScene();
@@ -54,6 +102,79 @@ public class Unlock {
         logic = new AppLogic();
     }
 
+    /**
+     * Loads and warms up the model on a background thread, showing its progress in the
+     * loading animation. Once the model is ready, the camera starts feeding it frames.
+     * If loading or setting up the model fails, the failure is shown in the loading
+     * animation instead of leaving it spinning.
+     */
+    private void loadModel() {
+        modelLoader = ModelLoader.fromSystemProperties();
+
+        modelLoader.load((message, fraction) ->
+                Platform.runLater(() -> lock.getLoadingAnimation().setProgress(fraction, message)))
+            .handle((loaded, error) -> {
+                if (error != null) {
+                    reportModelFailure(error);
+                }
+                else {
+                    onModelLoaded(loaded);
+                }
+                return null;
+            })
+            .exceptionally(error -> {
+                // onModelLoaded itself failed, which handle would otherwise swallow
+                reportModelFailure(error);
+                return null;
+            });
+    }
+
+    /**
+     * Prints why the model could not be used and shows it in the loading animation.
+     *
+     * @param error what went wrong, possibly wrapped in a CompletionException
+     */
+    private void reportModelFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+        System.err.println("Failed to load the model: " + cause);
+        cause.printStackTrace();
+
+        Platform.runLater(() -> lock.getLoadingAnimation().setProgress(1.0, "Model failed to load: " + cause.getMessage()));
+    }
+
+    /**
+     * Sets up the prediction smoothing and session recording for the loaded model and starts
+     * running inference on the camera frames.
+     *
+     * @param loaded the loaded and warmed up ModelManager
+     */
+    private void onModelLoaded(ModelManager loaded) {
+        model = loaded;
+
+        // Smooth the predictions across frames as configured for this deployment
+        PredictionSmoother smoother = PredictionSmoother.fromSystemProperties(model.getModelProcessor().getLabels());
+        smoother.setConfidenceGate(model.getModelPredictor().getConfidenceGate());
+        cameraController.setSmoother(smoother);
+
+        // Record what the model sees and the digits it gives, if a recording file is configured
+        recorder = SessionRecorder.fromSystemProperties(model.getModelProcessor().getLabels());
+        cameraController.setRecorder(recorder);
+
+        // Report how long it took from launch to the first prediction
+        AtomicBoolean reported = new AtomicBoolean();
+        cameraController.addPredictionListener(prediction -> {
+            if (reported.compareAndSet(false, true)) {
+                System.out.println(String.format("First prediction %.0fms after startup (load=%.0fms, warm-up=%.0fms)",
+                        LatencyHistogram.toMillis(System.nanoTime() - startTime),
+                        LatencyHistogram.toMillis(modelLoader.getLoadNanos()),
+                        LatencyHistogram.toMillis(modelLoader.getWarmUpNanos())));
+            }
+        });
+
+        cameraController.startInference(model);
+    }
+
     /**
      * Sets up the window to point to the primaryStage, sets the title of the window to "Unlock the App",
      * and adds a shutdown hook to stop the camera capture when the app is closed.
@@ -70,21 +191,31 @@ public class Unlock {
         // Shutdown hook to stop the camera capture when the app is closed
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             cameraController.stopCapture();
+
+            if (metricsServer != null) {
+                metricsServer.stop();
+            }
+
+            if (recorder != null) {
+                recorder.close();
+            }
         }));
     }
 
     /**
-     * This method is called when the application is started. It loads the lock scene and updates the app.
+     * This method is called when the application is started. It loads the lock scene, updates
+     * the app, and starts loading the model in the background.
      */
     public void startApp() {
         loadLockScene();
         updateApp();
+        loadModel();
     }
 
     /**
      * Loads the lock scene by resetting the app to starting defaults, displaying the window,
-     * capturing the camera view and setting the model for the cameraController object, retrieving
-     * the Loading object, and showing the loading animation while the camera is loading.
+     * capturing the camera view, retrieving the Loading object, and showing the loading animation
+     * while the camera and model are loading. Inference starts once the model has loaded.
      */
     public void loadLockScene() {
         // Set the app to starting defaults
@@ -93,7 +224,7 @@ public class Unlock {
         // Display the window
         window.show();
 
-        // Capture the camera view and set the model for the cameraController object
+        // Capture the camera view, and the model if it has already loaded
         cameraController.captureCamera(lock.getCameraView(), model);
 
         // Retrieve the Loading object
@@ -104,57 +235,81 @@ public class Unlock {
     }
 
     /**
-     * Updates the app by getting the predicted class and score from the CameraController,
-     * showing the user's response and confidence score in the app, adding the user's response
-     * to the pin so far, displaying the current pin so far, and checking if all four numbers
-     * have been given. If all four numbers have been given, creates a pause transition of 3 seconds,
-     * sets the action to execute after the pause, and starts the pause transition.
+     * Updates the app from the stream of predictions made by the CameraController. Every
+     * prediction is shown as the user's response and fed into the DigitDetector, which adds
+     * a digit to the pin once the same class has been held steadily. When all four numbers
+     * have been given, creates a pause transition of 3 seconds, sets the action to execute
+     * after the pause, and starts the pause transition.
      */
     public void updateApp() {
-        timeline = new Timeline(new KeyFrame(Duration.seconds(3), event -> {
-            // Get the predicted class and score from the CameraController
-            String predictedClass = cameraController.getPredictedClass();
-            double predictedScore = cameraController.getPredictedScore();
-
-            if (predictedClass != null) {
-                // Show the user's response and confidence score in the app
-                lock.showUserResponse(predictedClass, predictedScore);
-
-                // Add the user's response to the pin so far
-                String userPin = logic.createUserPin(predictedClass);
-
-                // Displays the current pin so far
-                lock.setPinLabel(userPin);
-
-                // Check if all four numbers have been given
-                if (userPin.length() == 4) {
-                    // Create a pause transition of 3 seconds
-                    PauseTransition pause = new PauseTransition(Duration.seconds(3));
-
-                    // Set the action to execute after the pause
-                    pause.setOnFinished(e -> {
-                        String pinStatus = logic.getPinStatus(userPin);
-                        loadMainScene(pinStatus);
-                    });
-
-                    // Start the pause transition
-                    pause.play();
-                }
+        digitDetector = DigitDetector.fromSystemProperties(prediction -> {
+            SessionRecorder currentRecorder = recorder;
+            if (currentRecorder != null) {
+                currentRecorder.recordDigit(prediction);
             }
-        }));
 
-        // Specify that the animation should repeat indefinitely
-        timeline.setCycleCount(Timeline.INDEFINITE);
+            Platform.runLater(() -> addDigit(prediction));
+        });
+
+        cameraController.addPredictionListener(prediction -> {
+            digitDetector.accept(prediction);
+            showLatestResponse(prediction);
+        });
+    }
+
+    /**
+     * Shows the latest prediction as the user's response. Predictions arrive far faster than
+     * the label needs updating, so only one update is queued on the FX thread at a time and
+     * it always shows the newest prediction.
+     *
+     * @param prediction the latest prediction
+     */
+    private void showLatestResponse(Prediction prediction) {
+        if (pendingResponse.getAndSet(prediction) == null) {
+            Platform.runLater(() -> {
+                Prediction latest = pendingResponse.getAndSet(null);
+                lock.showUserResponse(latest.getClassName(), latest.getConfidence());
+            });
+        }
+    }
+
+    /**
+     * Adds the digit from an accepted prediction to the pin, displays the pin so far, and
+     * checks if all four numbers have been given.
+     *
+     * @param prediction the prediction that was accepted as a digit
+     */
+    private void addDigit(Prediction prediction) {
+        // Add the user's response to the pin so far
+        String userPin = logic.createUserPin(prediction.getClassName());
+
+        // Displays the current pin so far
+        lock.setPinLabel(userPin);
+
+        // Check if all four numbers have been given
+        if (userPin.length() == 4) {
+            // Stop accepting digits until the app is reset
+            digitDetector.setEnabled(false);
+
+            // Create a pause transition of 3 seconds
+            PauseTransition pause = new PauseTransition(Duration.seconds(3));
 
-        // Start the animation
-        timeline.play();
+            // Set the action to execute after the pause
+            pause.setOnFinished(e -> {
+                String pinStatus = logic.getPinStatus(userPin);
+                loadMainScene(pinStatus);
+            });
+
+            // Start the pause transition
+            pause.play();
+        }
     }
 
     /**
      * Loads the main scene with the given PIN status.
      * Retrieves the tryAgainButton from the MainScene and sets it to reset the app when clicked.
      * Creates the MainScene layout and sets it in the window.
-     * Stops the timeline.
+     * Stops accepting digits and pauses the camera, which the MainScene does not show.
      *
      * @param pinStatus the PIN status to load the main scene with
      */
@@ -173,27 +328,45 @@ public class Unlock {
         // Set the MainScene in the window
         window.setScene(mainScene);
 
-        // Stop the timeline
-        timeline.stop();
+        // Stop accepting digits
+        digitDetector.setEnabled(false);
+
+        // Stop capturing and running the model until the user tries again
+        cameraController.pause();
     }
 
     /**
      * Resets the app by resetting the AppLogic, creating a new LockScene, setting
-     * the LockScene in the window, and playing the timeline if it is not null.
+     * the LockScene in the window, resuming the camera, and accepting digits again if the
+     * detector has been created.
      */
     public void resetApp() {
         // Reset the AppLogic
         logic.resetLogic();
 
+        // Mark the new PIN in the recording, so a replay resets at the same point
+        SessionRecorder currentRecorder = recorder;
+        if (currentRecorder != null) {
+            currentRecorder.recordReset();
+        }
+
         // Create the LockScene for the app
         Scene lockScene = lock.createLockScene(cameraController);
 
         // Set the LockScene in the window
         window.setScene(lockScene);
 
-        // Play the timeline if it is not null
-        if (timeline != null) {
-            timeline.play();
+        // Resume capturing and running the model if the camera was paused for the MainScene
+        cameraController.resume();
+
+        // Start accepting digits for a new pin
+        if (cameraController.getSmoother() != null) {
+            cameraController.getSmoother().reset();
+        }
+
+        if (digitDetector != null) {
+            digitDetector.reset();
+            digitDetector.setEnabled(true);
         }
     }
 
@@ -0,0 +1,455 @@
+package com.codedotorg.modelmanager;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+
+public class BatchClassifier {
+
+    /** How to run the classifier from the command line */
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: BatchClassifier [options] <image directory | video file>...",
+            "  --output <file>    write a prediction per frame; .jsonl files are written as JSON lines, others as CSV",
+            "  --format csv|jsonl override the output format chosen from the file name",
+            "  --workers <n>      the number of inference threads sharing the model (default: one per core)",
+            "  --queue <n>        how many decoded frames may wait for a worker (default: twice the workers)",
+            "  --label <name>     the expected class of the video files that follow it",
+            "Images are labelled by the name of their directory, such as dataset/one/0001.png.",
+            "With -Dunlock.leakCheck=true, exits with 1 if any frame or tensor was not released.");
+
+    /** Marks the end of the frames for a worker */
+    private static final Job END = new Job(null, null, -1);
+
+    /** The ModelManager that every worker predicts with; its Session is shared */
+    private final ModelManager model;
+
+    /** The number of threads running inference */
+    private final int workers;
+
+    /** How many decoded frames may wait for a worker */
+    private final int queueDepth;
+
+    /** Where the prediction for each frame is written, or null to only print the summary */
+    private final PrintWriter output;
+
+    /** Whether the output is JSON lines instead of CSV */
+    private final boolean jsonLines;
+
+    /** The predictions of frames with a known class against that class */
+    private final ConfusionMatrix confusion;
+
+    /** The time each frame spends in preprocessing and the model */
+    private final LatencyHistogram inferenceLatency;
+
+    /** The time from decoding a frame to its prediction being ready */
+    private final LatencyHistogram totalLatency;
+
+    /** The number of frames that could not be predicted */
+    private final AtomicLong failures;
+
+    /**
+     * Constructs a new BatchClassifier.
+     *
+     * @param model the ModelManager with its model and labels loaded
+     * @param workers the number of inference threads
+     * @param queueDepth how many decoded frames may wait for a worker
+     * @param output where the prediction for each frame is written, or null for none
+     * @param jsonLines true to write JSON lines, false to write CSV
+     */
+    public BatchClassifier(ModelManager model, int workers, int queueDepth, PrintWriter output, boolean jsonLines) {
+        this.model = model;
+        this.workers = Math.max(1, workers);
+        this.queueDepth = Math.max(1, queueDepth);
+        this.output = output;
+        this.jsonLines = jsonLines;
+        this.confusion = new ConfusionMatrix(model.getModelProcessor().getLabels());
+        this.inferenceLatency = new LatencyHistogram();
+        this.totalLatency = new LatencyHistogram();
+        this.failures = new AtomicLong();
+
+        if (output != null && !jsonLines) {
+            output.println("source,frame,expected,predicted,confidence,latency_ms");
+        }
+    }
+
+    /**
+     * Classifies every frame of the source. Frames are decoded on the calling thread and
+     * predicted by the workers, so at most queueDepth + workers frames are in memory at once
+     * however large the source is. Predictions are written as they finish, which may not be
+     * in frame order; the frame column gives the order.
+     *
+     * @param source the FrameSource to classify; it is opened here and closed when it runs out
+     * @param label the expected class of every frame, or null to use the image directory names
+     * @return the number of frames read, or -1 if the source could not be opened
+     */
+    public long classify(FrameSource source, String label) {
+        if (!source.open()) {
+            System.err.println("Failed to open " + source.getName());
+            return -1;
+        }
+
+        BlockingQueue<Job> jobs = new ArrayBlockingQueue<>(queueDepth);
+        List<Thread> threads = new ArrayList<>(workers);
+
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(() -> runWorker(jobs), "classifier-worker-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long sequence = 0;
+        Mat frame = new Mat();
+
+        try {
+            while (source.read(frame)) {
+                String name = source.getName();
+                String expected = label;
+
+                // Images are named by their path and labelled by their directory
+                if (source instanceof ImageDirectoryFrameSource) {
+                    Path path = ((ImageDirectoryFrameSource) source).getCurrentPath();
+                    name = path.toString();
+
+                    if (expected == null && path.getParent() != null) {
+                        expected = path.getParent().getFileName().toString();
+                    }
+                }
+
+                // The frame now owns the Mat, so the reader needs a new one for the next image
+                CapturedFrame captured = new CapturedFrame(frame, ++sequence, System.nanoTime());
+                frame = new Mat();
+
+                // The queue blocks the reader while the workers are busy, which bounds memory
+                try {
+                    jobs.put(new Job(captured, name, confusion.indexOf(expected)));
+                } catch (InterruptedException e) {
+                    captured.release();
+                    throw e;
+                }
+            }
+
+            for (int i = 0; i < workers; i++) {
+                jobs.put(END);
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            threads.forEach(Thread::interrupt);
+        } finally {
+            frame.release();
+            source.close();
+
+            // Frames still queued when the workers were interrupted are released here
+            Job job;
+            while ((job = jobs.poll()) != null) {
+                if (job != END) {
+                    job.frame.release();
+                }
+            }
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Predicts frames from the queue until the end marker is reached.
+     *
+     * @param jobs the queue of decoded frames
+     */
+    private void runWorker(BlockingQueue<Job> jobs) {
+        try {
+            Job job;
+
+            while ((job = jobs.take()) != END) {
+                try {
+                    long start = System.nanoTime();
+                    Prediction prediction = model.getPrediction(job.frame.getMat());
+                    long end = System.nanoTime();
+
+                    inferenceLatency.record(end - start);
+                    totalLatency.record(end - job.frame.getTimestamp());
+
+                    if (job.expected >= 0) {
+                        confusion.record(job.expected, prediction);
+                    }
+
+                    write(job, prediction, end - start);
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                    System.err.println("Failed to classify frame " + job.frame.getSequence() + " of " + job.source);
+                    e.printStackTrace();
+                } finally {
+                    job.frame.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            model.releaseThreadResources();
+        }
+    }
+
+    /**
+     * Writes the prediction for one frame to the output.
+     *
+     * @param job the frame that was predicted
+     * @param prediction the Prediction for the frame
+     * @param latency the time the frame spent in the model, in nanoseconds
+     */
+    private void write(Job job, Prediction prediction, long latency) {
+        if (output == null) {
+            return;
+        }
+
+        List<String> labels = model.getModelProcessor().getLabels();
+        String expected = job.expected >= 0 ? labels.get(job.expected) : "";
+        double millis = LatencyHistogram.toMillis(latency);
+        String line;
+
+        if (jsonLines) {
+            line = String.format(Locale.ROOT,
+                    "{\"source\":%s,\"frame\":%d,\"expected\":%s,\"predicted\":%s,\"confidence\":%.6f,\"latency_ms\":%.3f}",
+                    jsonString(job.source), job.frame.getSequence(), job.expected >= 0 ? jsonString(expected) : "null",
+                    jsonString(prediction.getClassName()), prediction.getConfidence(), millis);
+        }
+        else {
+            line = String.format(Locale.ROOT, "%s,%d,%s,%s,%.6f,%.3f",
+                    csvString(job.source), job.frame.getSequence(), csvString(expected),
+                    csvString(prediction.getClassName()), prediction.getConfidence(), millis);
+        }
+
+        synchronized (output) {
+            output.println(line);
+        }
+    }
+
+    /**
+     * Returns the predictions of frames with a known class against that class.
+     *
+     * @return the ConfusionMatrix
+     */
+    public ConfusionMatrix getConfusionMatrix() {
+        return confusion;
+    }
+
+    /**
+     * Returns the time each frame spent in preprocessing and the model.
+     *
+     * @return the inference LatencyHistogram
+     */
+    public LatencyHistogram getInferenceLatency() {
+        return inferenceLatency;
+    }
+
+    /**
+     * Returns the time from decoding each frame to its prediction being ready.
+     *
+     * @return the end to end LatencyHistogram
+     */
+    public LatencyHistogram getTotalLatency() {
+        return totalLatency;
+    }
+
+    /**
+     * Returns the number of frames that could not be predicted.
+     *
+     * @return the number of failed frames
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Classifies the image directories and video files given on the command line without
+     * starting JavaFX, then prints the throughput, latency and confusion matrix.
+     *
+     * @param args the options and inputs, see USAGE
+     */
+    public static void main(String[] args) {
+        String outputPath = null;
+        String format = null;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queueDepth = -1;
+        String label = null;
+        List<String> inputs = new ArrayList<>();
+        List<String> inputLabels = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--output":
+                        outputPath = args[++i];
+                        break;
+                    case "--format":
+                        format = args[++i].toLowerCase(Locale.ROOT);
+                        break;
+                    case "--workers":
+                        workers = Integer.parseInt(args[++i]);
+                        break;
+                    case "--queue":
+                        queueDepth = Integer.parseInt(args[++i]);
+                        break;
+                    case "--label":
+                        label = args[++i];
+                        break;
+                    case "--help":
+                        System.out.println(USAGE);
+                        return;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        inputs.add(args[i]);
+                        inputLabels.add(label);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        if (inputs.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        boolean jsonLines = format != null ? format.equals("jsonl")
+                : outputPath != null && outputPath.toLowerCase(Locale.ROOT).endsWith(".jsonl");
+        if (queueDepth < 1) {
+            queueDepth = 2 * Math.max(1, workers);
+        }
+
+        nu.pattern.OpenCV.loadLocally();
+        ModelManager model = new ModelManager();
+
+        if (model.getModelProcessor().getSession() == null || model.getModelProcessor().getLabels() == null) {
+            System.err.println("The model or labels could not be loaded");
+            System.exit(1);
+        }
+
+        PrintWriter output = null;
+
+        try {
+            if (outputPath != null) {
+                BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputPath));
+                output = new PrintWriter(writer);
+            }
+
+            BatchClassifier classifier = new BatchClassifier(model, workers, queueDepth, output, jsonLines);
+            long frames = 0;
+            long start = System.nanoTime();
+
+            for (int i = 0; i < inputs.size(); i++) {
+                Path input = Paths.get(inputs.get(i));
+                FrameSource source = Files.isDirectory(input)
+                        ? new ImageDirectoryFrameSource(input)
+                        : new VideoFileFrameSource(input.toString());
+
+                frames += Math.max(0, classifier.classify(source, inputLabels.get(i)));
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            ConfusionMatrix confusion = classifier.getConfusionMatrix();
+
+            System.out.println(String.format("Classified %d frames in %.2fs (%.1f frames/s) with %d workers, %d failed",
+                    frames, seconds, seconds > 0 ? frames / seconds : 0, Math.max(1, workers), classifier.getFailures()));
+            System.out.println("Inference latency: " + classifier.getInferenceLatency());
+            System.out.println("End to end latency: " + classifier.getTotalLatency());
+
+            if (confusion.getTotal() > 0) {
+                System.out.println(String.format("Accuracy: %.3f over %d labelled frames",
+                        confusion.getAccuracy(), confusion.getTotal()));
+                System.out.print(confusion);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write " + outputPath);
+            e.printStackTrace();
+        } finally {
+            if (output != null) {
+                output.close();
+            }
+            model.getModelProcessor().getSession().close();
+        }
+
+        if (NativeResources.isEnabled()) {
+            System.out.println("Native objects: " + NativeResources.describe());
+            if (NativeResources.getLiveTotal() != 0) {
+                System.err.println("Leak check failed: native objects were not released");
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Quotes the text for a CSV field if it needs it.
+     *
+     * @param text the text of the field
+     * @return the CSV field
+     */
+    private static String csvString(String text) {
+        if (text.contains(",") || text.contains("\"") || text.contains("\n")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
+
+    /**
+     * Quotes and escapes the text as a JSON string.
+     *
+     * @param text the text of the string
+     * @return the JSON string
+     */
+    private static String jsonString(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                json.append(c);
+            }
+        }
+
+        return json.append('"').toString();
+    }
+
+    /**
+     * A decoded frame waiting for a worker.
+     */
+    private static final class Job {
+
+        /** The frame, its position in its source and when it was decoded, owned by the job */
+        private final CapturedFrame frame;
+
+        /** The image path or video file the frame came from */
+        private final String source;
+
+        /** The index of the expected label, or -1 if it is not known */
+        private final int expected;
+
+        private Job(CapturedFrame frame, String source, int expected) {
+            this.frame = frame;
+            this.source = source;
+            this.expected = expected;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.codedotorg.modelmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+
+public class BatchingExecutor {
+
+    /** The ModelManager that runs each batch */
+    private final ModelManager model;
+
+    /** The largest number of frames run together */
+    private volatile int maxBatchSize;
+
+    /** How long the first frame of a batch waits for more frames to arrive, in nanoseconds */
+    private volatile long maxWaitNanos;
+
+    /** The frames waiting to be batched */
+    private final LinkedBlockingQueue<Request> requests;
+
+    /** The thread that gathers and runs the batches */
+    private final Thread worker;
+
+    /** Whether or not the executor accepts and runs frames */
+    private volatile boolean running;
+
+    /** Held while a frame is queued or the executor is stopped, so no frame is queued after the final drain */
+    private final Object submitLock;
+
+    /** The time from submitting a frame to its prediction being ready */
+    private final LatencyHistogram latency;
+
+    /** The time each batch spends in the model */
+    private final LatencyHistogram batchLatency;
+
+    /** The number of frames in each batch */
+    private final LatencyHistogram batchSizes;
+
+    /** The number of frames that have been predicted */
+    private final AtomicLong completed;
+
+    /** When the executor started, used to work out the throughput */
+    private final long startTime;
+
+    /**
+     * Constructs a new BatchingExecutor that gathers frames from any number of callers
+     * and runs up to maxBatchSize of them together, waiting at most maxWaitMillis for
+     * a batch to fill.
+     *
+     * @param model the ModelManager that runs each batch
+     * @param maxBatchSize the largest number of frames run together
+     * @param maxWaitMillis how long the first frame of a batch waits for more frames
+     */
+    public BatchingExecutor(ModelManager model, int maxBatchSize, long maxWaitMillis) {
+        this.model = model;
+        this.requests = new LinkedBlockingQueue<>();
+        this.latency = new LatencyHistogram();
+        this.batchLatency = new LatencyHistogram();
+        this.batchSizes = new LatencyHistogram();
+        this.completed = new AtomicLong();
+        this.startTime = System.nanoTime();
+        this.submitLock = new Object();
+        setMaxBatchSize(maxBatchSize);
+        setMaxWaitMillis(maxWaitMillis);
+
+        running = true;
+        worker = new Thread(this::runBatches, "batching-executor");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Submits a frame to be predicted in the next batch. The caller keeps ownership
+     * of the frame and must not release it until the returned future completes.
+     *
+     * @param frame the frame to predict
+     * @return a future that completes with the Prediction for the frame
+     */
+    public CompletableFuture<Prediction> submit(Mat frame) {
+        CompletableFuture<Prediction> future = new CompletableFuture<>();
+
+        synchronized (submitLock) {
+            if (!running) {
+                future.completeExceptionally(new IllegalStateException("BatchingExecutor has been shut down"));
+                return future;
+            }
+
+            requests.add(new Request(frame, future));
+        }
+
+        return future;
+    }
+
+    /**
+     * Gathers frames into batches and runs them until the executor is shut down.
+     */
+    private void runBatches() {
+        List<Request> batch = new ArrayList<>();
+        List<Mat> frames = new ArrayList<>();
+
+        try {
+            while (running) {
+                Request first = requests.poll(100, TimeUnit.MILLISECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+
+                // Keep gathering until the batch is full or the first frame has waited long enough
+                long deadline = first.submitted + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? requests.poll(remaining, TimeUnit.NANOSECONDS) : requests.poll();
+
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                runBatch(batch, frames);
+                batch.clear();
+                frames.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            failPending(batch);
+            model.releaseThreadResources();
+        }
+    }
+
+    /**
+     * Runs one batch through the model and completes the future of every frame in it.
+     *
+     * @param batch the requests in the batch
+     * @param frames a reusable list to hold the frames of the batch
+     */
+    private void runBatch(List<Request> batch, List<Mat> frames) {
+        for (Request request : batch) {
+            frames.add(request.frame);
+        }
+
+        try {
+            long start = System.nanoTime();
+            List<Prediction> predictions = model.getPredictions(frames);
+            long end = System.nanoTime();
+
+            batchLatency.record(end - start);
+            batchSizes.record(batch.size());
+
+            for (int i = 0; i < batch.size(); i++) {
+                Request request = batch.get(i);
+                latency.record(end - request.submitted);
+                request.future.complete(predictions.get(i));
+            }
+
+            completed.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            for (Request request : batch) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Fails every request that will no longer be run.
+     *
+     * @param batch the requests of a batch that was being gathered
+     */
+    private void failPending(List<Request> batch) {
+        IllegalStateException stopped = new IllegalStateException("BatchingExecutor has been shut down");
+
+        for (Request request : batch) {
+            request.future.completeExceptionally(stopped);
+        }
+
+        Request request;
+        while ((request = requests.poll()) != null) {
+            request.future.completeExceptionally(stopped);
+        }
+    }
+
+    /**
+     * Stops the executor. Frames that have not been run yet fail with an IllegalStateException.
+     * Once this returns no frame can be queued, so the worker's final drain fails every frame
+     * it does not run.
+     */
+    public void shutdown() {
+        synchronized (submitLock) {
+            running = false;
+        }
+        worker.interrupt();
+    }
+
+    /**
+     * Returns the largest number of frames run together.
+     *
+     * @return the maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the largest number of frames run together.
+     *
+     * @param maxBatchSize the maximum batch size, at least 1
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Returns how long the first frame of a batch waits for more frames.
+     *
+     * @return the maximum wait in milliseconds
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /**
+     * Sets how long the first frame of a batch waits for more frames.
+     *
+     * @param maxWaitMillis the maximum wait in milliseconds, at least 0
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+    }
+
+    /**
+     * Returns the time from submitting a frame to its prediction being ready.
+     *
+     * @return the per-frame latency histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the time each batch spends in the model.
+     *
+     * @return the per-batch latency histogram
+     */
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    /**
+     * Returns the number of frames in each batch.
+     *
+     * @return the batch size histogram
+     */
+    public LatencyHistogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * Returns the number of frames predicted per second since the executor started.
+     *
+     * @return the throughput in frames per second
+     */
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? completed.get() / seconds : 0;
+    }
+
+    /**
+     * Returns a summary of the throughput, latency and batch sizes.
+     *
+     * @return a string containing the executor statistics
+     */
+    public String toString() {
+        return String.format("BatchingExecutor: batch<=%d, wait<=%dms, throughput=%.1f fps, mean batch=%.1f%n"
+                + "  frame latency: %s%n  batch latency: %s",
+                maxBatchSize, getMaxWaitMillis(), getThroughput(), batchSizes.getMean(), latency, batchLatency);
+    }
+
+    /**
+     * A frame waiting to be batched and the future to complete with its prediction.
+     */
+    private static final class Request {
+
+        /** The frame to predict */
+        final Mat frame;
+
+        /** The future to complete with the prediction */
+        final CompletableFuture<Prediction> future;
+
+        /** When the frame was submitted */
+        final long submitted;
+
+        /**
+         * Constructs a new Request for the given frame.
+         *
+         * @param frame the frame to predict
+         * @param future the future to complete with the prediction
+         */
+        Request(Mat frame, CompletableFuture<Prediction> future) {
+            this.frame = frame;
+            this.future = future;
+            this.submitted = System.nanoTime();
+        }
+    }
+}
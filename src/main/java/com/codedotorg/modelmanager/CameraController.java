@@ -1,9 +1,16 @@
 package com.codedotorg.modelmanager;
 
 import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import org.opencv.core.*;
-import org.opencv.videoio.VideoCapture;
 
 import javafx.application.Platform;
 import javafx.scene.image.Image;
@@ -13,78 +20,590 @@ import org.opencv.imgcodecs.Imgcodecs;
 
 public class CameraController {
 
-    /** The predicted class from the model */
-    private String predictedClass;
+    /** How long a stage waits for a frame before checking whether it should stop */
+    private static final long POLL_MILLIS = 100;
 
-    /** The confidence score of the model */
-    private float predictedScore;
+    /** The registry the capture and display times and the frame counts are recorded in */
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
 
-    /** Whether or not the camera capture is running */
-    private static volatile boolean running = true;
+    /** The time to read each frame from the source */
+    private static final LatencyHistogram CAPTURE_LATENCY = METRICS.histogram(MetricsRegistry.CAPTURE);
+
+    /** The time to display each frame */
+    private static final LatencyHistogram DISPLAY_LATENCY = METRICS.histogram(MetricsRegistry.DISPLAY);
+
+    /** The number of frames read from the source */
+    private static final LongAdder FRAMES_CAPTURED = METRICS.counter(MetricsRegistry.FRAMES_CAPTURED);
+
+    /** The number of frames that went through the model */
+    private static final LongAdder FRAMES_INFERRED = METRICS.counter(MetricsRegistry.FRAMES_INFERRED);
+
+    /** The number of frames dropped from a queue or skipped by the display */
+    private static final LongAdder FRAMES_DROPPED = METRICS.counter(MetricsRegistry.FRAMES_DROPPED);
+
+    /** The latest prediction from the model, published as one snapshot so its fields always match */
+    private final AtomicReference<Prediction> latestPrediction;
+
+    /** Called with every new prediction, on the inference thread that made it */
+    private final List<Consumer<Prediction>> predictionListeners;
+
+    /** Whether or not the camera capture of this controller is running */
+    private volatile boolean running;
+
+    /** Whether capture and inference are paused, with the source and model kept ready to resume */
+    private volatile boolean paused;
+
+    /** Whether a long pause has released the source and the preprocessing buffers */
+    private volatile boolean deepIdle;
+
+    /** How long a pause lasts before the source and preprocessing buffers are released, or 0 to keep them */
+    private volatile long deepIdleNanos;
+
+    /** Guards pausing and resuming, and wakes the capture thread when capture resumes */
+    private final Object pauseLock = new Object();
+
+    /** Smooths the predictions across frames before they are published, or null to publish them as is */
+    private volatile PredictionSmoother smoother;
+
+    /** Reuses the last prediction for frames that have not changed, or null to run the model on every frame */
+    private volatile MotionGate motionGate;
+
+    /** Lowers the capture rate and resolution while the scene is idle, or null to always capture flat out */
+    private volatile CaptureGovernor governor;
+
+    /** Records the frames the model sees and its raw predictions, or null if the session is not recorded */
+    private volatile SessionRecorder recorder;
+
+    /** The stage counts, queue depths and drop policy of the pipeline */
+    private PipelineConfig config;
+
+    /** Hands captured frames to the inference stage */
+    private FrameHandoff<CapturedFrame> inferenceQueue;
+
+    /** Hands captured frames to the render stage */
+    private FrameHandoff<CapturedFrame> renderQueue;
+
+    /** The fps and drop counters of the capture stage */
+    private final StageStats captureStats;
+
+    /** The fps and drop counters of the inference stage */
+    private final StageStats inferenceStats;
+
+    /** The fps and drop counters of the render stage */
+    private final StageStats renderStats;
+
+    /** The time from capturing a frame to its prediction being published */
+    private final LatencyHistogram latency;
+
+    /** The name of the source being captured, or null if capture has not started */
+    private volatile String sourceName;
+
+    /** Called after each frame is handed to the inference stage, or null if no one is waiting for frames */
+    private volatile Runnable frameReadyListener;
+
+    /** Whether this controller's own inference workers have been started */
+    private volatile boolean inferenceStarted;
 
     /**
      * Constructor for CameraController class.
-     * Loads OpenCV locally and initializes predictedClass and predictedScore to null and 0 respectively.
+     * Loads OpenCV locally and starts with no prediction.
      */
     public CameraController() {
+        this(new PipelineConfig());
+    }
+
+    /**
+     * Constructor for CameraController class with the given pipeline configuration.
+     * Loads OpenCV locally and starts with no prediction.
+     *
+     * @param config the stage counts, queue depths and drop policy of the pipeline
+     */
+    public CameraController(PipelineConfig config) {
         // Load the OpenCV library locally
         nu.pattern.OpenCV.loadLocally();
 
-        // Set predictedClass to null at start
-        predictedClass = null;
+        // There is no prediction until the first frame has been through the model
+        latestPrediction = new AtomicReference<>();
+        predictionListeners = new CopyOnWriteArrayList<>();
+        running = false;
 
-        // Set predictedScore to 0 at start
-        predictedScore = 0;
+        this.config = config;
+        captureStats = new StageStats("capture");
+        inferenceStats = new StageStats("inference");
+        renderStats = new StageStats("render");
+        latency = new LatencyHistogram();
     }
 
     /**
      * Captures camera frames and displays them in an ImageView while running.
-     * 
+     * Capture, inference and display run on separate threads connected by small
+     * queues, so the preview runs at the camera rate, inference always works on
+     * the freshest frame, and stale frames are dropped rather than queued.
+     *
      * @param imageView the ImageView to display the captured frames
-     * @param model the ModelManager to use for predicting the class and score of the captured frames
+     * @param model the ModelManager to use for predicting the class and score of the captured frames,
+     *              or null to start inference later with startInference() once the model is ready
      */
     public void captureCamera(ImageView imageView, ModelManager model) {
+        // Use the system default camera (0)
+        captureCamera(new CameraFrameSource(0), imageView, model);
+    }
+
+    /**
+     * Captures frames from the given source and displays them in an ImageView while running.
+     * The source can be a camera, a video file, a directory of images or a synthetic generator,
+     * so the pipeline can run and be measured without a webcam.
+     *
+     * @param source the FrameSource to capture frames from; it is closed when capture stops
+     * @param imageView the ImageView to display the captured frames, or null to run without display
+     * @param model the ModelManager to use for predicting the class and score of the captured frames,
+     *              or null to start inference later with startInference() once the model is ready
+     */
+    public void captureCamera(FrameSource source, ImageView imageView, ModelManager model) {
+        start(source, imageView, model, null);
+    }
+
+    /**
+     * Starts capturing and displaying frames from the given source without inference workers
+     * of its own. Frames wait in the inference queue for an outside scheduler, such as
+     * MultiCameraController, to take them with pollFrame() and predict them with predict().
+     *
+     * @param source the FrameSource to capture frames from; it is closed when capture stops
+     * @param imageView the ImageView to display the captured frames, or null to run without display
+     * @param frameReady called after each frame is handed to the inference queue
+     */
+    void startLane(FrameSource source, ImageView imageView, Runnable frameReady) {
+        start(source, imageView, null, frameReady);
+    }
+
+    /**
+     * Starts the capture and render stages, and the inference stage if a model is given.
+     *
+     * @param source the FrameSource to capture frames from
+     * @param imageView the ImageView to display the captured frames, or null to run without display
+     * @param model the ModelManager to run the inference workers with, or null to leave frames for pollFrame()
+     * @param frameReady called after each frame is handed to the inference queue, or null
+     */
+    private void start(FrameSource source, ImageView imageView, ModelManager model, Runnable frameReady) {
+        running = true;
+        paused = false;
+        sourceName = source.getName();
+        frameReadyListener = frameReady;
+        inferenceStarted = false;
+        inferenceQueue = new FrameHandoff<>(config.getInferenceQueueDepth(), config.getDropPolicy());
+        renderQueue = new FrameHandoff<>(config.getRenderQueueDepth(), config.getDropPolicy());
+
+        if (model != null) {
+            startInference(model);
+        }
+
+        if (imageView != null) {
+            startStage("camera-render", () -> runRender(imageView));
+        }
+
         // Create a new thread to run the camera capture to prevent the camera from
         // from blocking the main thread and causing the app to become unresponsive
-        new Thread(() -> {
-            // Create a VideoCapture with the system default camera (0)
-            VideoCapture camera = new VideoCapture(0);
+        startStage("camera-capture", () -> runCapture(source, imageView != null));
+    }
 
-            if (!camera.isOpened()) {
-                System.out.println("Error! Camera can't be opened.");
-                return;
+    /**
+     * Starts the inference workers of a capture that was started without a model, such as
+     * while the model is still loading. Until then only the latest frames are kept.
+     *
+     * @param model the ModelManager to use for predicting the class and score of the captured frames
+     */
+    public synchronized void startInference(ModelManager model) {
+        if (inferenceStarted || !running) {
+            return;
+        }
+
+        inferenceStarted = true;
+        for (int i = 0; i < config.getInferenceWorkers(); i++) {
+            startStage("camera-inference-" + i, () -> runInference(model));
+        }
+    }
+
+    /**
+     * Starts a daemon thread with the given name to run a pipeline stage.
+     *
+     * @param name the name of the thread
+     * @param stage the stage to run
+     */
+    private void startStage(String name, Runnable stage) {
+        Thread thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reads frames from the source and hands each one to the inference and render stages.
+     *
+     * @param source the FrameSource to capture frames from
+     * @param display whether frames are handed to the render stage
+     */
+    private void runCapture(FrameSource source, boolean display) {
+        if (!source.open()) {
+            System.out.println("Error! " + source.getName() + " can't be opened.");
+            return;
+        }
+
+        long sequence = 0;
+        long lastRead = 0;
+        int[] resolution = null;
+
+        while (running) {
+            // While paused, wait without capturing; the source stays open unless the pause runs long
+            if (paused && !awaitResume(source)) {
+                break;
             }
 
+            // Let the governor slow capture down and lower the resolution while the scene is idle
+            CaptureGovernor currentGovernor = governor;
+            if (currentGovernor != null) {
+                if (!waitForNextCapture(currentGovernor.getCaptureIntervalNanos(), lastRead)) {
+                    break;
+                }
+
+                int[] wanted = currentGovernor.getResolution();
+                if (!Arrays.equals(wanted, resolution)) {
+                    if (!source.setResolution(wanted[0], wanted[1])) {
+                        System.out.println(source.getName() + " did not switch to " + wanted[0] + "x" + wanted[1]);
+                    }
+                    resolution = wanted;
+                }
+            }
+            lastRead = System.nanoTime();
+
             // Create a new frame to host the image from the camera
             Mat frame = new Mat();
 
+            // Capture the frame
+            boolean recording = METRICS.isEnabled();
+            long start = recording ? System.nanoTime() : 0;
+
+            if (source.read(frame)) {
+                if (recording) {
+                    CAPTURE_LATENCY.record(System.nanoTime() - start);
+                    FRAMES_CAPTURED.increment();
+                }
+                captureStats.recordFrame();
+
+                if (currentGovernor != null) {
+                    currentGovernor.observeFrame(frame);
+                }
+
+                CapturedFrame captured = new CapturedFrame(frame, ++sequence, System.nanoTime());
+
+                // The render stage gets its own copy because the inference stage may still be using the frame
+                if (display) {
+                    release(renderQueue.offer(captured.copy()), renderStats);
+                }
+                release(inferenceQueue.offer(captured), inferenceStats);
+
+                Runnable listener = frameReadyListener;
+                if (listener != null) {
+                    listener.run();
+                }
+            }
+            else {
+                System.out.println("Cannot capture the frame from " + source.getName() + ".");
+                frame.release();
+                break;
+            }
+        }
+
+        // Release the source after usage
+        source.close();
+
+        // Without inference workers of its own, nothing else drains the frames left waiting for inference
+        if (!inferenceStarted) {
+            drain(inferenceQueue);
+        }
+    }
+
+    /**
+     * Waits on the capture thread until capture is resumed or stopped. Frames captured before
+     * the pause are released first, since they are stale by the time capture resumes. If the
+     * pause outlasts the deep idle timeout, the source is closed and reopened on resume.
+     *
+     * @param source the FrameSource being captured
+     * @return true if capture resumed and the source is open, false if capture should stop
+     */
+    private boolean awaitResume(FrameSource source) {
+        drain(inferenceQueue);
+        drain(renderQueue);
+
+        long pausedAt = System.nanoTime();
+        boolean sourceOpen = true;
+
+        try {
+            synchronized (pauseLock) {
+                while (paused && running) {
+                    long timeout = deepIdleNanos;
+
+                    if (sourceOpen && timeout > 0 && System.nanoTime() - pausedAt >= timeout) {
+                        source.close();
+                        sourceOpen = false;
+                        deepIdle = true;
+                        System.out.println("Capture deep idle: released " + source.getName());
+                    }
+
+                    pauseLock.wait(POLL_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            deepIdle = false;
+        }
+
+        if (!running) {
+            return false;
+        }
+
+        if (!sourceOpen && !source.open()) {
+            System.out.println("Error! " + source.getName() + " can't be reopened.");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Sleeps until the given interval has passed since the last frame was read.
+     *
+     * @param intervalNanos the time to leave between frames, or 0 to not wait
+     * @param lastRead when the last frame was read, from System.nanoTime()
+     * @return false if the capture thread was interrupted while waiting
+     */
+    private boolean waitForNextCapture(long intervalNanos, long lastRead) {
+        long remaining = intervalNanos - (System.nanoTime() - lastRead);
+
+        if (intervalNanos <= 0 || remaining <= 0) {
+            return true;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Takes the latest captured frame and gets a prediction for it from the model.
+     *
+     * @param model the ModelManager to use for predicting the class and score
+     */
+    private void runInference(ModelManager model) {
+        boolean released = false;
+
+        try {
+            while (running) {
+                CapturedFrame frame = inferenceQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (frame == null) {
+                    // The buffers are recreated with the first frame after the pause
+                    if (deepIdle && !released) {
+                        model.releaseThreadResources();
+                        released = true;
+                    }
+                    continue;
+                }
+
+                released = false;
+
+                predict(model, frame);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            drain(inferenceQueue);
+            model.releaseThreadResources();
+        }
+    }
+
+    /**
+     * Takes the next frame waiting for inference without blocking.
+     *
+     * @return the frame, or null if no frame is waiting
+     */
+    CapturedFrame pollFrame() {
+        FrameHandoff<CapturedFrame> queue = inferenceQueue;
+        return queue != null ? queue.poll() : null;
+    }
+
+    /**
+     * Gets a prediction for the frame from the model, smooths it, publishes it
+     * and releases the frame.
+     *
+     * @param model the ModelManager to use for predicting the class and score
+     * @param frame the frame taken from the inference queue
+     */
+    void predict(ModelManager model, CapturedFrame frame) {
+        try {
+            SessionRecorder currentRecorder = recorder;
+            if (currentRecorder != null) {
+                currentRecorder.recordFrame(frame);
+            }
+
+            // Reuse the last prediction if the frame has not changed since the model last ran
+            MotionGate gate = motionGate;
+            Prediction result = gate != null ? gate.getUnchangedPrediction(frame.getMat()) : null;
+
+            CaptureGovernor currentGovernor = governor;
+
+            if (result == null) {
+                // Get the predicted result from the model
+                long start = System.nanoTime();
+                result = model.getPrediction(frame.getMat());
+
+                if (currentGovernor != null) {
+                    currentGovernor.recordInference(System.nanoTime() - start);
+                }
+
+                if (METRICS.isEnabled()) {
+                    FRAMES_INFERRED.increment();
+                }
+
+                if (gate != null) {
+                    gate.setLastPrediction(result);
+                }
+            }
+
+            // Tie the prediction to the frame
+            result = result.forFrame(frame);
+
+            // Record the raw prediction, before smoothing, so a replay can compare the model alone
+            if (currentRecorder != null) {
+                currentRecorder.recordPrediction(result);
+            }
+
+            // Smooth out flickers between classes across frames
+            PredictionSmoother currentSmoother = smoother;
+            if (currentSmoother != null) {
+                result = currentSmoother.smooth(result);
+            }
+
+            if (currentGovernor != null) {
+                currentGovernor.recordPrediction(result);
+            }
+
+            publish(result);
+            inferenceStats.recordFrame();
+            latency.record(System.nanoTime() - frame.getTimestamp());
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Takes the latest captured frame and displays it in the image view.
+     *
+     * @param imageView the ImageView to display the captured frames
+     */
+    private void runRender(ImageView imageView) {
+        FrameRenderer renderer = new FrameRenderer(imageView);
+
+        try {
             while (running) {
-                // Capture the frame
-                if (camera.read(frame)) {
+                CapturedFrame frame = renderQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (frame == null) {
+                    continue;
+                }
+
+                boolean recording = METRICS.isEnabled();
+                long start = recording ? System.nanoTime() : 0;
+
+                if (config.isDirectDisplay()) {
+                    // Write the pixels straight into the displayed image, skipping the
+                    // frame if the FX thread has not shown the previous one yet
+                    if (renderer.render(frame.getMat())) {
+                        renderStats.recordFrame();
+                    }
+                    else {
+                        renderStats.recordDrops(1);
+                        if (recording) {
+                            FRAMES_DROPPED.increment();
+                        }
+                    }
+                }
+                else {
                     // Convert and display the image from the camera
-                    Image img = matToImage(frame);
+                    Image img = matToImage(frame.getMat());
 
                     // Update the image displayed in the image view
                     Platform.runLater(() -> imageView.setImage(img));
 
-                    // Get the predicted result from the model
-                    Prediction result = model.getPrediction(frame);
-
-                    // Get the predicted class from the result
-                    predictedClass = result.getClassName();
+                    renderStats.recordFrame();
+                }
 
-                    // Get the predicted score from the result
-                    predictedScore = result.getConfidence();
+                if (recording) {
+                    DISPLAY_LATENCY.record(System.nanoTime() - start);
                 }
-                else {
-                    System.out.println("Cannot capture the frame.");
-                    break;
+
+                frame.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            drain(renderQueue);
+            renderer.release();
+        }
+    }
+
+    /**
+     * Publishes a prediction as the latest one and passes it to every listener. With more
+     * than one inference worker, predictions can finish out of order, so a prediction is
+     * only published if it is for a newer frame than the current one.
+     *
+     * @param prediction the prediction to publish
+     */
+    private void publish(Prediction prediction) {
+        Prediction current = latestPrediction.get();
+
+        while (current == null || current.getSequence() < prediction.getSequence()) {
+            if (latestPrediction.compareAndSet(current, prediction)) {
+                for (Consumer<Prediction> listener : predictionListeners) {
+                    listener.accept(prediction);
                 }
+                return;
+            }
+            current = latestPrediction.get();
+        }
+    }
+
+    /**
+     * Releases a frame that was dropped from a queue and counts the drop against the given stage.
+     *
+     * @param dropped the dropped frame, or null if nothing was dropped
+     * @param stats the stage the frame was dropped from
+     */
+    private void release(CapturedFrame dropped, StageStats stats) {
+        if (dropped != null) {
+            dropped.release();
+            stats.recordDrops(1);
+
+            if (METRICS.isEnabled()) {
+                FRAMES_DROPPED.increment();
             }
+        }
+    }
 
-            // Release the camera after usage
-            camera.release();
-        }).start();
+    /**
+     * Releases every frame still waiting in the given queue.
+     *
+     * @param queue the queue to drain
+     */
+    private void drain(FrameHandoff<CapturedFrame> queue) {
+        CapturedFrame frame;
+        while ((frame = queue.poll()) != null) {
+            frame.release();
+        }
     }
 
     /**
@@ -93,7 +612,8 @@ public class CameraController {
      * @return the predicted class from the model
      */
     public String getPredictedClass() {
-        return predictedClass;
+        Prediction prediction = latestPrediction.get();
+        return prediction != null ? prediction.getClassName() : null;
     }
 
     /**
@@ -102,30 +622,242 @@ public class CameraController {
      * @return the predicted confidence score from the model
      */
     public float getPredictedScore() {
-        return predictedScore;
+        Prediction prediction = latestPrediction.get();
+        return prediction != null ? prediction.getConfidence() : 0;
+    }
+
+    /**
+     * Returns the latest prediction from the model. The class, score, probabilities
+     * and frame details all come from the same frame. Never blocks.
+     *
+     * @return the latest Prediction, or null if no frame has been predicted yet
+     */
+    public Prediction getLatestPrediction() {
+        return latestPrediction.get();
     }
 
     /**
-     * Stops the camera capture.
+     * Adds a listener that is called with every new prediction. Listeners run on the
+     * inference thread, so they should return quickly and must not touch the UI directly.
+     *
+     * @param listener the listener to add
+     */
+    public void addPredictionListener(Consumer<Prediction> listener) {
+        predictionListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addPredictionListener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removePredictionListener(Consumer<Prediction> listener) {
+        predictionListeners.remove(listener);
+    }
+
+    /**
+     * Returns the fps and drop counters of the capture, inference and render stages.
+     *
+     * @return the StageStats of each stage in pipeline order
+     */
+    public List<StageStats> getStageStats() {
+        return new ArrayList<>(Arrays.asList(captureStats, inferenceStats, renderStats));
+    }
+
+    /**
+     * Returns the time from capturing a frame to its prediction being published.
+     *
+     * @return the per-frame latency histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the name of the source being captured.
+     *
+     * @return the name of the source, or null if capture has not started
+     */
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    /**
+     * Returns the number of frames waiting for inference.
+     *
+     * @return the inference queue depth, or 0 if the pipeline has not started
+     */
+    public int getInferenceQueueSize() {
+        return inferenceQueue != null ? inferenceQueue.size() : 0;
+    }
+
+    /**
+     * Returns the number of frames waiting to be displayed.
+     *
+     * @return the render queue depth, or 0 if the pipeline has not started
+     */
+    public int getRenderQueueSize() {
+        return renderQueue != null ? renderQueue.size() : 0;
+    }
+
+    /**
+     * Sets the smoother that combines predictions across frames before they are published.
+     *
+     * @param smoother the PredictionSmoother to use, or null to publish every prediction as is
+     */
+    public void setSmoother(PredictionSmoother smoother) {
+        this.smoother = smoother;
+    }
+
+    /**
+     * Returns the smoother that combines predictions across frames.
+     *
+     * @return the PredictionSmoother, or null if predictions are published as is
+     */
+    public PredictionSmoother getSmoother() {
+        return smoother;
+    }
+
+    /**
+     * Sets the gate that skips the model for frames that have not changed.
+     *
+     * @param motionGate the MotionGate to use, or null to run the model on every frame
+     */
+    public void setMotionGate(MotionGate motionGate) {
+        this.motionGate = motionGate;
+    }
+
+    /**
+     * Returns the gate that skips the model for frames that have not changed.
+     *
+     * @return the MotionGate, with its skip counters, or null if every frame goes through the model
+     */
+    public MotionGate getMotionGate() {
+        return motionGate;
+    }
+
+    /**
+     * Sets the governor that lowers the capture rate and resolution while the scene is idle
+     * and raises them again when motion or a non-idle class appears.
+     *
+     * @param governor the CaptureGovernor to use, or null to always capture as fast as the source allows
+     */
+    public void setGovernor(CaptureGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Returns the governor that adapts the capture rate and resolution to the scene.
+     *
+     * @return the CaptureGovernor, or null if capture always runs flat out
+     */
+    public CaptureGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * Sets the recorder that the frames going to the model and the raw predictions are
+     * written to, so the session can be replayed later.
+     *
+     * @param recorder the SessionRecorder to record to, or null to stop recording
+     */
+    public void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Returns the recorder the session is written to.
+     *
+     * @return the SessionRecorder, or null if the session is not recorded
+     */
+    public SessionRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Returns whether the camera capture of this controller is running.
+     *
+     * @return true if the capture is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops the camera capture of this controller.
      */
     public void stopCapture() {
-        running = false;
+        synchronized (pauseLock) {
+            running = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Pauses capture and inference, such as while a scene without the camera is shown. The
+     * camera stays open and the model stays loaded, so resume() is immediate. Frames already
+     * captured are released rather than predicted.
+     */
+    public void pause() {
+        synchronized (pauseLock) {
+            paused = true;
+        }
+    }
+
+    /**
+     * Resumes capture and inference after pause(). The motion gate is reset so the first
+     * frame after the pause always goes through the model.
+     */
+    public void resume() {
+        MotionGate gate = motionGate;
+        if (gate != null) {
+            gate.reset();
+        }
+
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns whether capture and inference are paused.
+     *
+     * @return true if paused
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Sets how long a pause lasts before it becomes a deep idle, in which the source is closed,
+     * such as turning the camera off, and the preprocessing buffers of the inference workers are
+     * released. Resuming from a deep idle reopens the source, which takes longer than a plain resume.
+     * The model's session is kept either way, since loading it again takes seconds.
+     *
+     * @param timeout how long to wait, or 0 to never release anything while paused
+     * @param unit the unit of the timeout
+     */
+    public void setDeepIdleTimeout(long timeout, TimeUnit unit) {
+        deepIdleNanos = Math.max(0, unit.toNanos(timeout));
     }
 
     /**
      * Converts a given OpenCV Mat object to a JavaFX Image object.
-     * 
+     *
      * @param frame The OpenCV Mat object to be converted.
      * @return The JavaFX Image object created from the image encoded in the buffer.
      */
-    private Image matToImage(Mat frame) {
-        // Create a temporary buffer to store the encoded image data
-        MatOfByte buffer = new MatOfByte();
+    Image matToImage(Mat frame) {
+        // Create a temporary buffer to store the encoded image data, released once it is copied out
+        try (FrameScope scope = new FrameScope()) {
+            MatOfByte buffer = scope.track(NativeResources.counted(new MatOfByte()));
 
-        // Encode the frame in the buffer, according to the PNG format
-        Imgcodecs.imencode(".png", frame, buffer);
+            // Encode the frame in the buffer, according to the PNG format
+            Imgcodecs.imencode(".png", frame, buffer);
 
-        // Build and return an Image created from the image encoded in the buffer
-        return new Image(new ByteArrayInputStream(buffer.toArray()));
+            // Build and return an Image created from the image encoded in the buffer
+            return new Image(new ByteArrayInputStream(buffer.toArray()));
+        }
     }
 }
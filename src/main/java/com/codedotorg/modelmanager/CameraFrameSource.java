@@ -0,0 +1,98 @@
+package com.codedotorg.modelmanager;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+public class CameraFrameSource implements FrameSource {
+
+    /** The index of the camera device */
+    private final int device;
+
+    /** Reads frames from the camera */
+    private VideoCapture camera;
+
+    /**
+     * Constructs a new CameraFrameSource for the given camera device.
+     *
+     * @param device the index of the camera device, 0 for the system default camera
+     */
+    public CameraFrameSource(int device) {
+        this.device = device;
+    }
+
+    /**
+     * Opens the camera and keeps as few frames as possible buffered in the driver
+     * so every read is fresh.
+     *
+     * @return true if the camera was opened
+     */
+    public boolean open() {
+        camera = new VideoCapture(device);
+
+        if (!camera.isOpened()) {
+            return false;
+        }
+
+        camera.set(Videoio.CAP_PROP_BUFFERSIZE, 1);
+        return true;
+    }
+
+    /**
+     * Reads the next frame from the camera.
+     *
+     * @param frame the Mat to read the frame into
+     * @return true if a frame was read
+     */
+    public boolean read(Mat frame) {
+        return camera != null && camera.read(frame);
+    }
+
+    /**
+     * Returns the frame rate reported by the camera.
+     *
+     * @return the frame rate, or 0 if it is not known
+     */
+    public double getFrameRate() {
+        return camera != null ? camera.get(Videoio.CAP_PROP_FPS) : 0;
+    }
+
+    /**
+     * Asks the camera driver for a new capture resolution. Drivers pick the nearest mode
+     * they support, so the resolution actually set is read back.
+     *
+     * @param width the frame width in pixels
+     * @param height the frame height in pixels
+     * @return true if the camera now captures at exactly that resolution
+     */
+    public boolean setResolution(int width, int height) {
+        if (camera == null) {
+            return false;
+        }
+
+        camera.set(Videoio.CAP_PROP_FRAME_WIDTH, width);
+        camera.set(Videoio.CAP_PROP_FRAME_HEIGHT, height);
+
+        return (int) camera.get(Videoio.CAP_PROP_FRAME_WIDTH) == width
+                && (int) camera.get(Videoio.CAP_PROP_FRAME_HEIGHT) == height;
+    }
+
+    /**
+     * Returns the name of the camera.
+     *
+     * @return the name of the source
+     */
+    public String getName() {
+        return "camera " + device;
+    }
+
+    /**
+     * Releases the camera.
+     */
+    public void close() {
+        if (camera != null) {
+            camera.release();
+            camera = null;
+        }
+    }
+}
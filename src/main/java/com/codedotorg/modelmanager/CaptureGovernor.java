@@ -0,0 +1,368 @@
+package com.codedotorg.modelmanager;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+public class CaptureGovernor {
+
+    /** The size frames are shrunk to before looking for motion */
+    private static final Size THUMBNAIL_SIZE = new Size(32, 32);
+
+    /** How much each new latency counts towards the moving average */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    /** The number of inferences in a row over the target before the resolution is lowered */
+    private static final int STEP_DOWN_FRAMES = 10;
+
+    /** The number of inferences in a row well under the target before the resolution is raised */
+    private static final int STEP_UP_FRAMES = 30;
+
+    /** The fraction of the target the latency must stay under before the resolution is raised */
+    private static final double STEP_UP_HEADROOM = 0.6;
+
+    /** The inference latency the governor keeps the pipeline under while the scene is active */
+    private final long latencyTargetNanos;
+
+    /** The time between captured frames while the scene is idle */
+    private final long idleIntervalNanos;
+
+    /** How long the scene must go without motion or a non-idle class to count as idle */
+    private final long idleAfterNanos;
+
+    /** The mean absolute gray level difference between frames that counts as motion */
+    private final double motionThreshold;
+
+    /** The classes, besides UNCERTAIN, that mean nobody is signing, in lower case */
+    private final Set<String> idleClasses;
+
+    /** The capture resolutions as {width, height}, highest first; the last is used while idle */
+    private final int[][] resolutions;
+
+    /** A gray thumbnail of the latest frame */
+    private final Mat thumbnail;
+
+    /** A gray thumbnail of the frame before it */
+    private final Mat previous;
+
+    /** Holds the difference between the thumbnails */
+    private final Mat difference;
+
+    /** Whether the thumbnails have been released, so releasing again does nothing */
+    private boolean released;
+
+    /** The moving average of the inference latency in nanoseconds, or 0 before the first inference */
+    private double averageLatency;
+
+    /** When motion or a non-idle class was last seen */
+    private long lastActivity;
+
+    /** Whether the scene is idle */
+    private boolean idle;
+
+    /** The resolution used while the scene is active, as an index into resolutions */
+    private int activeLevel;
+
+    /** The number of inferences in a row over the latency target */
+    private int framesOverTarget;
+
+    /** The number of inferences in a row well under the latency target */
+    private int framesUnderTarget;
+
+    /** The number of times the scene has gone idle or woken up */
+    private long transitions;
+
+    /**
+     * Constructs a new CaptureGovernor.
+     *
+     * @param latencyTargetMillis the inference latency to stay under while the scene is active
+     * @param idleFps the frames per second to capture while the scene is idle
+     * @param idleAfterSeconds how long the scene must be quiet to count as idle
+     * @param motionThreshold the mean absolute gray level difference between frames that counts as motion
+     * @param idleClasses the labels or class names, besides UNCERTAIN, that mean nobody is signing
+     * @param resolutions the capture resolutions as {width, height}, highest first; the last is used while idle
+     */
+    public CaptureGovernor(double latencyTargetMillis, double idleFps, double idleAfterSeconds,
+            double motionThreshold, Set<String> idleClasses, int[][] resolutions) {
+        if (resolutions.length == 0) {
+            throw new IllegalArgumentException("At least one resolution is needed");
+        }
+
+        this.latencyTargetNanos = (long) (latencyTargetMillis * 1e6);
+        this.idleIntervalNanos = idleFps > 0 ? (long) (1e9 / idleFps) : 0;
+        this.idleAfterNanos = (long) (idleAfterSeconds * 1e9);
+        this.motionThreshold = motionThreshold;
+        this.idleClasses = new HashSet<>();
+        for (String name : idleClasses) {
+            this.idleClasses.add(name.trim().toLowerCase(Locale.ROOT));
+        }
+        this.resolutions = resolutions.clone();
+        this.thumbnail = NativeResources.newMat();
+        this.previous = NativeResources.newMat();
+        this.difference = NativeResources.newMat();
+        this.lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Constructs a CaptureGovernor configured by the system properties below. The governor
+     * is off unless unlock.governor is true.
+     * <ul>
+     *   <li>unlock.governor.latencyMs: the inference latency target (default 100)</li>
+     *   <li>unlock.governor.idleFps: the capture rate while idle (default 5)</li>
+     *   <li>unlock.governor.idleSeconds: how long the scene must be quiet to go idle (default 3)</li>
+     *   <li>unlock.governor.motion: the gray level difference that counts as motion (default 4)</li>
+     *   <li>unlock.governor.idleClasses: comma separated classes that mean nobody is signing (default neutral)</li>
+     *   <li>unlock.governor.resolutions: comma separated WIDTHxHEIGHT, highest first (default 640x480,320x240)</li>
+     * </ul>
+     *
+     * @return the configured CaptureGovernor, or null if unlock.governor is not true
+     */
+    public static CaptureGovernor fromSystemProperties() {
+        if (!Boolean.getBoolean("unlock.governor")) {
+            return null;
+        }
+
+        // The neutral class is what an empty scene is predicted as, the same class DigitDetector treats as no digit
+        String classes = System.getProperty("unlock.governor.idleClasses", "neutral");
+        Set<String> idleClasses = new HashSet<>();
+        for (String name : classes.split(",")) {
+            if (!name.trim().isEmpty()) {
+                idleClasses.add(name);
+            }
+        }
+
+        String[] sizes = System.getProperty("unlock.governor.resolutions", "640x480,320x240").split(",");
+        int[][] resolutions = new int[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            String[] parts = sizes[i].trim().toLowerCase(Locale.ROOT).split("x");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("unlock.governor.resolutions must be WIDTHxHEIGHT values: " + sizes[i]);
+            }
+            resolutions[i] = new int[] {Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+        }
+
+        return new CaptureGovernor(
+                Double.parseDouble(System.getProperty("unlock.governor.latencyMs", "100")),
+                Double.parseDouble(System.getProperty("unlock.governor.idleFps", "5")),
+                Double.parseDouble(System.getProperty("unlock.governor.idleSeconds", "3")),
+                Double.parseDouble(System.getProperty("unlock.governor.motion", "4")),
+                idleClasses, resolutions);
+    }
+
+    /**
+     * Looks for motion between the frame and the one before it, and lets the scene go idle
+     * once it has been quiet for long enough. Called on the capture thread for every frame.
+     *
+     * @param frame the captured BGR frame
+     */
+    public synchronized void observeFrame(Mat frame) {
+        Imgproc.resize(frame, difference, THUMBNAIL_SIZE, 0, 0, Imgproc.INTER_AREA);
+        if (difference.channels() == 3) {
+            Imgproc.cvtColor(difference, thumbnail, Imgproc.COLOR_BGR2GRAY);
+        }
+        else {
+            difference.copyTo(thumbnail);
+        }
+
+        if (!previous.empty()) {
+            Core.absdiff(thumbnail, previous, difference);
+            if (Core.mean(difference).val[0] >= motionThreshold) {
+                markActive("motion");
+            }
+        }
+        thumbnail.copyTo(previous);
+
+        if (!idle && System.nanoTime() - lastActivity >= idleAfterNanos) {
+            idle = true;
+            transitions++;
+            System.out.println("Capture governor: scene idle, capturing at " + describe(resolutions.length - 1));
+        }
+    }
+
+    /**
+     * Records how long the model took for a frame. While the scene is active, the capture
+     * resolution is lowered when the average stays over the target and raised again once
+     * there is room to spare.
+     *
+     * @param nanos the time the model took, in nanoseconds
+     */
+    public synchronized void recordInference(long nanos) {
+        averageLatency = averageLatency == 0 ? nanos
+                : averageLatency + LATENCY_SMOOTHING * (nanos - averageLatency);
+
+        if (idle) {
+            return;
+        }
+
+        if (averageLatency > latencyTargetNanos) {
+            framesUnderTarget = 0;
+            if (++framesOverTarget >= STEP_DOWN_FRAMES && activeLevel < resolutions.length - 1) {
+                activeLevel++;
+                framesOverTarget = 0;
+                System.out.println(String.format("Capture governor: %.1fms over the %.0fms target, capturing at %s",
+                        LatencyHistogram.toMillis(averageLatency), LatencyHistogram.toMillis(latencyTargetNanos),
+                        describe(activeLevel)));
+            }
+        }
+        else if (averageLatency < latencyTargetNanos * STEP_UP_HEADROOM) {
+            framesOverTarget = 0;
+            if (++framesUnderTarget >= STEP_UP_FRAMES && activeLevel > 0) {
+                activeLevel--;
+                framesUnderTarget = 0;
+                System.out.println("Capture governor: latency has room, capturing at " + describe(activeLevel));
+            }
+        }
+        else {
+            framesOverTarget = 0;
+            framesUnderTarget = 0;
+        }
+    }
+
+    /**
+     * Wakes the scene up if the prediction is a class that means someone is signing.
+     *
+     * @param prediction the latest published prediction
+     */
+    public synchronized void recordPrediction(Prediction prediction) {
+        if (!isIdleClass(prediction)) {
+            markActive(prediction.getClassName());
+        }
+    }
+
+    /**
+     * Returns whether the prediction means nobody is signing: it is UNCERTAIN or one of the
+     * idle classes, matched by the whole label ("0 nothing") or the class name ("nothing").
+     *
+     * @param prediction the prediction to check
+     * @return true if the prediction is an idle class
+     */
+    private boolean isIdleClass(Prediction prediction) {
+        if (prediction.isUncertain()) {
+            return true;
+        }
+
+        String label = prediction.getClassName().toLowerCase(Locale.ROOT);
+        return idleClasses.contains(label) || idleClasses.contains(label.substring(label.indexOf(' ') + 1));
+    }
+
+    /**
+     * Records activity, waking the scene up if it was idle.
+     *
+     * @param reason what woke the scene up, for the log
+     */
+    private void markActive(String reason) {
+        lastActivity = System.nanoTime();
+
+        if (idle) {
+            idle = false;
+            transitions++;
+            System.out.println("Capture governor: woken by " + reason + ", capturing at " + describe(activeLevel));
+        }
+    }
+
+    /**
+     * Returns how long the capture stage should leave between frames. While idle this is
+     * the idle frame interval. While active the camera runs at its own rate, unless even the
+     * lowest resolution cannot keep inference under the target; then frames are captured no
+     * faster than the model can take them, rather than being captured only to be dropped.
+     *
+     * @return the interval in nanoseconds, or 0 to capture as fast as the source delivers
+     */
+    public synchronized long getCaptureIntervalNanos() {
+        if (idle) {
+            return idleIntervalNanos;
+        }
+
+        if (activeLevel == resolutions.length - 1 && averageLatency > latencyTargetNanos) {
+            return (long) averageLatency;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the resolution the source should capture at.
+     *
+     * @return the resolution as {width, height}
+     */
+    public synchronized int[] getResolution() {
+        return resolutions[idle ? resolutions.length - 1 : activeLevel].clone();
+    }
+
+    /**
+     * Returns whether the scene is idle.
+     *
+     * @return true if the scene is idle
+     */
+    public synchronized boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Returns the moving average of the inference latency.
+     *
+     * @return the average latency in nanoseconds, or 0 before the first inference
+     */
+    public synchronized double getAverageLatencyNanos() {
+        return averageLatency;
+    }
+
+    /**
+     * Returns the inference latency target.
+     *
+     * @return the target in nanoseconds
+     */
+    public long getLatencyTargetNanos() {
+        return latencyTargetNanos;
+    }
+
+    /**
+     * Returns the number of times the scene has gone idle or woken up.
+     *
+     * @return the number of transitions
+     */
+    public synchronized long getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * Describes a resolution for log messages.
+     *
+     * @param level the index into resolutions
+     * @return the resolution as WIDTHxHEIGHT
+     */
+    private String describe(int level) {
+        return resolutions[level][0] + "x" + resolutions[level][1];
+    }
+
+    /**
+     * Releases the native memory held by the thumbnails. Releasing them again does nothing.
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+
+        released = true;
+        NativeResources.release(thumbnail);
+        NativeResources.release(previous);
+        NativeResources.release(difference);
+    }
+
+    /**
+     * Returns a string representation of the CaptureGovernor object.
+     *
+     * @return a string with the state, resolution, average latency and target
+     */
+    public synchronized String toString() {
+        return String.format("CaptureGovernor: %s at %s, latency %.1fms (target %.0fms), idle fps %.1f, %d transitions",
+                idle ? "idle" : "active", describe(idle ? resolutions.length - 1 : activeLevel),
+                LatencyHistogram.toMillis(averageLatency), LatencyHistogram.toMillis(latencyTargetNanos),
+                idleIntervalNanos > 0 ? 1e9 / idleIntervalNanos : 0, transitions);
+    }
+}
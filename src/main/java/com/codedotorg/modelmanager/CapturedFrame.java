@@ -0,0 +1,88 @@
+package com.codedotorg.modelmanager;
+
+import org.opencv.core.Mat;
+
+public final class CapturedFrame implements AutoCloseable {
+
+    /** The pixels of the frame */
+    private final Mat mat;
+
+    /** The position of the frame in the capture order, starting at 1 */
+    private final long sequence;
+
+    /** When the frame was captured, from System.nanoTime() */
+    private final long timestamp;
+
+    /** Whether the pixels have been released; frames pass between threads only through queues */
+    private boolean released;
+
+    /**
+     * Constructs a new CapturedFrame that owns the given Mat. Whoever holds the frame
+     * last must release it; the Mat is not left to the garbage collector.
+     *
+     * @param mat the pixels of the frame
+     * @param sequence the position of the frame in the capture order
+     * @param timestamp when the frame was captured, from System.nanoTime()
+     */
+    public CapturedFrame(Mat mat, long sequence, long timestamp) {
+        this.mat = mat;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        NativeResources.created(NativeResources.Kind.FRAME);
+    }
+
+    /**
+     * Returns the pixels of the frame.
+     *
+     * @return the Mat holding the frame
+     */
+    public Mat getMat() {
+        return mat;
+    }
+
+    /**
+     * Returns the position of the frame in the capture order.
+     *
+     * @return the frame sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns when the frame was captured, from System.nanoTime().
+     *
+     * @return the capture timestamp in nanoseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns a copy of this frame with its own pixels.
+     *
+     * @return the copied frame
+     */
+    public CapturedFrame copy() {
+        return new CapturedFrame(mat.clone(), sequence, timestamp);
+    }
+
+    /**
+     * Releases the native memory held by the frame. Releasing it again does nothing.
+     */
+    public void release() {
+        if (!released) {
+            released = true;
+            mat.release();
+            NativeResources.released(NativeResources.Kind.FRAME);
+        }
+    }
+
+    /**
+     * Releases the frame, so it can be used in a try-with-resources statement.
+     */
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,10 @@
+package com.codedotorg.modelmanager;
+
+public enum ChannelOrder {
+
+    /** Converts the frame to the RGB order the model was trained on */
+    RGB,
+
+    /** Leaves the frame in the BGR order OpenCV captures in, for models trained on BGR */
+    BGR
+}
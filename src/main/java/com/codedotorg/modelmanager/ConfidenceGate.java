@@ -0,0 +1,131 @@
+package com.codedotorg.modelmanager;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ConfidenceGate {
+
+    /** The class labels, in the same order as the probabilities */
+    private final List<String> labels;
+
+    /** The probability each class needs to be reported, in label order */
+    private final float[] thresholds;
+
+    /** How far the top class must be ahead of the runner-up to be reported */
+    private volatile float minMargin;
+
+    /**
+     * Constructs a new ConfidenceGate where every class needs the given probability
+     * and must be ahead of the runner-up by the given margin.
+     *
+     * @param labels the class labels, in the same order as the probabilities
+     * @param defaultThreshold the probability every class needs to be reported
+     * @param minMargin how far the top class must be ahead of the runner-up
+     */
+    public ConfidenceGate(List<String> labels, float defaultThreshold, float minMargin) {
+        this.labels = labels;
+        this.thresholds = new float[labels.size()];
+        this.minMargin = minMargin;
+        Arrays.fill(thresholds, defaultThreshold);
+    }
+
+    /**
+     * Constructs a new ConfidenceGate configured by system properties: unlock.threshold
+     * (default 0.5) for every class, unlock.margin (default 0.1) for the margin over the
+     * runner-up, and unlock.threshold.NAME to override the threshold of one class, where
+     * NAME is the label without its leading number, such as unlock.threshold.neutral.
+     *
+     * @param labels the class labels, in the same order as the probabilities
+     * @return the configured ConfidenceGate
+     */
+    public static ConfidenceGate fromSystemProperties(List<String> labels) {
+        float threshold = Float.parseFloat(System.getProperty("unlock.threshold", "0.5"));
+        float margin = Float.parseFloat(System.getProperty("unlock.margin", "0.1"));
+        ConfidenceGate gate = new ConfidenceGate(labels, threshold, margin);
+
+        for (String label : labels) {
+            String name = label.substring(label.indexOf(" ") + 1);
+            String classThreshold = System.getProperty("unlock.threshold." + name);
+
+            if (classThreshold != null) {
+                gate.setThreshold(label, Float.parseFloat(classThreshold));
+            }
+        }
+
+        return gate;
+    }
+
+    /**
+     * Returns whether the top class is confident enough to be reported: its probability
+     * reaches its threshold and it is at least the margin ahead of the runner-up.
+     * Nothing is allocated.
+     *
+     * @param probabilities the probability of every class, in label order
+     * @return true if the top class can be reported, false if the frame is uncertain
+     */
+    public boolean isConfident(float[] probabilities) {
+        int top = 0;
+        float runnerUp = 0;
+
+        for (int i = 1; i < probabilities.length; i++) {
+            if (probabilities[i] > probabilities[top]) {
+                runnerUp = probabilities[top];
+                top = i;
+            }
+            else if (probabilities[i] > runnerUp) {
+                runnerUp = probabilities[i];
+            }
+        }
+
+        if (top >= thresholds.length) {
+            return false;
+        }
+
+        return probabilities[top] >= thresholds[top] && probabilities[top] - runnerUp >= minMargin;
+    }
+
+    /**
+     * Sets the probability the given class needs to be reported.
+     *
+     * @param className the full label of the class, such as "9 neutral"
+     * @param threshold the probability between 0 and 1
+     */
+    public void setThreshold(String className, float threshold) {
+        int index = labels.indexOf(className);
+
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown class: " + className);
+        }
+
+        thresholds[index] = threshold;
+    }
+
+    /**
+     * Returns the probability the given class needs to be reported.
+     *
+     * @param className the full label of the class, such as "9 neutral"
+     * @return the threshold, or 0 if the class is unknown
+     */
+    public float getThreshold(String className) {
+        int index = labels.indexOf(className);
+        return index >= 0 ? thresholds[index] : 0;
+    }
+
+    /**
+     * Returns how far the top class must be ahead of the runner-up to be reported.
+     *
+     * @return the minimum margin
+     */
+    public float getMinMargin() {
+        return minMargin;
+    }
+
+    /**
+     * Sets how far the top class must be ahead of the runner-up to be reported.
+     *
+     * @param minMargin the minimum margin between 0 and 1
+     */
+    public void setMinMargin(float minMargin) {
+        this.minMargin = minMargin;
+    }
+}
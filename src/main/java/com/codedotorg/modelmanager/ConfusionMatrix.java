@@ -0,0 +1,148 @@
+package com.codedotorg.modelmanager;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ConfusionMatrix {
+
+    /** The labels from labels.txt, such as "0 one" */
+    private final List<String> labels;
+
+    /** The count for each expected class (row) and predicted class (column); the last column is UNCERTAIN */
+    private final AtomicLongArray counts;
+
+    /**
+     * Constructs a new, empty ConfusionMatrix over the given labels, with an extra
+     * column for frames that were predicted as UNCERTAIN.
+     *
+     * @param labels the labels from labels.txt
+     */
+    public ConfusionMatrix(List<String> labels) {
+        this.labels = labels;
+        this.counts = new AtomicLongArray(labels.size() * (labels.size() + 1));
+    }
+
+    /**
+     * Returns the index of the label that matches the given name. A name matches a label
+     * if it is the whole label ("0 one"), the class name ("one") or the index ("0"),
+     * ignoring case.
+     *
+     * @param name the name to look up, such as the name of an image's directory
+     * @return the index of the label, or -1 if no label matches
+     */
+    public int indexOf(String name) {
+        if (name == null) {
+            return -1;
+        }
+
+        for (int i = 0; i < labels.size(); i++) {
+            String label = labels.get(i);
+            int space = label.indexOf(' ');
+            String index = space >= 0 ? label.substring(0, space) : label;
+            String className = label.substring(space + 1);
+
+            if (name.equalsIgnoreCase(label) || name.equalsIgnoreCase(className) || name.equals(index)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Records a prediction for a frame whose class is known. Safe to call from any thread.
+     *
+     * @param expected the index of the expected label
+     * @param prediction the Prediction for the frame
+     */
+    public void record(int expected, Prediction prediction) {
+        int predicted = prediction.isUncertain() ? labels.size() : labels.indexOf(prediction.getClassName());
+
+        if (expected >= 0 && expected < labels.size() && predicted >= 0) {
+            counts.incrementAndGet(expected * (labels.size() + 1) + predicted);
+        }
+    }
+
+    /**
+     * Returns the number of frames of the expected class that were predicted as the given class.
+     *
+     * @param expected the index of the expected label
+     * @param predicted the index of the predicted label, or the number of labels for UNCERTAIN
+     * @return the number of frames
+     */
+    public long getCount(int expected, int predicted) {
+        return counts.get(expected * (labels.size() + 1) + predicted);
+    }
+
+    /**
+     * Returns the number of frames recorded.
+     *
+     * @return the number of frames with a known class
+     */
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the fraction of recorded frames that were predicted as their expected class.
+     *
+     * @return the accuracy from 0 to 1, or 0 if nothing has been recorded
+     */
+    public double getAccuracy() {
+        long correct = 0;
+        for (int i = 0; i < labels.size(); i++) {
+            correct += getCount(i, i);
+        }
+
+        long total = getTotal();
+        return total == 0 ? 0 : (double) correct / total;
+    }
+
+    /**
+     * Returns the matrix as a table with one row per expected class and one column
+     * per predicted class, followed by the recall of each class.
+     *
+     * @return the formatted matrix
+     */
+    public String toString() {
+        StringBuilder table = new StringBuilder();
+        int width = 9;
+
+        table.append(String.format("%-12s", "expected"));
+        for (String label : labels) {
+            table.append(String.format("%" + width + "s", shorten(label, width - 1)));
+        }
+        table.append(String.format("%" + width + "s%" + width + "s%n", shorten(Prediction.UNCERTAIN, width - 1), "recall"));
+
+        for (int row = 0; row < labels.size(); row++) {
+            long rowTotal = 0;
+            table.append(String.format("%-12s", shorten(labels.get(row), 11)));
+
+            for (int column = 0; column <= labels.size(); column++) {
+                long count = getCount(row, column);
+                rowTotal += count;
+                table.append(String.format("%" + width + "d", count));
+            }
+
+            String recall = rowTotal == 0 ? "-" : String.format("%.3f", (double) getCount(row, row) / rowTotal);
+            table.append(String.format("%" + width + "s%n", recall));
+        }
+
+        return table.toString();
+    }
+
+    /**
+     * Cuts the text down to the given length so the columns line up.
+     *
+     * @param text the text to shorten
+     * @param length the largest length of the result
+     * @return the shortened text
+     */
+    private static String shorten(String text, int length) {
+        return text.length() <= length ? text : text.substring(0, length);
+    }
+}
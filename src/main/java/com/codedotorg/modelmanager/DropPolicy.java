@@ -0,0 +1,10 @@
+package com.codedotorg.modelmanager;
+
+public enum DropPolicy {
+
+    /** Discards the oldest queued frame to make room, so consumers always see the freshest frame */
+    DROP_OLDEST,
+
+    /** Discards the incoming frame when the queue is full, so queued frames are never replaced */
+    DROP_NEWEST
+}
@@ -0,0 +1,149 @@
+package com.codedotorg.modelmanager;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class FrameHandoff<T> {
+
+    /** The maximum number of items waiting to be taken */
+    private final int capacity;
+
+    /** What to do with an item offered while the handoff is full */
+    private final DropPolicy dropPolicy;
+
+    /** The items waiting to be taken, oldest first */
+    private final ArrayDeque<T> items;
+
+    /** Guards the items */
+    private final ReentrantLock lock;
+
+    /** Signalled when an item is added */
+    private final Condition notEmpty;
+
+    /** The number of items that were dropped because the handoff was full */
+    private final AtomicLong dropped;
+
+    /**
+     * Constructs a new FrameHandoff that holds at most the given number of items.
+     *
+     * @param capacity the maximum number of items waiting to be taken
+     * @param dropPolicy what to do with an item offered while the handoff is full
+     */
+    public FrameHandoff(int capacity, DropPolicy dropPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+
+        this.capacity = capacity;
+        this.dropPolicy = dropPolicy;
+        this.items = new ArrayDeque<>(capacity);
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.dropped = new AtomicLong();
+    }
+
+    /**
+     * Offers an item without ever blocking. If the handoff is full, an item is
+     * dropped according to the drop policy and returned so the caller can release it.
+     *
+     * @param item the item to offer
+     * @return the item that was dropped, or null if nothing was dropped
+     */
+    public T offer(T item) {
+        lock.lock();
+        try {
+            T droppedItem = null;
+
+            if (items.size() >= capacity) {
+                dropped.incrementAndGet();
+
+                if (dropPolicy == DropPolicy.DROP_NEWEST) {
+                    return item;
+                }
+
+                droppedItem = items.pollFirst();
+            }
+
+            items.addLast(item);
+            notEmpty.signal();
+            return droppedItem;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the oldest waiting item, waiting up to the given time for one to arrive.
+     *
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return the item, or null if none arrived in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        lock.lock();
+        try {
+            while (items.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the oldest waiting item without waiting.
+     *
+     * @return the item, or null if the handoff is empty
+     */
+    public T poll() {
+        lock.lock();
+        try {
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of items waiting to be taken.
+     *
+     * @return the current queue depth
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the maximum number of items waiting to be taken.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of items that were dropped because the handoff was full.
+     *
+     * @return the number of dropped items
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,174 @@
+package com.codedotorg.modelmanager;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import javafx.application.Platform;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+public class FrameRenderer {
+
+    /** The ImageView the frames are displayed in */
+    private final ImageView imageView;
+
+    /** The two images frames are written into; one is displayed while the other is written */
+    private final Surface[] surfaces;
+
+    /** The surfaces that are not on screen or waiting to be, and so may be written into */
+    private final BlockingQueue<Surface> free;
+
+    /** The surface on screen, or null before the first frame; only used on the FX thread */
+    private Surface displayed;
+
+    /**
+     * Constructs a new FrameRenderer that displays frames in the given ImageView.
+     *
+     * @param imageView the ImageView to display the frames in
+     */
+    public FrameRenderer(ImageView imageView) {
+        this.imageView = imageView;
+        this.surfaces = new Surface[] {new Surface(), new Surface()};
+        this.free = new ArrayBlockingQueue<>(surfaces.length);
+        this.displayed = null;
+
+        free.addAll(Arrays.asList(surfaces));
+    }
+
+    /**
+     * Writes the frame into a free image and hands it to the FX thread to display.
+     * The pixels are converted from BGR straight into the memory backing the image,
+     * so nothing is encoded or copied on the Java heap. A surface only becomes free
+     * again once the FX thread has replaced it on screen with a newer one, so a frame
+     * is never written into an image that is displayed or about to be. If no surface
+     * is free, this frame is skipped.
+     *
+     * @param frame the BGR frame to display
+     * @return true if the frame was handed to the FX thread, false if it was skipped
+     */
+    public boolean render(Mat frame) {
+        Surface surface = free.poll();
+
+        if (surface == null) {
+            return false;
+        }
+
+        write(frame, surface);
+
+        Platform.runLater(() -> {
+            // Tell the image its pixels changed, then display it
+            surface.pixelBuffer.updateBuffer(buffer -> null);
+            imageView.setImage(surface.image);
+
+            // The surface that was on screen is off it now and can take the next frame
+            Surface previous = displayed;
+            displayed = surface;
+            if (previous != null) {
+                free.offer(previous);
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Converts the frame into a free surface without displaying it, then frees the
+     * surface again. This is the conversion render does, on its own.
+     *
+     * @param frame the BGR frame to convert
+     * @return the surface the frame was written into, or null if none was free
+     */
+    Surface writeFrame(Mat frame) {
+        Surface surface = free.poll();
+
+        if (surface != null) {
+            write(frame, surface);
+            free.offer(surface);
+        }
+
+        return surface;
+    }
+
+    /**
+     * Converts the frame into the given surface, which is reallocated only if the
+     * frame size changes.
+     *
+     * @param frame the BGR frame to convert
+     * @param surface a surface that is not on screen
+     */
+    private void write(Mat frame, Surface surface) {
+        surface.resize(frame.cols(), frame.rows());
+        Imgproc.cvtColor(frame, surface.pixels, Imgproc.COLOR_BGR2BGRA);
+    }
+
+    /**
+     * Releases the native memory held by both surfaces.
+     */
+    public void release() {
+        for (Surface surface : surfaces) {
+            surface.release();
+        }
+    }
+
+    /**
+     * A WritableImage backed by a direct buffer that is shared with an OpenCV Mat.
+     * The image is allocated for the first frame and again whenever the frame size changes.
+     */
+    static final class Surface {
+
+        /** The width of the surface in pixels, or 0 before it is allocated */
+        int width;
+
+        /** The height of the surface in pixels, or 0 before it is allocated */
+        int height;
+
+        /** A BGRA Mat that writes straight into the image's pixel buffer */
+        Mat pixels;
+
+        /** The pixel buffer backing the image */
+        PixelBuffer<ByteBuffer> pixelBuffer;
+
+        /** The image displayed in the ImageView */
+        WritableImage image;
+
+        /**
+         * Makes sure the surface has the given size, allocating a new image if it does not.
+         *
+         * @param newWidth the width in pixels
+         * @param newHeight the height in pixels
+         */
+        void resize(int newWidth, int newHeight) {
+            if (pixels != null && width == newWidth && height == newHeight) {
+                return;
+            }
+
+            release();
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(newWidth * newHeight * 4);
+
+            width = newWidth;
+            height = newHeight;
+            pixels = NativeResources.counted(new Mat(newHeight, newWidth, CvType.CV_8UC4, buffer));
+            pixelBuffer = new PixelBuffer<>(newWidth, newHeight, buffer, PixelFormat.getByteBgraPreInstance());
+            image = new WritableImage(pixelBuffer);
+        }
+
+        /**
+         * Releases the Mat that shares the pixel buffer.
+         */
+        void release() {
+            if (pixels != null) {
+                NativeResources.release(pixels);
+                pixels = null;
+            }
+        }
+    }
+}
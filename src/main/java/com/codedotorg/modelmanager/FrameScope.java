@@ -0,0 +1,82 @@
+package com.codedotorg.modelmanager;
+
+import org.opencv.core.Mat;
+import org.tensorflow.Tensor;
+
+public final class FrameScope implements AutoCloseable {
+
+    /** The number of objects most frames need, so the array rarely grows */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** The Mats and Tensors owned by the scope, in the order they were tracked */
+    private Object[] owned;
+
+    /** The number of objects in owned */
+    private int count;
+
+    /**
+     * Constructs a new, empty FrameScope. Use it in a try-with-resources statement so
+     * everything tracked in it is freed when the frame is done, even if it fails.
+     */
+    public FrameScope() {
+        this.owned = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Makes the scope the owner of a temporary Mat, which is released when the scope closes.
+     * The Mat must have been counted where it was allocated, with NativeResources.counted
+     * or NativeResources.newMat.
+     *
+     * @param mat the Mat to own
+     * @return the same Mat
+     */
+    public <T extends Mat> T track(T mat) {
+        add(mat);
+        return mat;
+    }
+
+    /**
+     * Makes the scope the owner of a Tensor, which is closed when the scope closes.
+     * The Tensor must have been counted where it was created, with NativeResources.counted.
+     *
+     * @param tensor the Tensor to own
+     * @return the same Tensor
+     */
+    public <T> Tensor<T> track(Tensor<T> tensor) {
+        add(tensor);
+        return tensor;
+    }
+
+    /**
+     * Adds an object to the owned array, growing it if it is full.
+     *
+     * @param object the Mat or Tensor to own
+     */
+    private void add(Object object) {
+        if (count == owned.length) {
+            Object[] grown = new Object[owned.length * 2];
+            System.arraycopy(owned, 0, grown, 0, count);
+            owned = grown;
+        }
+        owned[count++] = object;
+    }
+
+    /**
+     * Frees everything the scope owns, newest first, so a view is released before the
+     * Mat it was taken from. Closing the scope again does nothing.
+     */
+    @Override
+    public void close() {
+        while (count > 0) {
+            Object object = owned[--count];
+            owned[count] = null;
+
+            if (object instanceof Tensor) {
+                NativeResources.close((Tensor<?>) object);
+            }
+            else {
+                NativeResources.release((Mat) object);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.codedotorg.modelmanager;
+
+import org.opencv.core.Mat;
+
+public interface FrameSource extends AutoCloseable {
+
+    /**
+     * Opens the source so frames can be read from it.
+     *
+     * @return true if the source was opened, false if it is not available
+     */
+    boolean open();
+
+    /**
+     * Reads the next frame into the given Mat, reallocating it if needed.
+     *
+     * @param frame the Mat to read the frame into
+     * @return true if a frame was read, false if there are no more frames
+     */
+    boolean read(Mat frame);
+
+    /**
+     * Returns the nominal number of frames per second of the source.
+     *
+     * @return the frame rate, or 0 if it is not known
+     */
+    double getFrameRate();
+
+    /**
+     * Asks the source to deliver frames at the given resolution from now on. Sources whose
+     * resolution is fixed, such as recorded files, ignore it.
+     *
+     * @param width the frame width in pixels
+     * @param height the frame height in pixels
+     * @return true if the source now delivers frames at that resolution
+     */
+    default boolean setResolution(int width, int height) {
+        return false;
+    }
+
+    /**
+     * Returns a short description of the source for log messages.
+     *
+     * @return the name of the source
+     */
+    String getName();
+
+    /**
+     * Closes the source and releases its native resources.
+     */
+    void close();
+}
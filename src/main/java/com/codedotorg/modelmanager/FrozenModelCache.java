@@ -0,0 +1,333 @@
+package com.codedotorg.modelmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class FrozenModelCache {
+
+    /** Changes whenever the frozen format changes, so old cache entries are not reused */
+    private static final String FORMAT_VERSION = "frozen-graph-1";
+
+    /** The directory the frozen graphs are kept in */
+    private final Path directory;
+
+    /**
+     * Constructs a new FrozenModelCache that keeps its frozen graphs in the given directory.
+     *
+     * @param directory the cache directory; it is created when the first graph is stored
+     */
+    public FrozenModelCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Constructs a FrozenModelCache in the directory from the system property unlock.model.cache
+     * (default ~/.unlock/model-cache).
+     *
+     * @return the configured FrozenModelCache, or null if unlock.model.cache is "off"
+     */
+    public static FrozenModelCache fromSystemProperties() {
+        String directory = System.getProperty("unlock.model.cache");
+
+        if (directory == null || directory.trim().isEmpty()) {
+            return new FrozenModelCache(Paths.get(System.getProperty("user.home"), ".unlock", "model-cache"));
+        }
+
+        if (directory.trim().equalsIgnoreCase("off")) {
+            return null;
+        }
+
+        return new FrozenModelCache(Paths.get(directory.trim()));
+    }
+
+    /**
+     * Returns the cache directory.
+     *
+     * @return the directory the frozen graphs are kept in
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the frozen graph cached for the SavedModel in the given directory. The entry
+     * is found by a hash of every file in the model, so an entry is never used for a model
+     * that has changed since it was frozen.
+     *
+     * @param modelDirectory the SavedModel directory
+     * @return the cached Entry, or null if the model has not been frozen
+     * @throws IOException if the model cannot be read
+     */
+    public Entry lookup(Path modelDirectory) throws IOException {
+        Path graphPath = directory.resolve(hash(modelDirectory) + ".pb");
+        return Files.isRegularFile(graphPath) ? Entry.forGraph(graphPath) : null;
+    }
+
+    /**
+     * Stores the frozen graph of the SavedModel in the given directory. The files are written
+     * under a temporary name and then moved into place, so a half-written graph is never loaded.
+     *
+     * @param modelDirectory the SavedModel directory the graph was frozen from
+     * @param graphDef the serialized frozen GraphDef
+     * @param inputName the name of the input tensor, such as "input_1:0"
+     * @param outputName the name of the output tensor
+     * @return the stored Entry
+     * @throws IOException if the graph cannot be written
+     */
+    public Entry store(Path modelDirectory, byte[] graphDef, String inputName, String outputName) throws IOException {
+        Files.createDirectories(directory);
+        Path graphPath = directory.resolve(hash(modelDirectory) + ".pb");
+        write(graphPath, graphDef, inputName, outputName);
+        return Entry.forGraph(graphPath);
+    }
+
+    /**
+     * Deletes a cached frozen graph and its properties file, such as one that turned out to
+     * be corrupt, so it is frozen again next time instead of failing every load.
+     *
+     * @param entry the Entry to delete
+     * @throws IOException if the files cannot be deleted
+     */
+    public void evict(Entry entry) throws IOException {
+        // The graph goes first so a graph is never found without its properties
+        Files.deleteIfExists(entry.getGraphPath());
+        Files.deleteIfExists(Entry.propertiesPath(entry.getGraphPath()));
+    }
+
+    /**
+     * Writes a frozen graph and the properties file naming its input and output.
+     *
+     * @param graphPath where to write the graph; the properties are written next to it
+     * @param graphDef the serialized frozen GraphDef
+     * @param inputName the name of the input tensor
+     * @param outputName the name of the output tensor
+     * @throws IOException if the files cannot be written
+     */
+    public static void write(Path graphPath, byte[] graphDef, String inputName, String outputName) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("input", inputName);
+        properties.setProperty("output", outputName);
+
+        Path propertiesPath = Entry.propertiesPath(graphPath);
+        Path graphTemp = Files.createTempFile(graphPath.toAbsolutePath().getParent(), "frozen", ".tmp");
+        Path propertiesTemp = Files.createTempFile(graphPath.toAbsolutePath().getParent(), "frozen", ".tmp");
+
+        try {
+            Files.write(graphTemp, graphDef);
+            try (OutputStream output = Files.newOutputStream(propertiesTemp)) {
+                properties.store(output, "Frozen from a SavedModel by ModelConverter");
+            }
+
+            // The properties go first so a graph is never found without them
+            Files.move(propertiesTemp, propertiesPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(graphTemp, graphPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(graphTemp);
+            Files.deleteIfExists(propertiesTemp);
+        }
+    }
+
+    /**
+     * Returns the SHA-256 of the SavedModel in the given directory: the path and contents
+     * of every file, in path order, together with the frozen format version.
+     *
+     * @param modelDirectory the SavedModel directory
+     * @return the hash as a hexadecimal string
+     * @throws IOException if the model cannot be read
+     */
+    public static String hash(Path modelDirectory) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        digest.update(FORMAT_VERSION.getBytes(StandardCharsets.UTF_8));
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(modelDirectory)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        byte[] buffer = new byte[64 * 1024];
+        for (Path file : files) {
+            // Separators differ between platforms, so the same model hashes the same everywhere
+            String name = modelDirectory.relativize(file).toString().replace('\\', '/');
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+
+            try (InputStream input = Files.newInputStream(file)) {
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Reads a graph file by memory-mapping it, so the file is read straight from the page
+     * cache instead of through a stream buffer. TensorFlow only imports a GraphDef from a
+     * byte array, so the mapped bytes are copied into one.
+     *
+     * @param graphPath the graph file
+     * @return the serialized GraphDef
+     * @throws IOException if the file cannot be read
+     */
+    public static byte[] readGraphDef(Path graphPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(graphPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Graph is too large to import: " + graphPath);
+            }
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] graphDef = new byte[(int) size];
+            mapped.get(graphDef);
+            return graphDef;
+        }
+    }
+
+    /**
+     * Returns a string representation of the FrozenModelCache object.
+     *
+     * @return a string with the cache directory
+     */
+    public String toString() {
+        return "FrozenModelCache: " + directory;
+    }
+
+    /**
+     * A frozen graph on disk and the names of its input and output tensors.
+     */
+    public static final class Entry {
+
+        /** The frozen graph file */
+        private final Path graphPath;
+
+        /** The name of the input tensor, or null to find it by name */
+        private final String inputName;
+
+        /** The name of the output tensor, or null to find it by name */
+        private final String outputName;
+
+        /**
+         * Constructs a new Entry.
+         *
+         * @param graphPath the frozen graph file
+         * @param inputName the name of the input tensor, or null to find it by name
+         * @param outputName the name of the output tensor, or null to find it by name
+         */
+        private Entry(Path graphPath, String inputName, String outputName) {
+            this.graphPath = graphPath;
+            this.inputName = inputName;
+            this.outputName = outputName;
+        }
+
+        /**
+         * Returns the Entry for a frozen graph file, reading its input and output names from
+         * the properties file next to it. Graphs frozen by other tools have no properties
+         * file, and their input and output are found by name when they are loaded.
+         *
+         * @param graphPath the frozen graph file
+         * @return the Entry for the graph
+         * @throws IOException if the properties file exists but cannot be read
+         */
+        public static Entry forGraph(Path graphPath) throws IOException {
+            Path propertiesPath = propertiesPath(graphPath);
+
+            if (!Files.isRegularFile(propertiesPath)) {
+                return new Entry(graphPath, null, null);
+            }
+
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(propertiesPath)) {
+                properties.load(input);
+            }
+
+            return new Entry(graphPath, properties.getProperty("input"), properties.getProperty("output"));
+        }
+
+        /**
+         * Returns the properties file of a graph file: the same name with .properties in place of .pb.
+         *
+         * @param graphPath the frozen graph file
+         * @return the path of its properties file
+         */
+        private static Path propertiesPath(Path graphPath) {
+            String name = graphPath.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            return graphPath.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".properties");
+        }
+
+        /**
+         * Returns the frozen graph file.
+         *
+         * @return the graph path
+         */
+        public Path getGraphPath() {
+            return graphPath;
+        }
+
+        /**
+         * Returns the name of the input tensor.
+         *
+         * @return the input name, such as "input_1:0", or null if it is not known
+         */
+        public String getInputName() {
+            return inputName;
+        }
+
+        /**
+         * Returns the name of the output tensor.
+         *
+         * @return the output name, or null if it is not known
+         */
+        public String getOutputName() {
+            return outputName;
+        }
+
+        /**
+         * Reads the frozen graph by memory-mapping its file.
+         *
+         * @return the serialized GraphDef
+         * @throws IOException if the file cannot be read
+         */
+        public byte[] readGraphDef() throws IOException {
+            return FrozenModelCache.readGraphDef(graphPath);
+        }
+
+        /**
+         * Returns a string representation of the Entry object.
+         *
+         * @return a string with the graph path and tensor names
+         */
+        public String toString() {
+            return "FrozenModelCache.Entry: " + graphPath + " (input=" + inputName + ", output=" + outputName + ")";
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.codedotorg.modelmanager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+public class ImageDirectoryFrameSource implements FrameSource {
+
+    /** The directory the images are read from */
+    private final Path directory;
+
+    /** The images that have not been read yet, in name order */
+    private Iterator<Path> images;
+
+    /** The open listing of the directory */
+    private Stream<Path> listing;
+
+    /** The image that was read last */
+    private Path currentPath;
+
+    /**
+     * Constructs a new ImageDirectoryFrameSource that reads every image under the
+     * given directory, including its subdirectories, in path order.
+     *
+     * @param directory the directory the images are read from
+     */
+    public ImageDirectoryFrameSource(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Lists the images in the directory. Only the paths are listed up front;
+     * each image is decoded when it is read.
+     *
+     * @return true if the directory could be listed
+     */
+    public boolean open() {
+        try {
+            listing = Files.walk(directory)
+                    .filter(Files::isRegularFile)
+                    .filter(ImageDirectoryFrameSource::isImage)
+                    .sorted();
+            images = listing.iterator();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to list the images in " + directory);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the next image. Files that cannot be decoded are skipped.
+     *
+     * @param frame the Mat to read the image into
+     * @return true if an image was read, false when there are no more images
+     */
+    public boolean read(Mat frame) {
+        while (images != null && images.hasNext()) {
+            Path path = images.next();
+            Mat image = Imgcodecs.imread(path.toString());
+
+            if (!image.empty()) {
+                image.copyTo(frame);
+                image.release();
+                currentPath = path;
+                return true;
+            }
+
+            image.release();
+            System.err.println("Skipping unreadable image " + path);
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the path of the image that was read last.
+     *
+     * @return the path of the current image, or null if none has been read
+     */
+    public Path getCurrentPath() {
+        return currentPath;
+    }
+
+    /**
+     * Images have no frame rate.
+     *
+     * @return 0
+     */
+    public double getFrameRate() {
+        return 0;
+    }
+
+    /**
+     * Returns the path of the directory.
+     *
+     * @return the name of the source
+     */
+    public String getName() {
+        return directory.toString();
+    }
+
+    /**
+     * Closes the directory listing.
+     */
+    public void close() {
+        if (listing != null) {
+            listing.close();
+            listing = null;
+            images = null;
+        }
+    }
+
+    /**
+     * Returns whether the file looks like an image OpenCV can read.
+     *
+     * @param path the path of the file
+     * @return true if the file has an image extension
+     */
+    private static boolean isImage(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".bmp");
+    }
+}
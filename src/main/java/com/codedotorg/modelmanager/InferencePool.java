@@ -0,0 +1,283 @@
+package com.codedotorg.modelmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+import org.tensorflow.Session;
+
+public class InferencePool {
+
+    /** The ModelProcessor whose loaded graph every session runs */
+    private final ModelProcessor modelProcessor;
+
+    /** Whether the workers share one session or each have their own */
+    private final SessionMode sessionMode;
+
+    /** The thread settings of every session the pool creates */
+    private final SessionConfig sessionConfig;
+
+    /** The sessions created for the pool, closed when it shuts down */
+    private final List<Session> sessions;
+
+    /** The threads running inference */
+    private final List<Thread> workers;
+
+    /** The frames waiting for a worker */
+    private final LinkedBlockingQueue<Request> requests;
+
+    /** Whether or not the pool accepts and runs frames */
+    private volatile boolean running;
+
+    /** Held while a frame is queued or the pool is stopped, so no frame is queued after the final drain */
+    private final Object submitLock;
+
+    /** The time from submitting a frame to its prediction being ready */
+    private final LatencyHistogram latency;
+
+    /** The number of frames that have been predicted */
+    private final AtomicLong completed;
+
+    /** When the pool started, used to work out the throughput */
+    private final long startTime;
+
+    /**
+     * Constructs a new InferencePool that predicts frames on the given number of worker
+     * threads. The model is loaded once by the ModelManager; the pool only creates sessions
+     * over its graph, either one shared by every worker or one per worker. Per-worker
+     * sessions get their own TensorFlow thread pools so they do not compete for the same threads.
+     *
+     * @param model the ModelManager with its model and labels loaded
+     * @param workerCount the number of threads running inference, at least 1
+     * @param sessionMode whether the workers share one session or each have their own
+     * @param sessionConfig the thread settings of each session; the pool uses a copy, so
+     *                      the caller's settings are left as they are
+     */
+    public InferencePool(ModelManager model, int workerCount, SessionMode sessionMode, SessionConfig sessionConfig) {
+        this.modelProcessor = model.getModelProcessor();
+        this.sessionMode = sessionMode;
+        this.sessionConfig = sessionConfig.copy();
+        this.sessions = new ArrayList<>();
+        this.workers = new ArrayList<>();
+        this.requests = new LinkedBlockingQueue<>();
+        this.latency = new LatencyHistogram();
+        this.completed = new AtomicLong();
+        this.submitLock = new Object();
+
+        int count = Math.max(1, workerCount);
+        this.sessionConfig.setPerSessionThreads(sessionMode == SessionMode.PER_WORKER);
+        ConfidenceGate gate = model.getModelPredictor().getConfidenceGate();
+
+        try {
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || sessionMode == SessionMode.PER_WORKER) {
+                    sessions.add(modelProcessor.createSession(this.sessionConfig));
+                }
+
+                // Every worker has its own ModelPredictor; the preprocessing buffers are never shared
+                // because ModelProcessor keeps them in a ThreadLocal, one set per worker thread
+                ModelPredictor predictor = new ModelPredictor(modelProcessor, sessions.get(sessions.size() - 1));
+                predictor.setConfidenceGate(gate);
+
+                Thread worker = new Thread(() -> runWorker(predictor), "inference-worker-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+            }
+        } catch (RuntimeException e) {
+            sessions.forEach(Session::close);
+            throw e;
+        }
+
+        running = true;
+        startTime = System.nanoTime();
+        workers.forEach(Thread::start);
+    }
+
+    /**
+     * Submits a frame to be predicted by the next free worker. The caller keeps ownership
+     * of the frame and must not release it until the returned future completes.
+     *
+     * @param frame the frame to predict
+     * @return a future that completes with the Prediction for the frame
+     */
+    public CompletableFuture<Prediction> submit(Mat frame) {
+        CompletableFuture<Prediction> future = new CompletableFuture<>();
+
+        synchronized (submitLock) {
+            if (!running) {
+                future.completeExceptionally(new IllegalStateException("InferencePool has been shut down"));
+                return future;
+            }
+
+            requests.add(new Request(frame, future));
+        }
+
+        return future;
+    }
+
+    /**
+     * Predicts frames from the queue until the pool is shut down.
+     *
+     * @param predictor the ModelPredictor of this worker
+     */
+    private void runWorker(ModelPredictor predictor) {
+        try {
+            while (running) {
+                Request request = requests.poll(100, TimeUnit.MILLISECONDS);
+
+                if (request == null) {
+                    continue;
+                }
+
+                try {
+                    Prediction prediction = predictor.processFrameAndGetClassNameWithConfidence(request.frame);
+                    latency.record(System.nanoTime() - request.submitted);
+                    completed.incrementAndGet();
+                    request.future.complete(prediction);
+                } catch (RuntimeException e) {
+                    request.future.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            modelProcessor.releasePreprocessContext();
+        }
+    }
+
+    /**
+     * Stops the pool, waits for the workers to finish their current frame and closes
+     * the sessions. Frames that have not been run yet fail with an IllegalStateException.
+     */
+    public void shutdown() {
+        // Once the flag is cleared under the lock no frame can be queued, so the drain below is final
+        synchronized (submitLock) {
+            running = false;
+        }
+
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        IllegalStateException stopped = new IllegalStateException("InferencePool has been shut down");
+        Request request;
+        while ((request = requests.poll()) != null) {
+            request.future.completeExceptionally(stopped);
+        }
+
+        sessions.forEach(Session::close);
+        sessions.clear();
+    }
+
+    /**
+     * Returns the number of threads running inference.
+     *
+     * @return the number of workers
+     */
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * Returns whether the workers share one session or each have their own.
+     *
+     * @return the SessionMode of the pool
+     */
+    public SessionMode getSessionMode() {
+        return sessionMode;
+    }
+
+    /**
+     * Returns the thread settings of the sessions.
+     *
+     * @return the SessionConfig of the pool
+     */
+    public SessionConfig getSessionConfig() {
+        return sessionConfig;
+    }
+
+    /**
+     * Returns the time from submitting a frame to its prediction being ready.
+     *
+     * @return the per-frame latency histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of frames predicted per second since the pool started.
+     *
+     * @return the throughput in frames per second
+     */
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? completed.get() / seconds : 0;
+    }
+
+    /**
+     * Returns how much of the ideal speed-up a pool achieved over a single worker:
+     * its throughput divided by the single worker throughput times its number of workers.
+     *
+     * @param throughput the throughput of the pool in frames per second
+     * @param workerCount the number of workers in the pool
+     * @param singleWorkerThroughput the throughput of one worker in frames per second
+     * @return the scaling efficiency, where 1 is perfect linear scaling
+     */
+    public static double scalingEfficiency(double throughput, int workerCount, double singleWorkerThroughput) {
+        double ideal = singleWorkerThroughput * workerCount;
+        return ideal > 0 ? throughput / ideal : 0;
+    }
+
+    /**
+     * Returns a summary of the workers, sessions, throughput and latency.
+     *
+     * @return a string containing the pool statistics
+     */
+    public String toString() {
+        return String.format("InferencePool: workers=%d, sessions=%s, intraOp=%d, interOp=%d, throughput=%.1f fps%n"
+                + "  frame latency: %s",
+                workers.size(), sessionMode, sessionConfig.getIntraOpThreads(), sessionConfig.getInterOpThreads(),
+                getThroughput(), latency);
+    }
+
+    /**
+     * A frame waiting for a worker and the future to complete with its prediction.
+     */
+    private static final class Request {
+
+        /** The frame to predict */
+        final Mat frame;
+
+        /** The future to complete with the prediction */
+        final CompletableFuture<Prediction> future;
+
+        /** When the frame was submitted */
+        final long submitted;
+
+        /**
+         * Constructs a new Request for the given frame.
+         *
+         * @param frame the frame to predict
+         * @param future the future to complete with the prediction
+         */
+        Request(Mat frame, CompletableFuture<Prediction> future) {
+            this.frame = frame;
+            this.future = future;
+            this.submitted = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.codedotorg.modelmanager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+    /** Values below this are counted exactly; above it, buckets grow with the value (about 1.5% wide) */
+    private static final int SUB_BUCKETS = 128;
+
+    /** Half the number of sub-buckets, the number of new buckets per power of two */
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    /** The number of bits needed to count the sub-buckets */
+    private static final int SUB_BUCKET_BITS = 7;
+
+    /** The largest value the histogram can tell apart, about 18 minutes in nanoseconds */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    /** The number of values recorded in each bucket */
+    private final AtomicLongArray counts;
+
+    /** The number of values recorded */
+    private final AtomicLong total;
+
+    /** The sum of the values recorded */
+    private final AtomicLong sum;
+
+    /** The largest value recorded */
+    private final AtomicLong max;
+
+    /**
+     * Constructs a new, empty LatencyHistogram.
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+        total = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Records a latency. Recording never allocates and is safe to call from any thread.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+
+        counts.incrementAndGet(bucketIndex(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded, in nanoseconds.
+     *
+     * @return the mean, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long count = total.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * Returns the largest value recorded, in nanoseconds.
+     *
+     * @return the maximum
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given percentage of recorded values fall.
+     *
+     * @param percentile the percentile between 0 and 100
+     * @return the value at the percentile in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = total.get();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+
+            if (seen >= target) {
+                return Math.min(bucketMidpoint(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Clears every recorded value.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns a summary of the histogram in milliseconds.
+     *
+     * @return a string containing the count, mean, p50, p99 and maximum
+     */
+    public String toString() {
+        return String.format("count=%d, mean=%.2fms, p50=%.2fms, p99=%.2fms, max=%.2fms",
+                getCount(), toMillis(getMean()), toMillis(getPercentile(50)),
+                toMillis(getPercentile(99)), toMillis(getMax()));
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds.
+     *
+     * @param nanos the value in nanoseconds
+     * @return the value in milliseconds
+     */
+    public static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Returns the bucket the given value is counted in.
+     *
+     * @param value a value between 0 and MAX_VALUE
+     * @return the bucket index
+     */
+    private static int bucketIndex(long value) {
+        int msb = 63 - Long.numberOfLeadingZeros(value | 1);
+        int shift = Math.max(0, msb - (SUB_BUCKET_BITS - 1));
+        return shift * HALF + (int) (value >> shift);
+    }
+
+    /**
+     * Returns the value in the middle of the given bucket.
+     *
+     * @param index the bucket index
+     * @return the middle value of the bucket
+     */
+    private static long bucketMidpoint(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / HALF - 1;
+        long lowest = (long) (index - shift * HALF) << shift;
+        return lowest + (1L << shift) / 2;
+    }
+}
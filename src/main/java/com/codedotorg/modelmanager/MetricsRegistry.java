@@ -0,0 +1,187 @@
+package com.codedotorg.modelmanager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MetricsRegistry {
+
+    /** The time to read a frame from the source */
+    public static final String CAPTURE = "capture";
+
+    /** The time to crop, resize and normalize a frame */
+    public static final String PREPROCESS = "preprocess";
+
+    /** The time to copy the normalized frame into the input Tensor */
+    public static final String TENSOR = "tensor";
+
+    /** The time spent in Session.run, including fetching the output */
+    public static final String SESSION_RUN = "session_run";
+
+    /** The time to turn the class probabilities into a Prediction */
+    public static final String POSTPROCESS = "postprocess";
+
+    /** The time to display a frame */
+    public static final String DISPLAY = "display";
+
+    /** The number of frames read from the source */
+    public static final String FRAMES_CAPTURED = "frames_captured";
+
+    /** The number of frames that went through the model */
+    public static final String FRAMES_INFERRED = "frames_inferred";
+
+    /** The number of frames dropped from a queue or skipped by the display */
+    public static final String FRAMES_DROPPED = "frames_dropped";
+
+    /** The number of PIN digits accepted from the prediction stream */
+    public static final String DIGITS_ACCEPTED = "digits_accepted";
+
+    /** The registry the app's classes record into */
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry(
+            Boolean.parseBoolean(System.getProperty("unlock.metrics", "true")));
+
+    /** The latency histograms by name, in the order they were created */
+    private final Map<String, LatencyHistogram> histograms;
+
+    /** The counters by name, in the order they were created */
+    private final Map<String, LongAdder> counters;
+
+    /** Whether or not the instrumented code records into this registry */
+    private volatile boolean enabled;
+
+    /** Runs the periodic log line, or null if it has not been started */
+    private ScheduledExecutorService logger;
+
+    /** The periodic log task, or null if logging is stopped */
+    private ScheduledFuture<?> logTask;
+
+    /**
+     * Constructs a new MetricsRegistry with a histogram for every pipeline stage
+     * and a counter for every frame and digit count.
+     *
+     * @param enabled whether or not the instrumented code records into the registry
+     */
+    public MetricsRegistry(boolean enabled) {
+        this.histograms = Collections.synchronizedMap(new LinkedHashMap<>());
+        this.counters = Collections.synchronizedMap(new LinkedHashMap<>());
+        this.enabled = enabled;
+
+        for (String stage : new String[] {CAPTURE, PREPROCESS, TENSOR, SESSION_RUN, POSTPROCESS, DISPLAY}) {
+            histogram(stage);
+        }
+        for (String count : new String[] {FRAMES_CAPTURED, FRAMES_INFERRED, FRAMES_DROPPED, DIGITS_ACCEPTED}) {
+            counter(count);
+        }
+    }
+
+    /**
+     * Returns the registry the app's classes record into. It is enabled unless the
+     * system property unlock.metrics is false.
+     *
+     * @return the default MetricsRegistry
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it on first use. Callers on
+     * the hot path should look the histogram up once and keep it.
+     *
+     * @param name the name of the histogram
+     * @return the LatencyHistogram
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns the counter with the given name, creating it on first use. Callers on
+     * the hot path should look the counter up once and keep it.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Returns whether the instrumented code records into this registry. Instrumented
+     * code checks this before reading the clock, so a disabled registry costs one read.
+     *
+     * @return true if metrics are being recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether the instrumented code records into this registry.
+     *
+     * @param enabled true to record metrics
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the current value of every histogram and counter.
+     *
+     * @return a MetricsSnapshot of the registry
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, MetricsSnapshot.Latency> latencies = new LinkedHashMap<>();
+        Map<String, Long> counts = new LinkedHashMap<>();
+
+        // Iterating a synchronized map needs its lock; forEach takes it
+        histograms.forEach((name, histogram) -> latencies.put(name, new MetricsSnapshot.Latency(histogram)));
+        counters.forEach((name, counter) -> counts.put(name, counter.sum()));
+
+        return new MetricsSnapshot(latencies, counts);
+    }
+
+    /**
+     * Clears every histogram and counter.
+     */
+    public void reset() {
+        histograms.forEach((name, histogram) -> histogram.reset());
+        counters.forEach((name, counter) -> counter.reset());
+    }
+
+    /**
+     * Prints a snapshot of the registry as one log line at the given period, on a daemon thread.
+     * Calling this again replaces the previous period.
+     *
+     * @param periodSeconds how often the log line is printed, in seconds
+     */
+    public synchronized void startLogging(long periodSeconds) {
+        stopLogging();
+
+        if (logger == null) {
+            logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-logger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        logTask = logger.scheduleAtFixedRate(() -> System.out.println(snapshot().toLogLine()),
+                periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops printing the periodic log line.
+     */
+    public synchronized void stopLogging() {
+        if (logTask != null) {
+            logTask.cancel(false);
+            logTask = null;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.codedotorg.modelmanager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class MetricsServer {
+
+    /** How long the capture stage may go without a frame before the app counts as unhealthy */
+    private static final long STALE_FRAME_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** The number of threads answering requests */
+    private static final int THREADS = 2;
+
+    /** The camera pipeline whose frames, queues and predictions are reported */
+    private final CameraController cameraController;
+
+    /** Returns the model whose loaded state is reported, or null while it is still loading */
+    private final Supplier<ModelManager> model;
+
+    /** The registry whose latencies and counters are reported */
+    private final MetricsRegistry metrics;
+
+    /** The embedded HTTP server */
+    private final HttpServer server;
+
+    /** The threads answering requests, separate from the capture, inference and FX threads */
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a new MetricsServer on the loopback address and the given port. The server
+     * answers /metrics in the Prometheus text format, /health with whether frames are arriving
+     * and the model is loaded, and /prediction with the latest Prediction as JSON.
+     *
+     * @param cameraController the camera pipeline to report on
+     * @param model returns the model to report on, or null while it is still loading
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public MetricsServer(CameraController cameraController, Supplier<ModelManager> model, int port)
+            throws IOException {
+        this.cameraController = cameraController;
+        this.model = model;
+        this.metrics = MetricsRegistry.getDefault();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/metrics", exchange -> respond(exchange, 200, "text/plain; version=0.0.4", renderMetrics()));
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/prediction", exchange -> respond(exchange, 200, "application/json", renderPrediction()));
+    }
+
+    /**
+     * Constructs a MetricsServer on the port in the system property unlock.http.port and starts it.
+     * It can be started before the model has loaded; /health reports modelLoaded:false until it has.
+     *
+     * @param cameraController the camera pipeline to report on
+     * @param model returns the model to report on, or null while it is still loading
+     * @return the started MetricsServer, or null if unlock.http.port is not set or the port cannot be bound
+     */
+    public static MetricsServer startFromSystemProperties(CameraController cameraController,
+            Supplier<ModelManager> model) {
+        Integer port = Integer.getInteger("unlock.http.port");
+
+        if (port == null) {
+            return null;
+        }
+
+        try {
+            MetricsServer server = new MetricsServer(cameraController, model, port);
+            server.start();
+            return server;
+        } catch (IOException e) {
+            System.err.println("Failed to start the metrics server on port " + port);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start() {
+        server.start();
+        System.out.println("Metrics server listening on http://localhost:" + getPort());
+    }
+
+    /**
+     * Stops answering requests and shuts down the request threads.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns whether the model is loaded and the camera has delivered a frame recently.
+     *
+     * @return true if the app is healthy
+     */
+    public boolean isHealthy() {
+        return isModelLoaded() && isReceivingFrames();
+    }
+
+    /**
+     * Returns whether the model and its labels are loaded.
+     *
+     * @return true if the model is loaded
+     */
+    private boolean isModelLoaded() {
+        ModelManager current = model.get();
+        if (current == null) {
+            return false;
+        }
+
+        ModelProcessor processor = current.getModelProcessor();
+        return processor.getSession() != null && processor.getLabels() != null;
+    }
+
+    /**
+     * Returns whether the capture stage is running and has delivered a frame recently.
+     *
+     * @return true if frames are arriving
+     */
+    private boolean isReceivingFrames() {
+        long lastFrame = cameraController.getStageStats().get(0).getLastFrameTime();
+        return cameraController.isRunning() && lastFrame != 0 && System.nanoTime() - lastFrame < STALE_FRAME_NANOS;
+    }
+
+    /**
+     * Answers /health with 200 if the app is healthy and 503 if it is not.
+     *
+     * @param exchange the request
+     * @throws IOException if the response cannot be written
+     */
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        boolean modelLoaded = isModelLoaded();
+        boolean receivingFrames = isReceivingFrames();
+        boolean healthy = modelLoaded && receivingFrames;
+
+        String body = String.format("{\"status\":\"%s\",\"modelLoaded\":%b,\"receivingFrames\":%b}",
+                healthy ? "ok" : "unhealthy", modelLoaded, receivingFrames);
+        respond(exchange, healthy ? 200 : 503, "application/json", body);
+    }
+
+    /**
+     * Renders the stage rates, latencies, counters, queue depths and memory use in the
+     * Prometheus text format.
+     *
+     * @return the metrics text
+     */
+    private String renderMetrics() {
+        StringBuilder text = new StringBuilder();
+
+        text.append("# TYPE unlock_stage_fps gauge\n");
+        for (StageStats stats : cameraController.getStageStats()) {
+            gauge(text, "unlock_stage_fps", "stage", stats.getName(), stats.getFps());
+        }
+        text.append("# TYPE unlock_stage_frames_total counter\n");
+        for (StageStats stats : cameraController.getStageStats()) {
+            gauge(text, "unlock_stage_frames_total", "stage", stats.getName(), stats.getFrames());
+        }
+        text.append("# TYPE unlock_stage_drops_total counter\n");
+        for (StageStats stats : cameraController.getStageStats()) {
+            gauge(text, "unlock_stage_drops_total", "stage", stats.getName(), stats.getDrops());
+        }
+
+        text.append("# TYPE unlock_latency_seconds summary\n");
+        MetricsSnapshot snapshot = metrics.snapshot();
+        for (Map.Entry<String, MetricsSnapshot.Latency> entry : snapshot.getLatencies().entrySet()) {
+            latency(text, entry.getKey(), entry.getValue());
+        }
+        latency(text, "end_to_end", new MetricsSnapshot.Latency(cameraController.getLatency()));
+
+        for (Map.Entry<String, Long> entry : snapshot.getCounters().entrySet()) {
+            String name = "unlock_" + entry.getKey() + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(entry.getValue()).append('\n');
+        }
+
+        text.append("# TYPE unlock_queue_depth gauge\n");
+        gauge(text, "unlock_queue_depth", "queue", "inference", cameraController.getInferenceQueueSize());
+        gauge(text, "unlock_queue_depth", "queue", "render", cameraController.getRenderQueueSize());
+
+        CaptureGovernor governor = cameraController.getGovernor();
+        if (governor != null) {
+            text.append("# TYPE unlock_governor_idle gauge\n");
+            text.append("unlock_governor_idle ").append(governor.isIdle() ? 1 : 0).append('\n');
+            text.append("# TYPE unlock_governor_latency_seconds gauge\n");
+            text.append(String.format(Locale.ROOT, "unlock_governor_latency_seconds %.6f%n", governor.getAverageLatencyNanos() / 1e9));
+        }
+
+        if (NativeResources.isEnabled()) {
+            text.append("# TYPE unlock_native_live gauge\n");
+            for (NativeResources.Kind kind : NativeResources.Kind.values()) {
+                gauge(text, "unlock_native_live", "kind", kind.name().toLowerCase(Locale.ROOT), NativeResources.getLive(kind));
+            }
+        }
+
+        text.append("# TYPE unlock_model_loaded gauge\n");
+        text.append("unlock_model_loaded ").append(isModelLoaded() ? 1 : 0).append('\n');
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        text.append("# TYPE jvm_memory_bytes_used gauge\n");
+        gauge(text, "jvm_memory_bytes_used", "area", "heap", heap.getUsed());
+        text.append("# TYPE jvm_memory_bytes_max gauge\n");
+        gauge(text, "jvm_memory_bytes_max", "area", "heap", heap.getMax());
+
+        text.append("# TYPE jvm_buffer_pool_used_bytes gauge\n");
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            gauge(text, "jvm_buffer_pool_used_bytes", "pool", pool.getName(), pool.getMemoryUsed());
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Appends the count, p50, p99 and maximum of one latency histogram in seconds.
+     *
+     * @param text the metrics text to append to
+     * @param stage the name of the stage
+     * @param latency the latency summary of the stage
+     */
+    private static void latency(StringBuilder text, String stage, MetricsSnapshot.Latency latency) {
+        String labels = "{stage=\"" + stage + "\"";
+        text.append(String.format(Locale.ROOT, "unlock_latency_seconds%s,quantile=\"0.5\"} %.6f%n", labels, latency.getP50() / 1e9));
+        text.append(String.format(Locale.ROOT, "unlock_latency_seconds%s,quantile=\"0.99\"} %.6f%n", labels, latency.getP99() / 1e9));
+        text.append(String.format(Locale.ROOT, "unlock_latency_seconds%s,quantile=\"1\"} %.6f%n", labels, latency.getMax() / 1e9));
+        text.append(String.format(Locale.ROOT, "unlock_latency_seconds_count%s} %d%n", labels, latency.getCount()));
+    }
+
+    /**
+     * Appends one sample with a single label.
+     *
+     * @param text the metrics text to append to
+     * @param name the name of the metric
+     * @param label the name of the label
+     * @param value the value of the label
+     * @param sample the value of the sample
+     */
+    private static void gauge(StringBuilder text, String name, String label, String value, double sample) {
+        text.append(String.format(Locale.ROOT, "%s{%s=\"%s\"} %s%n", name, label, value,
+                sample == Math.rint(sample) ? String.valueOf((long) sample) : String.valueOf(sample)));
+    }
+
+    /**
+     * Renders the latest Prediction as JSON.
+     *
+     * @return the prediction JSON, or {} if no frame has been predicted yet
+     */
+    private String renderPrediction() {
+        Prediction prediction = cameraController.getLatestPrediction();
+
+        if (prediction == null) {
+            return "{}";
+        }
+
+        StringBuilder probabilities = new StringBuilder("[");
+        for (int i = 0; i < prediction.getClassCount(); i++) {
+            if (i > 0) {
+                probabilities.append(',');
+            }
+            probabilities.append(String.format(Locale.ROOT, "%.6f", prediction.getProbability(i)));
+        }
+        probabilities.append(']');
+
+        double ageMillis = prediction.getTimestamp() != 0
+                ? LatencyHistogram.toMillis(System.nanoTime() - prediction.getTimestamp()) : -1;
+
+        return String.format(Locale.ROOT,
+                "{\"className\":\"%s\",\"confidence\":%.6f,\"stability\":%.3f,\"sequence\":%d,\"ageMs\":%.1f,\"probabilities\":%s}",
+                prediction.getClassName().replace("\\", "\\\\").replace("\"", "\\\""), prediction.getConfidence(),
+                prediction.getStability(), prediction.getSequence(), ageMillis, probabilities);
+    }
+
+    /**
+     * Writes the response and closes the exchange.
+     *
+     * @param exchange the request
+     * @param status the HTTP status code
+     * @param contentType the content type of the body
+     * @param body the body of the response
+     * @throws IOException if the response cannot be written
+     */
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        try (OutputStream output = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, bytes.length);
+            output.write(bytes);
+        }
+    }
+}
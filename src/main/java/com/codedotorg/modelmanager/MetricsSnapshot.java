@@ -0,0 +1,170 @@
+package com.codedotorg.modelmanager;
+
+import java.util.Collections;
+import java.util.Map;
+
+public final class MetricsSnapshot {
+
+    /** The latency summary of each histogram, by name */
+    private final Map<String, Latency> latencies;
+
+    /** The value of each counter, by name */
+    private final Map<String, Long> counters;
+
+    /**
+     * Constructs a new MetricsSnapshot.
+     *
+     * @param latencies the latency summary of each histogram, by name
+     * @param counters the value of each counter, by name
+     */
+    public MetricsSnapshot(Map<String, Latency> latencies, Map<String, Long> counters) {
+        this.latencies = Collections.unmodifiableMap(latencies);
+        this.counters = Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * Returns the latency summary of every histogram.
+     *
+     * @return the latencies by histogram name
+     */
+    public Map<String, Latency> getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Returns the latency summary of the histogram with the given name.
+     *
+     * @param name the name of the histogram, such as MetricsRegistry.SESSION_RUN
+     * @return the Latency, or null if there is no such histogram
+     */
+    public Latency getLatency(String name) {
+        return latencies.get(name);
+    }
+
+    /**
+     * Returns the value of every counter.
+     *
+     * @return the counter values by name
+     */
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * Returns the value of the counter with the given name.
+     *
+     * @param name the name of the counter, such as MetricsRegistry.FRAMES_CAPTURED
+     * @return the value of the counter, or 0 if there is no such counter
+     */
+    public long getCounter(String name) {
+        return counters.getOrDefault(name, 0L);
+    }
+
+    /**
+     * Returns the snapshot as a single line: the p50 and p99 of every stage that has
+     * recorded something, in milliseconds, followed by every counter.
+     *
+     * @return the log line
+     */
+    public String toLogLine() {
+        StringBuilder line = new StringBuilder("metrics:");
+
+        latencies.forEach((name, latency) -> {
+            if (latency.getCount() > 0) {
+                line.append(String.format(" %s=%.2f/%.2fms", name,
+                        LatencyHistogram.toMillis(latency.getP50()), LatencyHistogram.toMillis(latency.getP99())));
+            }
+        });
+        counters.forEach((name, value) -> line.append(' ').append(name).append('=').append(value));
+
+        return line.toString();
+    }
+
+    /**
+     * Returns a string representation of the MetricsSnapshot object.
+     *
+     * @return the log line of the snapshot
+     */
+    public String toString() {
+        return toLogLine();
+    }
+
+    /**
+     * The summary of one latency histogram at the time of the snapshot.
+     */
+    public static final class Latency {
+
+        /** The number of values recorded */
+        private final long count;
+
+        /** The mean of the values in nanoseconds */
+        private final double mean;
+
+        /** The median in nanoseconds */
+        private final long p50;
+
+        /** The 99th percentile in nanoseconds */
+        private final long p99;
+
+        /** The largest value in nanoseconds */
+        private final long max;
+
+        /**
+         * Constructs a new Latency summary of the given histogram.
+         *
+         * @param histogram the histogram to summarize
+         */
+        Latency(LatencyHistogram histogram) {
+            this.count = histogram.getCount();
+            this.mean = histogram.getMean();
+            this.p50 = histogram.getPercentile(50);
+            this.p99 = histogram.getPercentile(99);
+            this.max = histogram.getMax();
+        }
+
+        /**
+         * Returns the number of values recorded.
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the mean of the values recorded.
+         *
+         * @return the mean in nanoseconds
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * Returns the median of the values recorded.
+         *
+         * @return the p50 in nanoseconds
+         */
+        public long getP50() {
+            return p50;
+        }
+
+        /**
+         * Returns the 99th percentile of the values recorded.
+         *
+         * @return the p99 in nanoseconds
+         */
+        public long getP99() {
+            return p99;
+        }
+
+        /**
+         * Returns the largest value recorded.
+         *
+         * @return the maximum in nanoseconds
+         */
+        public long getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.codedotorg.modelmanager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.tensorflow.Graph;
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.framework.AttrValue;
+import org.tensorflow.framework.DataType;
+import org.tensorflow.framework.GraphDef;
+import org.tensorflow.framework.NodeDef;
+import org.tensorflow.framework.TensorProto;
+import org.tensorflow.framework.TensorShapeProto;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+public class ModelConverter {
+
+    /** How to run the converter from the command line */
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: ModelConverter [options]",
+            "  --model <dir>      the SavedModel directory to freeze (default: unlock.model or the bundled model)",
+            "  --cache <dir>      the cache to store the frozen graph in (default: unlock.model.cache or ~/.unlock/model-cache)",
+            "  --output <file>    write the frozen graph to this .pb file instead of the cache",
+            "The frozen graph is loaded in place of the SavedModel on the next start.");
+
+    /** The variable operations whose value is the variable itself */
+    private static final Set<String> REF_VARIABLE_OPS = Set.of("Variable", "VariableV2");
+
+    /** The operations that only matter while training and pass their input through at inference */
+    private static final Set<String> TRAINING_ONLY_OPS = Set.of("CheckNumerics", "StopGradient", "PreventGradient");
+
+    /**
+     * Freezes the graph of a loaded model: every variable read is replaced by a constant
+     * holding the variable's current value, the training-only pass-through operations become
+     * Identity, and every node the output does not depend on, such as the saver and the
+     * initializers, is removed.
+     *
+     * @param graph the graph of the model
+     * @param session a session with the variables of the model restored
+     * @param outputName the name of the output tensor, such as "Identity:0"
+     * @return the serialized frozen GraphDef
+     * @throws IllegalStateException if a variable is used other than by reading it
+     */
+    public static byte[] freeze(Graph graph, Session session, String outputName) {
+        GraphDef graphDef;
+        try {
+            graphDef = GraphDef.parseFrom(graph.toGraphDef());
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Failed to read the graph", e);
+        }
+
+        Map<String, NodeDef> nodes = new HashMap<>();
+        for (NodeDef node : graphDef.getNodeList()) {
+            nodes.put(node.getName(), node);
+        }
+
+        Set<String> kept = findDependencies(nodes, operationName(outputName));
+
+        GraphDef.Builder frozen = graphDef.toBuilder().clearNode();
+        int constants = 0;
+
+        for (NodeDef node : graphDef.getNodeList()) {
+            if (!kept.contains(node.getName())) {
+                continue;
+            }
+
+            if (REF_VARIABLE_OPS.contains(node.getOp()) || isResourceRead(node, nodes)) {
+                frozen.addNode(toConstant(node, session));
+                constants++;
+            }
+            else if (node.getOp().equals("VarHandleOp")) {
+                // Handles that are only read have been replaced by constants and are no longer kept
+                throw new IllegalStateException("Variable " + node.getName()
+                        + " is used other than by reading it, such as inside a function, and cannot be frozen");
+            }
+            else {
+                frozen.addNode(stripTrainingAttributes(node));
+            }
+        }
+
+        System.out.println(String.format("Froze %d variables; kept %d of %d nodes",
+                constants, frozen.getNodeCount(), graphDef.getNodeCount()));
+
+        return frozen.build().toByteArray();
+    }
+
+    /**
+     * Returns the names of the nodes the given node depends on, including itself, through
+     * both data and control inputs. Reads of resource variables are not followed into the
+     * variable handle, since they become constants.
+     *
+     * @param nodes the nodes of the graph by name
+     * @param outputNode the name of the node to start from
+     * @return the names of the nodes to keep
+     */
+    private static Set<String> findDependencies(Map<String, NodeDef> nodes, String outputNode) {
+        Set<String> kept = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(outputNode);
+
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            NodeDef node = nodes.get(name);
+
+            if (node == null || !kept.add(name)) {
+                continue;
+            }
+
+            if (REF_VARIABLE_OPS.contains(node.getOp()) || isResourceRead(node, nodes)) {
+                continue;
+            }
+
+            for (String input : node.getInputList()) {
+                pending.push(operationName(input));
+            }
+        }
+
+        return kept;
+    }
+
+    /**
+     * Returns whether the node reads the value of a resource variable handle.
+     *
+     * @param node the node to check
+     * @param nodes the nodes of the graph by name
+     * @return true if the node is a ReadVariableOp of a VarHandleOp
+     */
+    private static boolean isResourceRead(NodeDef node, Map<String, NodeDef> nodes) {
+        if (!node.getOp().equals("ReadVariableOp") || node.getInputCount() == 0) {
+            return false;
+        }
+
+        NodeDef handle = nodes.get(operationName(node.getInput(0)));
+        return handle != null && handle.getOp().equals("VarHandleOp");
+    }
+
+    /**
+     * Returns a Const node with the same name as the given variable or variable read,
+     * holding the value the session currently has for it.
+     *
+     * @param node the variable or variable read
+     * @param session a session with the variables restored
+     * @return the constant node
+     */
+    private static NodeDef toConstant(NodeDef node, Session session) {
+        try (Tensor<?> value = session.runner().fetch(node.getName(), 0).run().get(0)) {
+            TensorProto proto = toTensorProto(value);
+
+            return NodeDef.newBuilder()
+                    .setName(node.getName())
+                    .setOp("Const")
+                    .setDevice(node.getDevice())
+                    .putAttr("dtype", AttrValue.newBuilder().setType(proto.getDtype()).build())
+                    .putAttr("value", AttrValue.newBuilder().setTensor(proto).build())
+                    .build();
+        }
+    }
+
+    /**
+     * Copies a numeric Tensor into a TensorProto, keeping its raw bytes.
+     *
+     * @param tensor the tensor to copy
+     * @return the TensorProto
+     * @throws IllegalStateException if the tensor holds strings
+     */
+    private static TensorProto toTensorProto(Tensor<?> tensor) {
+        DataType dtype;
+        switch (tensor.dataType()) {
+            case FLOAT:
+                dtype = DataType.DT_FLOAT;
+                break;
+            case DOUBLE:
+                dtype = DataType.DT_DOUBLE;
+                break;
+            case INT32:
+                dtype = DataType.DT_INT32;
+                break;
+            case INT64:
+                dtype = DataType.DT_INT64;
+                break;
+            case UINT8:
+                dtype = DataType.DT_UINT8;
+                break;
+            case BOOL:
+                dtype = DataType.DT_BOOL;
+                break;
+            default:
+                throw new IllegalStateException("Cannot freeze a variable of type " + tensor.dataType());
+        }
+
+        TensorShapeProto.Builder shape = TensorShapeProto.newBuilder();
+        for (long size : tensor.shape()) {
+            shape.addDim(TensorShapeProto.Dim.newBuilder().setSize(size));
+        }
+
+        // Tensor content is little-endian, which is the native order of the machines TensorFlow runs on
+        ByteBuffer content = ByteBuffer.allocate(tensor.numBytes());
+        tensor.writeTo(content);
+        content.flip();
+
+        return TensorProto.newBuilder()
+                .setDtype(dtype)
+                .setTensorShape(shape)
+                .setTensorContent(ByteString.copyFrom(content))
+                .build();
+    }
+
+    /**
+     * Turns a training-only pass-through operation into an Identity and drops the colocation
+     * attribute, which may name a variable or saver node that has been removed.
+     *
+     * @param node the node to keep
+     * @return the node as it goes into the frozen graph
+     */
+    private static NodeDef stripTrainingAttributes(NodeDef node) {
+        NodeDef.Builder builder = node.toBuilder().removeAttr("_class");
+
+        if (TRAINING_ONLY_OPS.contains(node.getOp())) {
+            builder.setOp("Identity").removeAttr("message");
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Returns the operation name of a node input or tensor name, such as "dense/BiasAdd" for
+     * "dense/BiasAdd:0" or "^dense/BiasAdd".
+     *
+     * @param input the input or tensor name
+     * @return the name of the operation
+     */
+    private static String operationName(String input) {
+        String name = input.startsWith("^") ? input.substring(1) : input;
+        int colon = name.lastIndexOf(':');
+        return colon >= 0 ? name.substring(0, colon) : name;
+    }
+
+    /**
+     * Freezes the SavedModel given on the command line and stores it in the model cache,
+     * or writes it to a file, after checking that the frozen graph imports.
+     *
+     * @param args the options, see USAGE
+     */
+    public static void main(String[] args) {
+        Path modelPath = ModelProcessor.modelPathFromSystemProperties();
+        FrozenModelCache cache = FrozenModelCache.fromSystemProperties();
+        Path outputPath = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--model":
+                        modelPath = Paths.get(args[++i]);
+                        break;
+                    case "--cache":
+                        cache = new FrozenModelCache(Paths.get(args[++i]));
+                        break;
+                    case "--output":
+                        outputPath = Paths.get(args[++i]);
+                        break;
+                    case "--help":
+                        System.out.println(USAGE);
+                        return;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        if (outputPath == null && cache == null) {
+            System.err.println("The model cache is off; give an --output file");
+            System.exit(2);
+        }
+
+        ModelProcessor processor = new ModelProcessor(modelPath);
+
+        try {
+            long start = System.nanoTime();
+            processor.loadSavedModel(new SessionConfig());
+
+            ModelDescriptor descriptor = processor.getDescriptor();
+            String inputName = descriptor.getInputName() + ":" + descriptor.getInput().index();
+            String outputName = descriptor.getOutputName() + ":" + descriptor.getOutput().index();
+            byte[] frozen = freeze(processor.getGraph(), processor.getSession(), outputName);
+
+            // Make sure the frozen graph imports before anything loads it in place of the model
+            try (Graph check = new Graph()) {
+                check.importGraphDef(frozen);
+            }
+
+            Path written;
+            if (outputPath != null) {
+                FrozenModelCache.write(outputPath, frozen, inputName, outputName);
+                written = outputPath;
+            }
+            else {
+                written = cache.store(modelPath, frozen, inputName, outputName).getGraphPath();
+            }
+
+            System.out.println(String.format("Wrote %s (%d bytes, input=%s, output=%s) in %.0fms", written,
+                    frozen.length, inputName, outputName, LatencyHistogram.toMillis(System.nanoTime() - start)));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to freeze " + modelPath);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
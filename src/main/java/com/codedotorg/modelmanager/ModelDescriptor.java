@@ -0,0 +1,174 @@
+package com.codedotorg.modelmanager;
+
+import java.util.Arrays;
+
+import org.tensorflow.DataType;
+import org.tensorflow.Output;
+
+public final class ModelDescriptor {
+
+    /** The graph output that the input frame is fed into */
+    private final Output<?> input;
+
+    /** The graph output that holds the class probabilities */
+    private final Output<?> output;
+
+    /** The expected input shape as [batch_size, height, width, channels] */
+    private final long[] inputShape;
+
+    /** The data type of the input tensor */
+    private final DataType inputType;
+
+    /** The number of classes the model predicts */
+    private final int classCount;
+
+    /**
+     * Constructs a new ModelDescriptor with the resolved input and output of the model.
+     *
+     * @param input the graph output the input frame is fed into
+     * @param output the graph output that holds the class probabilities
+     * @param inputShape the expected input shape as [batch_size, height, width, channels]
+     * @param inputType the data type of the input tensor
+     * @param classCount the number of classes the model predicts
+     */
+    public ModelDescriptor(Output<?> input, Output<?> output, long[] inputShape, DataType inputType, int classCount) {
+        this.input = input;
+        this.output = output;
+        this.inputShape = inputShape.clone();
+        this.inputType = inputType;
+        this.classCount = classCount;
+    }
+
+    /**
+     * Returns the graph output that the input frame is fed into.
+     *
+     * @return the input of the model
+     */
+    public Output<?> getInput() {
+        return input;
+    }
+
+    /**
+     * Returns the graph output that holds the class probabilities.
+     *
+     * @return the output of the model
+     */
+    public Output<?> getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns the name of the input operation.
+     *
+     * @return the name of the input operation
+     */
+    public String getInputName() {
+        return input.op().name();
+    }
+
+    /**
+     * Returns the name of the output operation.
+     *
+     * @return the name of the output operation
+     */
+    public String getOutputName() {
+        return output.op().name();
+    }
+
+    /**
+     * Returns a copy of the expected input shape. The batch dimension is -1
+     * if the model accepts any batch size.
+     *
+     * @return the input shape as [batch_size, height, width, channels]
+     */
+    public long[] getInputShape() {
+        return inputShape.clone();
+    }
+
+    /**
+     * Returns the expected input shape for the given batch size.
+     *
+     * @param batchSize the number of frames in the batch
+     * @return the input shape as [batchSize, height, width, channels]
+     */
+    public long[] getInputShape(int batchSize) {
+        long[] shape = inputShape.clone();
+        shape[0] = batchSize;
+        return shape;
+    }
+
+    /**
+     * Returns the input height in pixels.
+     *
+     * @return the input height
+     */
+    public int getInputHeight() {
+        return (int) inputShape[1];
+    }
+
+    /**
+     * Returns the input width in pixels.
+     *
+     * @return the input width
+     */
+    public int getInputWidth() {
+        return (int) inputShape[2];
+    }
+
+    /**
+     * Returns the number of channels per pixel.
+     *
+     * @return the number of input channels
+     */
+    public int getInputChannels() {
+        return (int) inputShape[3];
+    }
+
+    /**
+     * Returns the number of values in a single input frame.
+     *
+     * @return height * width * channels
+     */
+    public int getInputSize() {
+        return getInputHeight() * getInputWidth() * getInputChannels();
+    }
+
+    /**
+     * Returns the data type of the input tensor.
+     *
+     * @return the input data type
+     */
+    public DataType getInputType() {
+        return inputType;
+    }
+
+    /**
+     * Returns whether the model takes raw 8-bit pixels, as quantized models do, instead of
+     * normalized floats.
+     *
+     * @return true if the input type is UINT8
+     */
+    public boolean isQuantized() {
+        return inputType == DataType.UINT8;
+    }
+
+    /**
+     * Returns the number of classes the model predicts.
+     *
+     * @return the number of classes
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Returns a string representation of the ModelDescriptor object.
+     *
+     * @return a string containing the input, output, shape, type and class count
+     */
+    public String toString() {
+        return "ModelDescriptor: input=" + getInputName() + ", output=" + getOutputName()
+                + ", shape=" + Arrays.toString(inputShape) + ", type=" + inputType
+                + ", classes=" + classCount;
+    }
+}
@@ -0,0 +1,138 @@
+package com.codedotorg.modelmanager;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+public class ModelLoader {
+
+    /** The number of dummy frames run through the model before it is marked ready */
+    private final int warmUpIterations;
+
+    /** How long loading the model and labels took, in nanoseconds */
+    private volatile long loadNanos;
+
+    /** How long the warm-up inferences took, in nanoseconds */
+    private volatile long warmUpNanos;
+
+    /**
+     * Constructs a new ModelLoader that runs the given number of warm-up inferences
+     * after loading the model.
+     *
+     * @param warmUpIterations the number of dummy frames to run through the model, at least 0
+     */
+    public ModelLoader(int warmUpIterations) {
+        this.warmUpIterations = Math.max(0, warmUpIterations);
+    }
+
+    /**
+     * Constructs a new ModelLoader configured by the system property unlock.warmup,
+     * the number of warm-up inferences (default 3).
+     *
+     * @return the configured ModelLoader
+     */
+    public static ModelLoader fromSystemProperties() {
+        return new ModelLoader(Integer.getInteger("unlock.warmup", 3));
+    }
+
+    /**
+     * Loads the model and labels on a background thread, then runs the warm-up inferences
+     * so TensorFlow optimizes the graph before the first real frame arrives. The progress
+     * listener is called on the loading thread with a message and the fraction done.
+     *
+     * @param progress called with a message and the fraction from 0 to 1 as loading proceeds
+     * @return a future that completes with the ready ModelManager, or fails if the model cannot be loaded
+     */
+    public CompletableFuture<ModelManager> load(BiConsumer<String, Double> progress) {
+        CompletableFuture<ModelManager> future = new CompletableFuture<>();
+
+        Thread loader = new Thread(() -> {
+            try {
+                future.complete(loadNow(progress));
+            } catch (Throwable e) {
+                // Errors such as an UnsatisfiedLinkError from the native libraries must fail the
+                // future too, or whoever waits on it is never told the model will not load
+                progress.accept("Model failed to load", 1.0);
+                future.completeExceptionally(e);
+            }
+        }, "model-loader");
+        loader.setDaemon(true);
+        loader.start();
+
+        return future;
+    }
+
+    /**
+     * Loads the model and labels and runs the warm-up inferences on the calling thread.
+     *
+     * @param progress called with a message and the fraction from 0 to 1 as loading proceeds
+     * @return the ready ModelManager
+     * @throws IllegalStateException if the model or labels cannot be loaded
+     */
+    public ModelManager loadNow(BiConsumer<String, Double> progress) {
+        long start = System.nanoTime();
+
+        // The warm-up frames are OpenCV Mats, so the library must be loaded even without a camera
+        nu.pattern.OpenCV.loadLocally();
+        ModelProcessor processor = new ModelProcessor();
+
+        progress.accept("Loading model...", 0.1);
+        try {
+            processor.loadModelOrThrow(SessionConfig.fromSystemProperties());
+        } catch (IOException | RuntimeException e) {
+            // The reason goes into the message, since that is what the loading screen shows
+            throw new IllegalStateException(processor.getModelPath() + ": " + e.getMessage(), e);
+        }
+
+        progress.accept("Loading labels...", 0.6);
+        processor.loadLabels();
+        if (processor.getLabels() == null) {
+            throw new IllegalStateException("Failed to load the labels");
+        }
+
+        ModelManager model = new ModelManager(processor);
+        loadNanos = System.nanoTime() - start;
+
+        long warmUpStart = System.nanoTime();
+        for (int i = 0; i < warmUpIterations; i++) {
+            progress.accept("Warming up model (" + (i + 1) + "/" + warmUpIterations + ")...",
+                    0.7 + 0.3 * i / warmUpIterations);
+            model.warmUp();
+        }
+        model.releaseThreadResources();
+        warmUpNanos = System.nanoTime() - warmUpStart;
+
+        progress.accept("Model ready", 1.0);
+        System.out.println(String.format("Model ready: load=%.0fms, warm-up=%.0fms (%d inferences)",
+                LatencyHistogram.toMillis(loadNanos), LatencyHistogram.toMillis(warmUpNanos), warmUpIterations));
+
+        return model;
+    }
+
+    /**
+     * Returns how long loading the model and labels took.
+     *
+     * @return the load time in nanoseconds, or 0 if loading has not finished
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    /**
+     * Returns how long the warm-up inferences took.
+     *
+     * @return the warm-up time in nanoseconds, or 0 if warm-up has not finished
+     */
+    public long getWarmUpNanos() {
+        return warmUpNanos;
+    }
+
+    /**
+     * Returns the number of warm-up inferences run after loading.
+     *
+     * @return the number of warm-up iterations
+     */
+    public int getWarmUpIterations() {
+        return warmUpIterations;
+    }
+}
@@ -1,6 +1,11 @@
 package com.codedotorg.modelmanager;
 
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
 
 public class ModelManager {
     
@@ -12,13 +17,45 @@ public class ModelManager {
 
     /**
      * Constructs a new ModelManager object.
-     * Initializes a ModelProcessor object, loads the model and labels, and initializes a ModelPredictor object.
+     * Initializes a ModelProcessor object, loads the model and labels, and initializes a ModelPredictor
+     * object that reports low confidence frames as uncertain.
      */
     public ModelManager() {
-        modelProcessor = new ModelProcessor();
+        this(createModelProcessor());
+    }
+
+    /**
+     * Constructs a new ModelManager object around a ModelProcessor whose model and labels are
+     * already loaded, such as one running a synthetic benchmark graph, and initializes a
+     * ModelPredictor object that reports low confidence frames as uncertain.
+     *
+     * @param modelProcessor the ModelProcessor with its model and labels loaded
+     */
+    public ModelManager(ModelProcessor modelProcessor) {
+        this.modelProcessor = modelProcessor;
+        modelPredictor = new ModelPredictor(modelProcessor);
+
+        // Crop each frame to the configured region before it is resized, if there is one
+        if (modelProcessor.getRegionOfInterest() == null) {
+            modelProcessor.setRegionOfInterest(RegionOfInterest.fromSystemProperties());
+        }
+
+        // Report low confidence frames as uncertain instead of as their top class
+        if (modelProcessor.getLabels() != null) {
+            modelPredictor.setConfidenceGate(ConfidenceGate.fromSystemProperties(modelProcessor.getLabels()));
+        }
+    }
+
+    /**
+     * Creates a ModelProcessor and loads the default model and labels into it.
+     *
+     * @return the loaded ModelProcessor
+     */
+    private static ModelProcessor createModelProcessor() {
+        ModelProcessor modelProcessor = new ModelProcessor();
         modelProcessor.loadModel();
         modelProcessor.loadLabels();
-        modelPredictor = new ModelPredictor(modelProcessor);
+        return modelProcessor;
     }
 
     /**
@@ -30,6 +67,15 @@ public class ModelManager {
         return modelProcessor;
     }
     
+    /**
+     * Returns the ModelPredictor object associated with this ModelManager.
+     *
+     * @return the ModelPredictor object associated with this ModelManager
+     */
+    public ModelPredictor getModelPredictor() {
+        return modelPredictor;
+    }
+
     /**
      * Returns a Prediction object containing the predicted class name and confidence level for a given input frame.
      * 
@@ -39,5 +85,72 @@ public class ModelManager {
     public Prediction getPrediction(Mat frame) {
         return modelPredictor.processFrameAndGetClassNameWithConfidence(frame);
     }
+
+    /**
+     * Returns a Prediction for each of the given frames. The frames are run
+     * through the model together as one batch where the model allows it.
+     *
+     * @param frames the input frames to be processed
+     * @return a Prediction for each frame, in the same order
+     */
+    public List<Prediction> getPredictions(List<Mat> frames) {
+        return modelPredictor.processFramesAndGetClassNamesWithConfidence(frames);
+    }
+
+    /**
+     * Reads every frame from the source on the calling thread and passes its Prediction to
+     * the consumer. Frames are read as fast as the source and model allow, so recorded
+     * sessions can be replayed faster than real time.
+     *
+     * @param source the FrameSource to read; it is opened here and closed when it runs out
+     * @param consumer called with the Prediction for each frame, in frame order
+     * @return the number of frames predicted, or -1 if the source could not be opened
+     */
+    public long predictAll(FrameSource source, Consumer<Prediction> consumer) {
+        if (!source.open()) {
+            System.err.println("Failed to open " + source.getName());
+            return -1;
+        }
+
+        Mat mat = new Mat();
+        long sequence = 0;
+
+        try {
+            while (source.read(mat)) {
+                // The Mat is reused for every frame, so it is not handed to a CapturedFrame to own
+                long timestamp = System.nanoTime();
+                consumer.accept(getPrediction(mat).forFrame(++sequence, timestamp));
+            }
+        } finally {
+            mat.release();
+            source.close();
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Runs one blank frame the size of the model input through the full prediction path
+     * and discards the result. The first runs of a TensorFlow graph pay for optimizing
+     * and allocating it, so warming up keeps that cost off the first real frame.
+     */
+    public void warmUp() {
+        ModelDescriptor descriptor = modelProcessor.getDescriptor();
+        Mat blank = new Mat(descriptor.getInputHeight(), descriptor.getInputWidth(), CvType.CV_8UC3, new Scalar(0, 0, 0));
+
+        try {
+            getPrediction(blank);
+        } finally {
+            blank.release();
+        }
+    }
+
+    /**
+     * Releases the preprocessing buffers of the calling thread.
+     * Threads that call getPrediction should call this before they finish.
+     */
+    public void releaseThreadResources() {
+        modelProcessor.releasePreprocessContext();
+    }
     
 }
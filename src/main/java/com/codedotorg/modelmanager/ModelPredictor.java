@@ -1,43 +1,190 @@
 package com.codedotorg.modelmanager;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.opencv.core.Mat;
+import org.tensorflow.DataType;
+import org.tensorflow.Session;
 import org.tensorflow.Tensor;
 
 public class ModelPredictor {
 
+    /** The registry the model times are recorded in */
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+
+    /** The time spent in Session.run for each frame or batch */
+    private static final LatencyHistogram SESSION_RUN_LATENCY = METRICS.histogram(MetricsRegistry.SESSION_RUN);
+
+    /** The time to turn each frame's probabilities into a Prediction */
+    private static final LatencyHistogram POSTPROCESS_LATENCY = METRICS.histogram(MetricsRegistry.POSTPROCESS);
+
     /** The ModelProcessor to load and process the model */
     private ModelProcessor modelProcessor;
 
+    /** The session to run the model in, or null to use the ModelProcessor's session */
+    private final Session session;
+
+    /** Decides whether the top class is confident enough to report, or null to always report it */
+    private volatile ConfidenceGate confidenceGate;
+
     /**
      * Constructs a new ModelPredictor object with the given ModelProcessor.
      * 
      * @param modelProcessor the ModelProcessor to use for prediction
      */
     public ModelPredictor(ModelProcessor modelProcessor) {
+        this(modelProcessor, null);
+    }
+
+    /**
+     * Constructs a new ModelPredictor object that runs the model of the given ModelProcessor
+     * in its own session, such as one created by ModelProcessor.createSession().
+     *
+     * @param modelProcessor the ModelProcessor to use for preprocessing and the model's input and output
+     * @param session the session to run the model in, or null to use the ModelProcessor's session
+     */
+    public ModelPredictor(ModelProcessor modelProcessor, Session session) {
         this.modelProcessor = modelProcessor;
+        this.session = session;
+    }
+
+    /**
+     * Returns the session the model is run in.
+     *
+     * @return the session given to this ModelPredictor, or else the ModelProcessor's session
+     */
+    public Session getSession() {
+        return session != null ? session : modelProcessor.getSession();
     }
     
     /**
      * Predicts using the model.
      *
-     * @param tensorInput The Tensor input for the model.
+     * @param tensorInput The Tensor input for the model, float or UINT8 as the model takes.
      * @return The list of predicted class probabilities.
      */
-    public float[] predict(Tensor<Float> tensorInput) {
-        // The name of the input node and output node may vary based on your model. Adjust accordingly.
-        String inputNodeName = modelProcessor.getInputNodeName();
-        String outputNodeName = modelProcessor.getOutputNodeName() + ":0";
+    public float[] predict(Tensor<?> tensorInput) {
+        Tensor<?> result = run(tensorInput);
+
+        try {
+            // Assuming the output shape is [batch_size, number_of_classes], copy the
+            // predictions for the first (and only) batch straight into the result
+            float[] predictions = new float[(int) result.shape()[1]];
+
+            if (result.dataType() == DataType.UINT8) {
+                byte[] quantized = new byte[predictions.length];
+                result.writeTo(ByteBuffer.wrap(quantized));
+                dequantize(quantized, predictions);
+            }
+            else {
+                result.writeTo(FloatBuffer.wrap(predictions));
+            }
+
+            return predictions;
+        } finally {
+            NativeResources.close(result);
+        }
+    }
+
+    /**
+     * Predicts a whole batch using the model in a single session run.
+     *
+     * @param tensorInput The batched Tensor input for the model, float or UINT8 as the model takes.
+     * @return The predicted class probabilities for each frame in the batch.
+     */
+    public float[][] predictBatch(Tensor<?> tensorInput) {
+        Tensor<?> result = run(tensorInput);
 
-        try (Tensor<Float> result = modelProcessor.getSession().runner()
-                .feed(inputNodeName, tensorInput)
-                .fetch(outputNodeName)
+        try {
+            long[] shape = result.shape(); // [batch_size, number_of_classes]
+            float[][] predictions = new float[(int) shape[0]][(int) shape[1]];
+
+            if (result.dataType() == DataType.UINT8) {
+                byte[][] quantized = new byte[(int) shape[0]][(int) shape[1]];
+                result.copyTo(quantized);
+                for (int i = 0; i < quantized.length; i++) {
+                    dequantize(quantized[i], predictions[i]);
+                }
+            }
+            else {
+                result.expect(Float.class).copyTo(predictions);
+            }
+
+            return predictions;
+        } finally {
+            NativeResources.close(result);
+        }
+    }
+
+    /**
+     * Turns the 8-bit class scores of a fully quantized model back into probabilities,
+     * using the output scale and zero point of the ModelProcessor.
+     *
+     * @param quantized The 8-bit scores.
+     * @param probabilities The array to write the probabilities into.
+     */
+    private void dequantize(byte[] quantized, float[] probabilities) {
+        float scale = modelProcessor.getOutputScale();
+        int zeroPoint = modelProcessor.getOutputZeroPoint();
+
+        for (int i = 0; i < quantized.length; i++) {
+            probabilities[i] = ((quantized[i] & 0xFF) - zeroPoint) * scale;
+        }
+    }
+
+    /**
+     * Runs the model on the input and records how long Session.run took.
+     *
+     * @param tensorInput The Tensor input for the model.
+     * @return The output Tensor of class probabilities; the caller must close it with NativeResources.close.
+     */
+    private Tensor<?> run(Tensor<?> tensorInput) {
+        // The input and output were resolved when the model was loaded, so no graph lookup is needed here
+        ModelDescriptor descriptor = modelProcessor.getDescriptor();
+        long start = METRICS.isEnabled() ? System.nanoTime() : 0;
+
+        Tensor<?> result = NativeResources.counted(getSession().runner()
+                .feed(descriptor.getInput(), tensorInput)
+                .fetch(descriptor.getOutput())
                 .run()
-                .get(0)
-                .expect(Float.class)) {
+                .get(0));
 
-            float[][] outputArray = new float[1][(int) result.shape()[1]]; // assuming the output shape is [batch_size, number_of_classes]
-            result.copyTo(outputArray);
-            return outputArray[0]; // return the predictions for the first (and only) batch
+        if (start != 0) {
+            SESSION_RUN_LATENCY.record(System.nanoTime() - start);
+        }
+
+        return result;
+    }
+
+    /**
+     * Process several frames and get the model's predictions for all of them. The frames
+     * are run as one batch if the model accepts batches, otherwise one at a time.
+     *
+     * @param frames The Mat frames to be processed.
+     * @return The predicted class probabilities for each frame, in the same order.
+     */
+    public float[][] processAndPredictBatch(List<Mat> frames) {
+        if (frames.isEmpty()) {
+            return new float[0][];
+        }
+
+        // A model exported with a fixed batch size of 1 cannot take more than one frame per run
+        if (modelProcessor.getDescriptor().getInputShape()[0] == 1) {
+            float[][] predictions = new float[frames.size()][];
+            for (int i = 0; i < frames.size(); i++) {
+                predictions[i] = processAndPredict(frames.get(i));
+            }
+            return predictions;
+        }
+
+        Tensor<?> input = modelProcessor.createBatchInput(frames);
+        try {
+            return predictBatch(input);
+        } finally {
+            NativeResources.close(input);
         }
     }
 
@@ -48,9 +195,14 @@ public class ModelPredictor {
      * @return The list of predicted class probabilities.
      */
     public float[] processAndPredict(Mat frame) {
-        float[] floatArrayInput = modelProcessor.prepareFrameForModel(frame);
-        Tensor<Float> tensorInput = modelProcessor.floatArrayToTensor(floatArrayInput);
-        return predict(tensorInput);
+        // Close the input tensor as soon as the prediction is made to free its native memory.
+        // A single Tensor needs no FrameScope, so this per-frame path allocates nothing.
+        Tensor<?> input = modelProcessor.createInput(frame);
+        try {
+            return predict(input);
+        } finally {
+            NativeResources.close(input);
+        }
     }
 
     /**
@@ -69,6 +221,92 @@ public class ModelPredictor {
         return maxIndex;
     }
 
+    /**
+     * Returns the indices of the k most likely classes, most likely first. Only the
+     * top k are kept in order while scanning, so the full vector is never sorted.
+     *
+     * @param predictions The predicted class probabilities.
+     * @param k The number of classes to return.
+     * @return The indices of the top k classes, at most predictions.length of them, or none if k is not positive.
+     */
+    public int[] getTopK(float[] predictions, int k) {
+        int size = Math.min(k, predictions.length);
+
+        // With no classes to rank, top[size - 1] below would be out of bounds
+        if (size <= 0) {
+            return new int[0];
+        }
+
+        int[] top = new int[size];
+        int count = 0;
+
+        for (int i = 0; i < predictions.length; i++) {
+            // Skip classes that cannot make the top k
+            if (count == size && predictions[i] <= predictions[top[size - 1]]) {
+                continue;
+            }
+
+            // Shift lower classes down to insert this one in order
+            int position = Math.min(count, size - 1);
+            while (position > 0 && predictions[top[position - 1]] < predictions[i]) {
+                top[position] = top[position - 1];
+                position--;
+            }
+            top[position] = i;
+
+            if (count < size) {
+                count++;
+            }
+        }
+
+        return top;
+    }
+
+    /**
+     * Builds the Prediction for the given class probabilities. If a ConfidenceGate is set and
+     * the top class does not pass it, the Prediction is UNCERTAIN with the top class's confidence.
+     *
+     * @param predictions The predicted class probabilities.
+     * @return The Prediction for the probabilities.
+     */
+    public Prediction createPrediction(float[] predictions) {
+        long start = METRICS.isEnabled() ? System.nanoTime() : 0;
+        float confidence = getPredictedClassConfidence(predictions);
+        ConfidenceGate gate = confidenceGate;
+        Prediction prediction;
+
+        if (gate != null && !gate.isConfident(predictions)) {
+            prediction = new Prediction(Prediction.UNCERTAIN, confidence, predictions);
+        }
+        else {
+            prediction = new Prediction(getPredictedClassName(predictions), confidence, predictions);
+        }
+
+        if (start != 0) {
+            POSTPROCESS_LATENCY.record(System.nanoTime() - start);
+        }
+
+        return prediction;
+    }
+
+    /**
+     * Returns the gate that decides whether the top class is confident enough to report.
+     *
+     * @return the ConfidenceGate, or null if the top class is always reported
+     */
+    public ConfidenceGate getConfidenceGate() {
+        return confidenceGate;
+    }
+
+    /**
+     * Sets the gate that decides whether the top class is confident enough to report.
+     *
+     * @param confidenceGate the ConfidenceGate to use, or null to always report the top class
+     */
+    public void setConfidenceGate(ConfidenceGate confidenceGate) {
+        this.confidenceGate = confidenceGate;
+    }
+
     /**
      * Gets the class name corresponding to the given prediction.
      *
@@ -104,15 +342,31 @@ public class ModelPredictor {
 
     /**
      * Processes a frame and returns the predicted class name and confidence level.
+     * Frames where no class is confident enough come back as UNCERTAIN.
      * 
      * @param frame the frame to be processed
      * @return a Prediction object containing the predicted class name and confidence level
      */
     public Prediction processFrameAndGetClassNameWithConfidence(Mat frame) {
         float[] predictions = processAndPredict(frame);
-        String className = getPredictedClassName(predictions);
-        float confidence = getPredictedClassConfidence(predictions);
-        return new Prediction(className, confidence);
+        return createPrediction(predictions);
+    }
+
+    /**
+     * Processes several frames and returns the predicted class name and confidence level for each.
+     *
+     * @param frames the frames to be processed
+     * @return a Prediction for each frame, in the same order
+     */
+    public List<Prediction> processFramesAndGetClassNamesWithConfidence(List<Mat> frames) {
+        float[][] predictions = processAndPredictBatch(frames);
+        List<Prediction> results = new ArrayList<>(predictions.length);
+
+        for (float[] framePredictions : predictions) {
+            results.add(createPrediction(framePredictions));
+        }
+
+        return results;
     }
 
 }
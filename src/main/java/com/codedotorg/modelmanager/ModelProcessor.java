@@ -1,29 +1,63 @@
 package com.codedotorg.modelmanager;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
+import org.tensorflow.DataType;
 import org.tensorflow.Graph;
 import org.tensorflow.Operation;
+import org.tensorflow.Output;
 import org.tensorflow.SavedModelBundle;
 import org.tensorflow.Session;
+import org.tensorflow.Shape;
 import org.tensorflow.Tensor;
+import org.tensorflow.framework.MetaGraphDef;
+import org.tensorflow.framework.SaverDef;
+import org.tensorflow.framework.SignatureDef;
+import org.tensorflow.framework.TensorInfo;
+import org.tensorflow.types.UInt8;
+
+import com.google.protobuf.InvalidProtocolBufferException;
 
 public class ModelProcessor {
 
-    /** The path to the directory containing the model */
-    private static final String MODEL_PATH = "src\\main\\java\\com\\codedotorg\\model\\";
+    /** The path to the directory containing the model, unless unlock.model says otherwise */
+    private static final Path DEFAULT_MODEL_PATH = Paths.get("src", "main", "java", "com", "codedotorg", "model");
+
+    /** The name of the labels file (should be in the root of the model directory) */
+    private static final String LABELS_FILE = "labels.txt";
+
+    /** The signature the model is exported with by default */
+    private static final String DEFAULT_SIGNATURE = "serving_default";
+
+    /** The input shape to fall back on if the graph does not declare one */
+    private static final long[] DEFAULT_INPUT_SHAPE = {-1, 224, 224, 3};
+
+    /** The registry the preprocessing times are recorded in */
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+
+    /** The time to crop, resize and normalize each frame */
+    private static final LatencyHistogram PREPROCESS_LATENCY = METRICS.histogram(MetricsRegistry.PREPROCESS);
+
+    /** The time to copy each prepared frame or batch into its input Tensor */
+    private static final LatencyHistogram TENSOR_LATENCY = METRICS.histogram(MetricsRegistry.TENSOR);
 
-    /** The path to the labels.txt file (should be in the root of the model directory) */
-    private static final String LABELS_PATH = MODEL_PATH + "labels.txt";
+    /** The SavedModel directory or frozen graph file the model is loaded from */
+    private final Path modelPath;
 
     /** Represents the TensorFlow model and its associated variables */
     private SavedModelBundle bundle;
@@ -31,46 +65,513 @@ public class ModelProcessor {
     /** Represents a TensorFlow session, which is used to run the model and make predictions */
     private Session session;
 
+    /** The graph of the loaded model, shared by every session created for it */
+    private Graph graph;
+
     /** The list of class labels for the model */
     private List<String> labels;
 
+    /** The input and output of the model, resolved once when the model is loaded */
+    private ModelDescriptor descriptor;
+
+    /** How frames are resized and normalized before they are given to the model */
+    private PreprocessMode preprocessMode;
+
+    /** The order the color channels are given to the model in */
+    private ChannelOrder channelOrder;
+
+    /** The part of each frame given to the model, or null to give it the whole frame */
+    private volatile RegionOfInterest regionOfInterest;
+
+    /** The input width to run a model that accepts any resolution at, or 0 for the default */
+    private int requestedInputWidth;
+
+    /** The input height to run a model that accepts any resolution at, or 0 for the default */
+    private int requestedInputHeight;
+
+    /** The probability one step of a quantized output stands for */
+    private volatile float outputScale;
+
+    /** The quantized output value that stands for a probability of 0 */
+    private volatile int outputZeroPoint;
+
+    /** The reusable preprocessing buffers, one set per thread that makes predictions */
+    private final ThreadLocal<PreprocessContext> preprocessContexts = new ThreadLocal<>();
+
     /**
-     * Constructs a new ModelProcessor object with null values for bundle and session.
+     * Constructs a new ModelProcessor object for the model at the path from the system
+     * property unlock.model, or the model directory in the source tree if it is not set.
      */
     public ModelProcessor() {
+        this(modelPathFromSystemProperties());
+    }
+
+    /**
+     * Constructs a new ModelProcessor object with null values for bundle, session and descriptor.
+     *
+     * @param modelPath the SavedModel directory or frozen graph (.pb) file to load the model from
+     */
+    public ModelProcessor(Path modelPath) {
+        this.modelPath = modelPath;
         bundle = null;
         session = null;
+        graph = null;
+        descriptor = null;
+        preprocessMode = PreprocessMode.NATIVE;
+        channelOrder = ChannelOrder.valueOf(
+                System.getProperty("unlock.model.channelOrder", "RGB").trim().toUpperCase(Locale.ROOT));
+        regionOfInterest = null;
+        outputScale = 1 / 255f;
+        outputZeroPoint = 0;
+
+        // The resolution is read here so both the app and the tools pick it up
+        String inputSize = System.getProperty("unlock.model.inputSize");
+        if (inputSize != null && !inputSize.trim().isEmpty()) {
+            setInputSize(inputSize);
+        }
+
+        String scale = System.getProperty("unlock.model.outputScale");
+        String zeroPoint = System.getProperty("unlock.model.outputZeroPoint");
+        if (scale != null || zeroPoint != null) {
+            setOutputQuantization(scale != null ? Float.parseFloat(scale.trim()) : outputScale,
+                    zeroPoint != null ? Integer.parseInt(zeroPoint.trim()) : outputZeroPoint);
+        }
     }
     
     /**
-     * Loads a saved model from the specified path and creates a session.
+     * Returns the model path from the system property unlock.model, which may be a SavedModel
+     * directory or a frozen graph (.pb) file.
+     *
+     * @return the configured model path, or the model directory in the source tree if it is not set
+     */
+    public static Path modelPathFromSystemProperties() {
+        String path = System.getProperty("unlock.model");
+        return path != null && !path.trim().isEmpty() ? Paths.get(path.trim()) : DEFAULT_MODEL_PATH;
+    }
+
+    /**
+     * Loads a saved model from the specified path and creates a session with the
+     * thread settings from SessionConfig.fromSystemProperties().
      * Prints a message to the console if the model is loaded successfully.
      * Prints an error message and stack trace to the console if the model fails to load.
      */
     public void loadModel() {
+        loadModel(SessionConfig.fromSystemProperties());
+    }
+
+    /**
+     * Loads a saved model from the specified path and creates a session with the given thread settings.
+     * Prints a message to the console if the model is loaded successfully.
+     * Prints an error message and stack trace to the console if the model fails to load.
+     *
+     * @param config the thread settings of the session
+     */
+    public void loadModel(SessionConfig config) {
         try {
-            // Load the TensorFlow model from the MODEL_PATH directory and create a new
-            // SavedModelBundle object. "serve" specifies the model signature name.
-            bundle = SavedModelBundle.load(MODEL_PATH, "serve");
-
-            // Sets the session to a new Session object to run the TensorFlow model and make predictions
-            session = bundle.session();
-            System.out.println("Model loaded successfully");
-        } catch (Exception e) {
+            loadModelOrThrow(config);
+        } catch (IOException | RuntimeException e) {
             System.err.println("Failed to load the model");
             e.printStackTrace();
         }
     }
 
+    /**
+     * Loads a saved model from the specified path and creates a session with the given thread settings,
+     * passing on why it failed so it can be shown to the user.
+     * A frozen graph file is imported directly. For a SavedModel directory, the frozen graph
+     * that ModelConverter cached for it is used if there is one, since it skips restoring the
+     * variables and the training-only nodes; otherwise the SavedModel itself is loaded. A
+     * cached graph that cannot be loaded is deleted and the SavedModel is loaded instead.
+     * Prints a message to the console if the model is loaded successfully.
+     *
+     * @param config the thread settings of the session
+     * @throws IOException if a frozen graph cannot be read
+     * @throws IllegalArgumentException if the model's input or output cannot be found
+     * @throws org.tensorflow.TensorFlowException if TensorFlow cannot load the model
+     */
+    public void loadModelOrThrow(SessionConfig config) throws IOException {
+        if (Files.isRegularFile(modelPath)) {
+            loadFrozenGraph(FrozenModelCache.Entry.forGraph(modelPath), config);
+        }
+        else {
+            FrozenModelCache cache = FrozenModelCache.fromSystemProperties();
+            FrozenModelCache.Entry cached = cache != null ? cache.lookup(modelPath) : null;
+
+            if (cached != null) {
+                try {
+                    loadFrozenGraph(cached, config);
+                } catch (IOException | RuntimeException e) {
+                    // The SavedModel is right there, so a bad cache entry must not stop the app starting
+                    System.err.println("Ignoring the cached frozen graph " + cached.getGraphPath() + ": " + e);
+                    evict(cache, cached);
+                    loadSavedModel(config);
+                }
+            }
+            else {
+                loadSavedModel(config);
+            }
+        }
+
+        System.out.println("Model loaded successfully");
+        System.out.println(descriptor);
+    }
+
+    /**
+     * Deletes a cached frozen graph that could not be loaded. A failure to delete it is only
+     * reported, since the SavedModel is loaded either way.
+     *
+     * @param cache the cache the entry came from
+     * @param entry the Entry that could not be loaded
+     */
+    private static void evict(FrozenModelCache cache, FrozenModelCache.Entry entry) {
+        try {
+            cache.evict(entry);
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + entry.getGraphPath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the SavedModel in the model directory and creates a session with the given
+     * thread settings, without looking for a frozen graph of it.
+     *
+     * @param config the thread settings of the session
+     */
+    public void loadSavedModel(SessionConfig config) {
+        // Load the TensorFlow model from the model directory and create a new
+        // SavedModelBundle object. "serve" specifies the model signature name.
+        SavedModelBundle loaded = SavedModelBundle.loader(modelPath.toString())
+                .withTags("serve")
+                .withConfigProto(config.toConfigProto())
+                .load();
+
+        // Resolve the input and output nodes once so predictions never search the graph. This
+        // comes before the session is published, so a model that cannot be used is never half loaded.
+        ModelDescriptor resolved;
+        try {
+            resolved = resolveDescriptor(loaded.graph(), loaded.metaGraphDef());
+        } catch (RuntimeException e) {
+            loaded.close();
+            throw e;
+        }
+
+        // Sets the session to a new Session object to run the TensorFlow model and make predictions
+        bundle = loaded;
+        session = loaded.session();
+        graph = loaded.graph();
+        descriptor = resolved;
+    }
+
+    /**
+     * Imports a frozen graph and creates a session with the given thread settings. The
+     * variables of a frozen graph are constants, so there is nothing to restore.
+     *
+     * @param frozen the frozen graph and the names of its input and output
+     * @param config the thread settings of the session
+     * @throws IOException if the graph cannot be read
+     */
+    private void loadFrozenGraph(FrozenModelCache.Entry frozen, SessionConfig config) throws IOException {
+        Graph frozenGraph = new Graph();
+
+        ModelDescriptor resolved;
+        try {
+            frozenGraph.importGraphDef(frozen.readGraphDef());
+            resolved = resolveDescriptor(frozenGraph, frozen.getInputName(), frozen.getOutputName());
+        } catch (IOException | RuntimeException e) {
+            frozenGraph.close();
+            throw e;
+        }
+
+        bundle = null;
+        graph = frozenGraph;
+        session = new Session(frozenGraph, config.toConfigProto());
+        descriptor = resolved;
+        System.out.println("Using frozen graph " + frozen.getGraphPath());
+    }
+
+    /**
+     * Uses an already built graph as the model and creates a session to run it.
+     * This lets models that are not SavedModels, such as synthetic benchmark
+     * models, go through exactly the same prediction path.
+     *
+     * @param graph the graph of the model; it is owned by the caller
+     * @param inputName the name of the input operation, or null to find it by name
+     * @param outputName the name of the output operation, or null to find it by name
+     */
+    public void loadGraph(Graph graph, String inputName, String outputName) {
+        ModelDescriptor resolved = resolveDescriptor(graph, inputName, outputName);
+
+        this.graph = graph;
+        session = new Session(graph);
+        descriptor = resolved;
+
+        System.out.println("Graph loaded successfully");
+        System.out.println(descriptor);
+    }
+
+    /**
+     * Creates another session over the loaded graph with the given thread settings, so
+     * the graph is only loaded once however many sessions run it. The variables of a
+     * SavedModel are restored into the new session from the model directory.
+     *
+     * @param config the thread settings of the session
+     * @return the new session; the caller must close it
+     * @throws IllegalStateException if no model has been loaded
+     */
+    public Session createSession(SessionConfig config) {
+        if (graph == null) {
+            throw new IllegalStateException("No model has been loaded");
+        }
+
+        Session newSession = new Session(graph, config.toConfigProto());
+
+        try {
+            restoreVariables(newSession);
+        } catch (RuntimeException e) {
+            newSession.close();
+            throw e;
+        }
+
+        return newSession;
+    }
+
+    /**
+     * Restores the variables of the SavedModel into the session by running the restore
+     * operation of the model's saver. Graphs without a saver have nothing to restore.
+     *
+     * @param target the session to restore the variables into
+     */
+    private void restoreVariables(Session target) {
+        if (bundle == null) {
+            return;
+        }
+
+        SaverDef saver;
+        try {
+            saver = MetaGraphDef.parseFrom(bundle.metaGraphDef()).getSaverDef();
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Failed to read the model saver", e);
+        }
+
+        if (saver.getRestoreOpName().isEmpty()) {
+            return;
+        }
+
+        // The checkpoint prefix of a SavedModel is always variables/variables
+        String prefix = modelPath.resolve("variables").resolve("variables").toString();
+
+        try (Tensor<?> filename = Tensor.create(prefix.getBytes(StandardCharsets.UTF_8))) {
+            target.runner()
+                    .feed(saver.getFilenameTensorName(), filename)
+                    .addTarget(saver.getRestoreOpName())
+                    .run();
+        }
+    }
+
+    /**
+     * Resolves the input and output of the model. The serving signature of the
+     * SavedModel is used if it is present, otherwise the nodes are found by name.
+     *
+     * @param graph the graph of the model
+     * @param metaGraphDef the serialized MetaGraphDef of the model, or null if there is none
+     * @return the ModelDescriptor for the model
+     */
+    private ModelDescriptor resolveDescriptor(Graph graph, byte[] metaGraphDef) {
+        Output<?> input = null;
+        Output<?> output = null;
+
+        SignatureDef signature = findSignature(metaGraphDef);
+
+        if (signature != null && signature.getInputsCount() > 0 && signature.getOutputsCount() > 0) {
+            input = findOutput(graph, selectTensor(signature.getInputsMap(), "input"));
+            output = findOutput(graph, selectTensor(signature.getOutputsMap(), "output"));
+        }
+
+        // Fall back on the name heuristic if the signature could not be used
+        if (input == null || output == null) {
+            input = graph.operation(findInputNodeName(graph)).output(0);
+            output = graph.operation(findOutputNodeName(graph)).output(0);
+        }
+
+        return describe(input, output);
+    }
+
+    /**
+     * Returns the name of the tensor for one side of the signature. The entry is chosen by
+     * the key in the system property unlock.model.inputKey or unlock.model.outputKey, or is
+     * the only entry if the signature has just one.
+     *
+     * @param tensors the inputs or outputs of the signature, by key
+     * @param side "input" or "output", for the property name and the message
+     * @return the tensor name, such as "input_1:0"
+     * @throws IllegalArgumentException if the configured key is not in the signature, or no
+     *                                  key is configured and the signature has several entries
+     */
+    private String selectTensor(Map<String, TensorInfo> tensors, String side) {
+        String property = "unlock.model." + side + "Key";
+        String key = System.getProperty(property);
+
+        if (key != null && !key.trim().isEmpty()) {
+            TensorInfo tensor = tensors.get(key.trim());
+            if (tensor == null) {
+                throw new IllegalArgumentException("The signature has no " + side + " named " + key.trim()
+                        + "; its " + side + "s are " + tensors.keySet());
+            }
+            return tensor.getName();
+        }
+
+        if (tensors.size() > 1) {
+            throw new IllegalArgumentException("The signature has several " + side + "s " + tensors.keySet()
+                    + "; set " + property + " to the one to use");
+        }
+
+        return tensors.values().iterator().next().getName();
+    }
+
+    /**
+     * Resolves the input and output of the model from their tensor names, falling back
+     * on the name heuristic for the ones that are not named.
+     *
+     * @param graph the graph of the model
+     * @param inputName the name of the input tensor, such as "input_1:0", or null to find it by name
+     * @param outputName the name of the output tensor, or null to find it by name
+     * @return the ModelDescriptor for the model
+     * @throws IllegalArgumentException if a named tensor is not in the graph
+     */
+    private ModelDescriptor resolveDescriptor(Graph graph, String inputName, String outputName) {
+        Output<?> input = findOutput(graph, inputName != null ? inputName : findInputNodeName(graph));
+        Output<?> output = findOutput(graph, outputName != null ? outputName : findOutputNodeName(graph));
+
+        if (input == null || output == null) {
+            throw new IllegalArgumentException("The graph has no tensor named " + (input == null ? inputName : outputName));
+        }
+
+        return describe(input, output);
+    }
+
+    /**
+     * Builds the ModelDescriptor for the given input and output, reading the
+     * shapes and input type from the graph.
+     *
+     * @param input the graph output the input frame is fed into
+     * @param output the graph output that holds the class probabilities
+     * @return the ModelDescriptor for the model
+     */
+    private ModelDescriptor describe(Output<?> input, Output<?> output) {
+        long[] inputShape = DEFAULT_INPUT_SHAPE.clone();
+        Shape shape = input.shape();
+
+        if (shape.numDimensions() == inputShape.length) {
+            for (int i = 0; i < inputShape.length; i++) {
+                if (shape.size(i) > 0) {
+                    inputShape[i] = shape.size(i);
+                }
+            }
+        }
+
+        // A model that accepts any resolution is run at the requested one
+        if (requestedInputWidth > 0) {
+            boolean fixedSize = shape.numDimensions() == inputShape.length && (shape.size(1) > 0 || shape.size(2) > 0);
+
+            if (fixedSize && (shape.size(1) != requestedInputHeight || shape.size(2) != requestedInputWidth)) {
+                System.err.println("The model input is fixed at " + shape + "; ignoring the requested "
+                        + requestedInputWidth + "x" + requestedInputHeight);
+            }
+            else {
+                inputShape[1] = requestedInputHeight;
+                inputShape[2] = requestedInputWidth;
+            }
+        }
+
+        DataType inputType = input.dataType();
+
+        // The output shape is [batch_size, number_of_classes]; 0 if it is not known until run time
+        Shape outputShape = output.shape();
+        int classCount = outputShape.numDimensions() == 2 ? (int) Math.max(outputShape.size(1), 0) : 0;
+
+        return new ModelDescriptor(input, output, inputShape, inputType, classCount);
+    }
+
+    /**
+     * Returns the serving signature from the serialized MetaGraphDef. If there is no
+     * signature with the default name, the first signature is returned instead.
+     *
+     * @param metaGraphDef the serialized MetaGraphDef, or null if there is none
+     * @return the signature, or null if the model has no signatures
+     */
+    private SignatureDef findSignature(byte[] metaGraphDef) {
+        if (metaGraphDef == null) {
+            return null;
+        }
+
+        try {
+            MetaGraphDef metaGraph = MetaGraphDef.parseFrom(metaGraphDef);
+
+            if (metaGraph.containsSignatureDef(DEFAULT_SIGNATURE)) {
+                return metaGraph.getSignatureDefOrThrow(DEFAULT_SIGNATURE);
+            }
+
+            if (metaGraph.getSignatureDefCount() > 0) {
+                return metaGraph.getSignatureDefMap().values().iterator().next();
+            }
+        } catch (InvalidProtocolBufferException e) {
+            System.err.println("Failed to read the model signature");
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the graph output with the given tensor name, such as "input_1:0". A name
+     * without an index is the first output of the operation.
+     *
+     * @param graph the graph of the model
+     * @param tensorName the name of the tensor, such as one from the signature
+     * @return the graph output, or null if it is not in the graph
+     */
+    private Output<?> findOutput(Graph graph, String tensorName) {
+        String name = tensorName;
+        int index = 0;
+        int colon = name.lastIndexOf(':');
+
+        if (colon >= 0) {
+            index = Integer.parseInt(name.substring(colon + 1));
+            name = name.substring(0, colon);
+        }
+
+        Operation operation = graph.operation(name);
+        return operation != null ? operation.output(index) : null;
+    }
+
     /**
      * Returns the name of the input node in the TensorFlow model.
      *
      * @return The name of the input node.
      */
     public String getInputNodeName() {
+        return descriptor.getInputName();
+    }
+
+    /**
+     * Returns the name of the output node of the TensorFlow model.
+     *
+     * @return The name of the output node of the TensorFlow model.
+     */
+    public String getOutputNodeName() {
+        return descriptor.getOutputName();
+    }
+
+    /**
+     * Searches the graph for the name of the input node. The input node is the
+     * last operation in the graph that contains the string "input" in its name.
+     *
+     * @param graph the graph of the model
+     * @return The name of the input node.
+     */
+    private String findInputNodeName(Graph graph) {
         String inputNodeName = "";
 
-        Graph graph = bundle.graph();
         Iterator<Operation> operations = graph.operations();
 
         while (operations.hasNext()) {
@@ -85,16 +586,16 @@ public class ModelProcessor {
     }
 
     /**
-     * Returns the name of the output node of the TensorFlow model.
+     * Searches the graph for the name of the output node.
      * The output node is determined by finding the first operation in the graph that contains the string "input" in its name,
      * and then returning the name of the next operation in the graph.
      *
+     * @param graph the graph of the model
      * @return The name of the output node of the TensorFlow model.
      */
-    public String getOutputNodeName() {
+    private String findOutputNodeName(Graph graph) {
         String outputNodeName = "";
 
-        Graph graph = bundle.graph();
         Iterator<Operation> operations = graph.operations();
 
         while (operations.hasNext()) {
@@ -110,16 +611,38 @@ public class ModelProcessor {
     }
 
     /**
-     * Reads all the lines from the file specified by LABELS_PATH and stores them in the labels list.
+     * Reads all the lines from the labels file and stores them in the labels list. The labels
+     * file is the one in the system property unlock.labels, or labels.txt in the model directory
+     * (next to the file for a frozen graph).
      * Prints a success message and the labels list if the operation is successful.
      * Prints an error message and the stack trace if the operation fails.
      */
     public void loadLabels() {
+        String labelsPath = System.getProperty("unlock.labels");
+
+        if (labelsPath != null && !labelsPath.trim().isEmpty()) {
+            loadLabels(Paths.get(labelsPath.trim()));
+        }
+        else if (Files.isRegularFile(modelPath)) {
+            loadLabels(modelPath.resolveSibling(LABELS_FILE));
+        }
+        else {
+            loadLabels(modelPath.resolve(LABELS_FILE));
+        }
+    }
+
+    /**
+     * Reads all the lines from the given labels file and stores them in the labels list.
+     * Prints a success message and the labels list if the operation is successful.
+     * Prints an error message and the stack trace if the operation fails.
+     *
+     * @param labelsPath the path to the labels file, one label per line
+     */
+    public void loadLabels(Path labelsPath) {
         try {
-            // Read all the lines from the labels.txt file and returns them as a list of strings
-            // Paths.get() creates a Path object representing the path to the labels file
-            labels = Files.readAllLines(Paths.get(LABELS_PATH));
-            
+            // Read all the lines from the labels file and returns them as a list of strings
+            labels = Files.readAllLines(labelsPath);
+
             System.out.println("Labels loaded successfully");
             System.out.println("Labels: " + labels);
         } catch (IOException e) {
@@ -128,6 +651,24 @@ public class ModelProcessor {
         }
     }
 
+    /**
+     * Returns the SavedModel directory or frozen graph file the model is loaded from.
+     *
+     * @return the model path
+     */
+    public Path getModelPath() {
+        return modelPath;
+    }
+
+    /**
+     * Returns the graph of the loaded model.
+     *
+     * @return the graph, or null if no model has been loaded
+     */
+    public Graph getGraph() {
+        return graph;
+    }
+
     /**
      * Returns the current session object.
      *
@@ -137,6 +678,178 @@ public class ModelProcessor {
         return session;
     }
 
+    /**
+     * Returns the input and output of the model that were resolved when it was loaded.
+     *
+     * @return the ModelDescriptor for the model
+     */
+    public ModelDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Returns how frames are prepared before they are given to the model.
+     *
+     * @return the current PreprocessMode
+     */
+    public PreprocessMode getPreprocessMode() {
+        return preprocessMode;
+    }
+
+    /**
+     * Sets how frames are prepared before they are given to the model.
+     *
+     * @param preprocessMode the PreprocessMode to use
+     */
+    public void setPreprocessMode(PreprocessMode preprocessMode) {
+        this.preprocessMode = preprocessMode;
+    }
+
+    /**
+     * Returns the order the color channels are given to the model in.
+     *
+     * @return the current ChannelOrder
+     */
+    public ChannelOrder getChannelOrder() {
+        return channelOrder;
+    }
+
+    /**
+     * Sets the order the color channels are given to the model in. It defaults to RGB, the
+     * order the model was trained on; the system property unlock.model.channelOrder sets it
+     * for every ModelProcessor.
+     *
+     * @param channelOrder the ChannelOrder to use
+     */
+    public void setChannelOrder(ChannelOrder channelOrder) {
+        this.channelOrder = channelOrder;
+    }
+
+    /**
+     * Sets the resolution to run a model at if its graph accepts any resolution, such as a
+     * smaller-input variant exported for slower CPUs. Models with a fixed input size are run
+     * at that size. This must be called before the model is loaded; the system property
+     * unlock.model.inputSize ("160" or "160x120") sets it for every ModelProcessor.
+     *
+     * @param width the input width in pixels
+     * @param height the input height in pixels
+     */
+    public void setInputSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Input size must be positive: " + width + "x" + height);
+        }
+
+        requestedInputWidth = width;
+        requestedInputHeight = height;
+    }
+
+    /**
+     * Sets the resolution to run a model at if its graph accepts any resolution.
+     *
+     * @param size the size as "WIDTHxHEIGHT", or a single number for a square input
+     * @throws IllegalArgumentException if the size cannot be read
+     */
+    public void setInputSize(String size) {
+        String[] parts = size.trim().toLowerCase(Locale.ROOT).split("x");
+        int width = Integer.parseInt(parts[0].trim());
+        setInputSize(width, parts.length > 1 ? Integer.parseInt(parts[1].trim()) : width);
+    }
+
+    /**
+     * Sets how the 8-bit outputs of a fully quantized model map back to probabilities:
+     * probability = (value - zeroPoint) * scale. The default of 1/255 and 0 suits a softmax
+     * quantized onto [0, 255]; converters that quantize with a different range export their
+     * own scale and zero point, which the system properties unlock.model.outputScale and
+     * unlock.model.outputZeroPoint set for every ModelProcessor. Float outputs are not affected.
+     *
+     * @param scale the probability one quantized step stands for, greater than 0
+     * @param zeroPoint the quantized value that stands for a probability of 0, from 0 to 255
+     * @throws IllegalArgumentException if the scale or zero point is out of range
+     */
+    public void setOutputQuantization(float scale, int zeroPoint) {
+        if (!(scale > 0) || zeroPoint < 0 || zeroPoint > 255) {
+            throw new IllegalArgumentException("Invalid output quantization: scale " + scale
+                    + ", zero point " + zeroPoint);
+        }
+
+        outputScale = scale;
+        outputZeroPoint = zeroPoint;
+    }
+
+    /**
+     * Sets how the 8-bit outputs of a fully quantized model map back to probabilities.
+     *
+     * @param quantization the scale and zero point as "SCALE,ZERO_POINT", such as "0.00390625,0"
+     * @throws IllegalArgumentException if the value cannot be read
+     */
+    public void setOutputQuantization(String quantization) {
+        String[] parts = quantization.split(",");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Output quantization must be SCALE,ZERO_POINT: " + quantization);
+        }
+        setOutputQuantization(Float.parseFloat(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+    }
+
+    /**
+     * Returns the probability one step of a quantized output stands for.
+     *
+     * @return the output scale
+     */
+    public float getOutputScale() {
+        return outputScale;
+    }
+
+    /**
+     * Returns the quantized output value that stands for a probability of 0.
+     *
+     * @return the output zero point
+     */
+    public int getOutputZeroPoint() {
+        return outputZeroPoint;
+    }
+
+    /**
+     * Returns the part of each frame that is given to the model.
+     *
+     * @return the RegionOfInterest, or null if the whole frame is used
+     */
+    public RegionOfInterest getRegionOfInterest() {
+        return regionOfInterest;
+    }
+
+    /**
+     * Sets the part of each frame that is given to the model. The frame is cropped
+     * to the region before it is resized, so the hand fills more of the model input.
+     *
+     * @param regionOfInterest the RegionOfInterest to crop to, or null to use the whole frame
+     */
+    public void setRegionOfInterest(RegionOfInterest regionOfInterest) {
+        this.regionOfInterest = regionOfInterest;
+    }
+
+    /**
+     * Returns a view of the part of the frame inside the region of interest. The view shares
+     * the frame's pixels, so cropping copies nothing.
+     *
+     * @param frame The captured frame.
+     * @return The cropped view, which the caller frees with NativeResources.release, or the
+     *         frame itself if there is no region of interest.
+     */
+    private Mat cropFrame(Mat frame) {
+        RegionOfInterest roi = regionOfInterest;
+
+        if (roi == null) {
+            return frame;
+        }
+
+        Rect region = roi.locate(frame);
+        if (region.width == frame.cols() && region.height == frame.rows()) {
+            return frame;
+        }
+
+        return NativeResources.counted(frame.submat(region));
+    }
+
     /**
      * Returns a list of labels for the model.
      *
@@ -150,11 +863,11 @@ public class ModelProcessor {
      * Resizes the given Mat frame to the specified dimensions.
      *
      * @param frame The original Mat frame.
-     * @return The resized Mat frame.
+     * @return The resized Mat frame; the caller owns it and frees it with NativeResources.release.
      */
     public Mat resizeFrame(Mat frame) {
-        Mat resized = new Mat();
-        Imgproc.resize(frame, resized, new Size(224, 224)); // resize to 224x224
+        Mat resized = NativeResources.newMat();
+        Imgproc.resize(frame, resized, new Size(descriptor.getInputWidth(), descriptor.getInputHeight()));
         return resized;
     }
 
@@ -191,20 +904,313 @@ public class ModelProcessor {
      * @return The float array representing the reshaped frame.
      */
     public float[] prepareFrameForModel(Mat frame) {
-        Mat resizedFrame = resizeFrame(frame);
-        byte[] byteArray = matToByteArray(resizedFrame);
-        return byteArrayToFloatArray(byteArray);
+        try (FrameScope scope = new FrameScope()) {
+            Mat cropped = cropFrame(frame);
+            if (cropped != frame) {
+                scope.track(cropped);
+            }
+            Mat resizedFrame = scope.track(resizeFrame(cropped));
+            if (channelOrder == ChannelOrder.RGB) {
+                Imgproc.cvtColor(resizedFrame, resizedFrame, Imgproc.COLOR_BGR2RGB);
+            }
+            return byteArrayToFloatArray(matToByteArray(resizedFrame));
+        }
+    }
+
+    /**
+     * Prepares the Mat frame for model input using the reusable buffers of the given context.
+     * Nothing is allocated on the Java heap, so this is the path used for every camera frame.
+     *
+     * @param frame The Mat frame to prepare.
+     * @param context The PreprocessContext that owns the buffers to write into.
+     * @return The context's float buffer, filled with the normalized frame and ready to be read.
+     */
+    public FloatBuffer prepareFrameForModel(Mat frame, PreprocessContext context) {
+        Mat cropped = cropFrame(frame);
+
+        try {
+            if (preprocessMode == PreprocessMode.NATIVE) {
+                return prepareFrameNative(cropped, context);
+            }
+
+            return prepareFrameJava(cropped, context);
+        } finally {
+            // Only the header of a cropped view is released; the frame keeps its pixels
+            if (cropped != frame) {
+                NativeResources.release(cropped);
+            }
+        }
+    }
+
+    /**
+     * Prepares the frame by copying the resized pixels out of OpenCV and
+     * normalizing them one at a time in Java, in the configured channel order.
+     *
+     * @param frame The Mat frame to prepare.
+     * @param context The PreprocessContext that owns the buffers to write into.
+     * @return The context's float buffer, filled with the normalized frame and ready to be read.
+     */
+    private FloatBuffer prepareFrameJava(Mat frame, PreprocessContext context) {
+        Mat resized = context.getResized();
+        byte[] pixels = context.getPixels();
+        FloatBuffer floats = context.getFloats();
+
+        // Resize into the pooled Mat, which is only reallocated if its size or type changes
+        Imgproc.resize(frame, resized, context.getInputSize());
+        if (channelOrder == ChannelOrder.RGB) {
+            Imgproc.cvtColor(resized, resized, Imgproc.COLOR_BGR2RGB);
+        }
+        resized.get(0, 0, pixels);
+
+        floats.clear();
+        for (int i = 0; i < pixels.length; i++) {
+            floats.put(((pixels[i] & 0xFF) - 127.5f) / 127.5f); // normalization to [-1,1]
+        }
+        floats.flip();
+
+        return floats;
+    }
+
+    /**
+     * Prepares the frame entirely inside OpenCV. The frame is resized, converted from
+     * the BGR order OpenCV captures in to the RGB order the model was trained on, unless
+     * the channel order is BGR, and scaled to [-1,1] straight into the float Mat that
+     * shares memory with the tensor buffer.
+     *
+     * @param frame The Mat frame to prepare.
+     * @param context The PreprocessContext that owns the buffers to write into.
+     * @return The context's float buffer, filled with the normalized frame and ready to be read.
+     */
+    private FloatBuffer prepareFrameNative(Mat frame, PreprocessContext context) {
+        Mat resized = context.getResized();
+        FloatBuffer floats = context.getFloats();
+
+        Imgproc.resize(frame, resized, context.getInputSize());
+        if (channelOrder == ChannelOrder.RGB) {
+            Imgproc.cvtColor(resized, resized, Imgproc.COLOR_BGR2RGB);
+        }
+
+        // (x - 127.5) / 127.5 is the same as x / 127.5 - 1
+        resized.convertTo(context.getNormalized(), context.getNormalized().type(), 1 / 127.5, -1);
+
+        floats.clear();
+        return floats;
+    }
+
+    /**
+     * Prepares the frame for a quantized model: it is resized and converted to RGB, unless
+     * the channel order is BGR, straight into the byte Mat that shares memory with the
+     * tensor buffer. The 8-bit pixels are not normalized, since a quantized model maps them
+     * to its own input range itself.
+     *
+     * @param frame The Mat frame to prepare.
+     * @param context The PreprocessContext that owns the buffers to write into.
+     * @return The context's byte buffer, filled with the frame and ready to be read.
+     */
+    public ByteBuffer prepareFrameBytes(Mat frame, PreprocessContext context) {
+        Mat cropped = cropFrame(frame);
+
+        try {
+            if (channelOrder == ChannelOrder.RGB) {
+                Mat resized = context.getResized();
+                Imgproc.resize(cropped, resized, context.getInputSize());
+                Imgproc.cvtColor(resized, context.getRaw(), Imgproc.COLOR_BGR2RGB);
+            }
+            else {
+                // The raw Mat already has the input size and type, so resize writes into its buffer
+                Imgproc.resize(cropped, context.getRaw(), context.getInputSize());
+            }
+
+            ByteBuffer bytes = context.getBytes();
+            bytes.clear();
+            return bytes;
+        } finally {
+            if (cropped != frame) {
+                NativeResources.release(cropped);
+            }
+        }
+    }
+
+    /**
+     * Prepares the Mat frame and copies it into a new input Tensor of the type the model
+     * takes: normalized floats, or raw 8-bit pixels for a quantized model. The caller owns
+     * the returned Tensor and must close it with NativeResources.close once the prediction
+     * has been made.
+     *
+     * @param frame The Mat frame to prepare.
+     * @return A Tensor representing the input data.
+     */
+    public Tensor<?> createInput(Mat frame) {
+        return descriptor.isQuantized() ? createQuantizedInputTensor(frame) : createInputTensor(frame);
+    }
+
+    /**
+     * Prepares every frame and copies them into a single batched input Tensor of the type
+     * the model takes. The caller owns the returned Tensor and must close it with
+     * NativeResources.close.
+     *
+     * @param frames The Mat frames to prepare, in batch order.
+     * @return A Tensor representing the batched input data.
+     */
+    public Tensor<?> createBatchInput(List<Mat> frames) {
+        return descriptor.isQuantized() ? createQuantizedBatchTensor(frames) : createBatchTensor(frames);
+    }
+
+    /**
+     * Prepares the Mat frame for a quantized model and copies its 8-bit pixels into a new
+     * UINT8 input Tensor, with no float conversion. The caller owns the returned Tensor and
+     * must close it with NativeResources.close.
+     *
+     * @param frame The Mat frame to prepare.
+     * @return A Tensor representing the input data.
+     */
+    public Tensor<UInt8> createQuantizedInputTensor(Mat frame) {
+        PreprocessContext context = getPreprocessContext();
+        long start = METRICS.isEnabled() ? System.nanoTime() : 0;
+
+        ByteBuffer bytes = prepareFrameBytes(frame, context);
+        long prepared = start != 0 ? System.nanoTime() : 0;
+
+        Tensor<UInt8> tensor = NativeResources.counted(Tensor.create(UInt8.class, context.getTensorShape(), bytes));
+
+        if (start != 0) {
+            PREPROCESS_LATENCY.record(prepared - start);
+            TENSOR_LATENCY.record(System.nanoTime() - prepared);
+        }
+
+        return tensor;
+    }
+
+    /**
+     * Prepares every frame for a quantized model and copies them into a single batched
+     * UINT8 input Tensor. The caller owns the returned Tensor and must close it with
+     * NativeResources.close.
+     *
+     * @param frames The Mat frames to prepare, in batch order.
+     * @return A Tensor representing the batched input data.
+     */
+    public Tensor<UInt8> createQuantizedBatchTensor(List<Mat> frames) {
+        PreprocessContext context = getPreprocessContext();
+        ByteBuffer batch = context.getBatchBytes(frames.size());
+        long start = METRICS.isEnabled() ? System.nanoTime() : 0;
+
+        for (Mat frame : frames) {
+            batch.put(prepareFrameBytes(frame, context));
+        }
+        batch.flip();
+        long prepared = start != 0 ? System.nanoTime() : 0;
+
+        Tensor<UInt8> tensor = NativeResources.counted(
+                Tensor.create(UInt8.class, descriptor.getInputShape(frames.size()), batch));
+
+        if (start != 0) {
+            PREPROCESS_LATENCY.record(prepared - start);
+            TENSOR_LATENCY.record(System.nanoTime() - prepared);
+        }
+
+        return tensor;
+    }
+
+    /**
+     * Prepares the Mat frame and copies it into a new input Tensor. The caller owns the
+     * returned Tensor and must close it with NativeResources.close once the prediction has
+     * been made.
+     *
+     * @param frame The Mat frame to prepare.
+     * @return A Tensor representing the input data.
+     */
+    public Tensor<Float> createInputTensor(Mat frame) {
+        PreprocessContext context = getPreprocessContext();
+        long start = METRICS.isEnabled() ? System.nanoTime() : 0;
+
+        FloatBuffer floats = prepareFrameForModel(frame, context);
+        long prepared = start != 0 ? System.nanoTime() : 0;
+
+        Tensor<Float> tensor = NativeResources.counted(Tensor.create(context.getTensorShape(), floats));
+
+        if (start != 0) {
+            PREPROCESS_LATENCY.record(prepared - start);
+            TENSOR_LATENCY.record(System.nanoTime() - prepared);
+        }
+
+        return tensor;
+    }
+
+    /**
+     * Prepares every frame and copies them into a single batched input Tensor of shape
+     * [frames.size(), height, width, channels]. The caller owns the returned Tensor and
+     * must close it with NativeResources.close once the predictions have been made.
+     *
+     * @param frames The Mat frames to prepare, in batch order.
+     * @return A Tensor representing the batched input data.
+     */
+    public Tensor<Float> createBatchTensor(List<Mat> frames) {
+        PreprocessContext context = getPreprocessContext();
+        FloatBuffer batch = context.getBatchFloats(frames.size());
+        long start = METRICS.isEnabled() ? System.nanoTime() : 0;
+
+        for (Mat frame : frames) {
+            batch.put(prepareFrameForModel(frame, context));
+        }
+        batch.flip();
+        long prepared = start != 0 ? System.nanoTime() : 0;
+
+        Tensor<Float> tensor = NativeResources.counted(Tensor.create(descriptor.getInputShape(frames.size()), batch));
+
+        // The batch is recorded as one value, so the histograms count batches rather than frames here
+        if (start != 0) {
+            PREPROCESS_LATENCY.record(prepared - start);
+            TENSOR_LATENCY.record(System.nanoTime() - prepared);
+        }
+
+        return tensor;
+    }
+
+    /**
+     * Returns the PreprocessContext for the calling thread, creating it on first use. A
+     * context sized for a model that has since been replaced, or for another input size,
+     * is released and built again from the current descriptor.
+     *
+     * @return the PreprocessContext for the calling thread
+     */
+    public PreprocessContext getPreprocessContext() {
+        PreprocessContext context = preprocessContexts.get();
+        ModelDescriptor current = descriptor;
+
+        if (context == null || context.getDescriptor() != current) {
+            if (context != null) {
+                context.close();
+            }
+
+            context = new PreprocessContext(current);
+            preprocessContexts.set(context);
+        }
+
+        return context;
+    }
+
+    /**
+     * Releases the PreprocessContext of the calling thread, if it has one. Threads that
+     * make predictions should call this before they finish.
+     */
+    public void releasePreprocessContext() {
+        PreprocessContext context = preprocessContexts.get();
+
+        if (context != null) {
+            context.close();
+            preprocessContexts.remove();
+        }
     }
 
     /**
      * Converts the float array to a TensorFlow Tensor.
      *
      * @param floatArray The float array to convert.
-     * @return A Tensor representing the input data.
+     * @return A Tensor representing the input data; the caller closes it with NativeResources.close.
      */
     public Tensor<Float> floatArrayToTensor(float[] floatArray) {
-        long[] shape = {1, 224, 224, 3}; // assuming the model expects input shape as [batch_size, height, width, channels]
-        return Tensor.create(shape, FloatBuffer.wrap(floatArray));
+        long[] shape = descriptor.getInputShape(1); // [batch_size, height, width, channels]
+        return NativeResources.counted(Tensor.create(shape, FloatBuffer.wrap(floatArray)));
     }
 
 }
@@ -0,0 +1,231 @@
+package com.codedotorg.modelmanager;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+public class MotionGate {
+
+    /** The width and height of the thumbnail frames are compared at */
+    private static final Size THUMBNAIL_SIZE = new Size(32, 32);
+
+    /** The mean absolute difference in gray levels (0 to 255) below which a frame counts as unchanged */
+    private volatile double threshold;
+
+    /** The most frames in a row that may reuse a prediction before the model is run again */
+    private volatile int maxSkippedFrames;
+
+    /** The thumbnail of the last frame that went through the model */
+    private final Mat reference;
+
+    /** The thumbnail of the frame being checked */
+    private final Mat current;
+
+    /** Holds the frame while it is shrunk, before it is converted to gray */
+    private final Mat shrunk;
+
+    /** Holds the per-pixel difference between the thumbnails */
+    private final Mat difference;
+
+    /** Whether the thumbnails have been released, so releasing again does nothing */
+    private boolean released;
+
+    /** The prediction for the reference frame, or null if none has been made yet */
+    private Prediction lastPrediction;
+
+    /** The number of frames in a row that have reused the last prediction */
+    private int skippedInRow;
+
+    /** The difference measured for the last frame checked */
+    private double lastDifference;
+
+    /** The number of frames checked */
+    private long frames;
+
+    /** The number of frames that reused the last prediction */
+    private long skipped;
+
+    /**
+     * Constructs a new MotionGate.
+     *
+     * @param threshold the mean absolute gray level difference below which a frame counts as unchanged
+     * @param maxSkippedFrames the most frames in a row that may reuse a prediction, at least 0
+     */
+    public MotionGate(double threshold, int maxSkippedFrames) {
+        this.threshold = threshold;
+        this.maxSkippedFrames = Math.max(0, maxSkippedFrames);
+        this.reference = NativeResources.newMat();
+        this.current = NativeResources.newMat();
+        this.shrunk = NativeResources.newMat();
+        this.difference = NativeResources.newMat();
+    }
+
+    /**
+     * Constructs a new MotionGate configured by the system properties unlock.motion.threshold
+     * and unlock.motion.maxSkip (default 30). Motion gating is off unless the threshold is set.
+     *
+     * @return the configured MotionGate, or null if unlock.motion.threshold is not set
+     */
+    public static MotionGate fromSystemProperties() {
+        String threshold = System.getProperty("unlock.motion.threshold");
+
+        if (threshold == null) {
+            return null;
+        }
+
+        return new MotionGate(Double.parseDouble(threshold), Integer.getInteger("unlock.motion.maxSkip", 30));
+    }
+
+    /**
+     * Compares a 32x32 gray thumbnail of the frame with the thumbnail of the last frame
+     * that went through the model. If they differ by less than the threshold, the last
+     * prediction is returned so the model can be skipped. Otherwise the frame becomes the
+     * new reference and the caller should run the model and pass the result to setLastPrediction.
+     *
+     * @param frame the captured BGR frame
+     * @return the last Prediction if the frame has not changed, or null if the model should be run
+     */
+    public synchronized Prediction getUnchangedPrediction(Mat frame) {
+        frames++;
+
+        Imgproc.resize(frame, shrunk, THUMBNAIL_SIZE, 0, 0, Imgproc.INTER_AREA);
+        if (shrunk.channels() == 3) {
+            Imgproc.cvtColor(shrunk, current, Imgproc.COLOR_BGR2GRAY);
+        }
+        else {
+            shrunk.copyTo(current);
+        }
+
+        if (lastPrediction != null && !reference.empty() && skippedInRow < maxSkippedFrames) {
+            Core.absdiff(current, reference, difference);
+            lastDifference = Core.mean(difference).val[0];
+
+            if (lastDifference < threshold) {
+                skippedInRow++;
+                skipped++;
+                return lastPrediction;
+            }
+        }
+
+        current.copyTo(reference);
+        skippedInRow = 0;
+        return null;
+    }
+
+    /**
+     * Stores the prediction the model made for the reference frame.
+     *
+     * @param prediction the Prediction for the last frame that getUnchangedPrediction returned null for
+     */
+    public synchronized void setLastPrediction(Prediction prediction) {
+        lastPrediction = prediction;
+    }
+
+    /**
+     * Forgets the reference frame, so the next frame always goes through the model.
+     */
+    public synchronized void reset() {
+        lastPrediction = null;
+        skippedInRow = 0;
+        reference.release();
+    }
+
+    /**
+     * Returns the difference measured for the last frame checked, for tuning the threshold.
+     *
+     * @return the mean absolute gray level difference, from 0 to 255
+     */
+    public synchronized double getLastDifference() {
+        return lastDifference;
+    }
+
+    /**
+     * Returns the number of frames checked.
+     *
+     * @return the frame count
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of frames that reused the last prediction instead of running the model.
+     *
+     * @return the skipped frame count
+     */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Returns the fraction of frames that reused the last prediction.
+     *
+     * @return the skip rate from 0 to 1, or 0 if no frame has been checked
+     */
+    public synchronized double getSkipRate() {
+        return frames == 0 ? 0 : (double) skipped / frames;
+    }
+
+    /**
+     * Returns the difference below which a frame counts as unchanged.
+     *
+     * @return the threshold in gray levels
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the difference below which a frame counts as unchanged.
+     *
+     * @param threshold the threshold in gray levels, from 0 to 255
+     */
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the most frames in a row that may reuse a prediction.
+     *
+     * @return the maximum number of skipped frames in a row
+     */
+    public int getMaxSkippedFrames() {
+        return maxSkippedFrames;
+    }
+
+    /**
+     * Sets the most frames in a row that may reuse a prediction, so a slow change
+     * that never crosses the threshold in one step is still picked up.
+     *
+     * @param maxSkippedFrames the maximum number of skipped frames in a row, at least 0
+     */
+    public void setMaxSkippedFrames(int maxSkippedFrames) {
+        this.maxSkippedFrames = Math.max(0, maxSkippedFrames);
+    }
+
+    /**
+     * Releases the native memory of the thumbnails. Releasing them again does nothing.
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+
+        released = true;
+        NativeResources.release(reference);
+        NativeResources.release(current);
+        NativeResources.release(shrunk);
+        NativeResources.release(difference);
+    }
+
+    /**
+     * Returns a string representation of the MotionGate object.
+     *
+     * @return a string containing the threshold and skip counters
+     */
+    public synchronized String toString() {
+        return String.format("MotionGate: threshold=%.1f, frames=%d, skipped=%d, skipRate=%.3f",
+                threshold, frames, skipped, getSkipRate());
+    }
+}
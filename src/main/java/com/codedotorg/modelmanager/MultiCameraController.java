@@ -0,0 +1,204 @@
+package com.codedotorg.modelmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javafx.scene.image.ImageView;
+
+public class MultiCameraController {
+
+    /** How long an idle worker waits for a frame before checking whether it should stop */
+    private static final long POLL_MILLIS = 100;
+
+    /** The ModelManager every lane's frames are predicted with */
+    private final ModelManager model;
+
+    /** The lanes that are capturing, in the order they were added */
+    private final List<CameraController> lanes;
+
+    /** The lane the next worker looks at first, so every lane gets its turn */
+    private final AtomicInteger nextLane;
+
+    /** The threads running inference for every lane */
+    private final List<Thread> workers;
+
+    /** Woken whenever a lane has a new frame for inference */
+    private final Object frameReady;
+
+    /** Whether or not the workers are running */
+    private volatile boolean running;
+
+    /**
+     * Constructs a new MultiCameraController that predicts the frames of every lane on the
+     * given number of shared inference workers. Workers take frames from the lanes in turn,
+     * so a fast camera cannot starve a slow one, and each lane only keeps its latest frames.
+     *
+     * @param model the ModelManager shared by every lane
+     * @param workerCount the number of threads running inference, at least 1
+     */
+    public MultiCameraController(ModelManager model, int workerCount) {
+        this.model = model;
+        this.lanes = new CopyOnWriteArrayList<>();
+        this.nextLane = new AtomicInteger();
+        this.workers = new ArrayList<>();
+        this.frameReady = new Object();
+
+        running = true;
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            Thread worker = new Thread(this::runWorker, "multi-camera-inference-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Opens the given camera device as a new lane.
+     *
+     * @param device the index of the camera device
+     * @param imageView the ImageView to display the lane's frames, or null to run without display
+     * @return the CameraController of the lane, for its predictions, listeners and statistics
+     */
+    public CameraController addLane(int device, ImageView imageView) {
+        return addLane(new CameraFrameSource(device), imageView, new PipelineConfig());
+    }
+
+    /**
+     * Starts capturing from the given source as a new lane with its own capture and
+     * render threads and its own prediction state.
+     *
+     * @param source the FrameSource of the lane; it is closed when the lane stops
+     * @param imageView the ImageView to display the lane's frames, or null to run without display
+     * @param config the queue depths, drop policy and display mode of the lane; its worker count is not used
+     * @return the CameraController of the lane, for its predictions, listeners and statistics
+     */
+    public CameraController addLane(FrameSource source, ImageView imageView, PipelineConfig config) {
+        CameraController lane = new CameraController(config);
+        lanes.add(lane);
+        lane.startLane(source, imageView, this::signalFrameReady);
+        return lane;
+    }
+
+    /**
+     * Stops one lane. The other lanes and the shared workers keep running.
+     *
+     * @param lane the CameraController returned by addLane
+     */
+    public void stopLane(CameraController lane) {
+        lanes.remove(lane);
+        lane.stopCapture();
+    }
+
+    /**
+     * Returns the lanes that are capturing.
+     *
+     * @return the CameraController of each lane, in the order they were added
+     */
+    public List<CameraController> getLanes() {
+        return new ArrayList<>(lanes);
+    }
+
+    /**
+     * Stops every lane and the shared workers.
+     */
+    public void shutdown() {
+        for (CameraController lane : lanes) {
+            stopLane(lane);
+        }
+
+        running = false;
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Wakes an idle worker because a lane has a new frame.
+     */
+    private void signalFrameReady() {
+        synchronized (frameReady) {
+            frameReady.notify();
+        }
+    }
+
+    /**
+     * Takes frames from the lanes in turn and predicts them until the controller shuts down.
+     */
+    private void runWorker() {
+        try {
+            while (running) {
+                if (!predictNextFrame()) {
+                    synchronized (frameReady) {
+                        // Check again under the lock so a frame signalled just before waiting is not missed
+                        if (!hasWaitingFrame()) {
+                            frameReady.wait(POLL_MILLIS);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            model.releaseThreadResources();
+        }
+    }
+
+    /**
+     * Predicts one frame from the first lane with a waiting frame, starting after the lane
+     * that was served last.
+     *
+     * @return true if a frame was predicted, false if no lane had a frame
+     */
+    private boolean predictNextFrame() {
+        // A snapshot, so a lane stopped by another thread cannot shift the indexes mid-scan
+        CameraController[] current = lanes.toArray(new CameraController[0]);
+
+        for (int i = 0; i < current.length; i++) {
+            CameraController lane = current[Math.floorMod(nextLane.getAndIncrement(), current.length)];
+            CapturedFrame frame = lane.pollFrame();
+
+            if (frame != null) {
+                lane.predict(model, frame);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether any lane has a frame waiting for inference.
+     *
+     * @return true if a frame is waiting
+     */
+    private boolean hasWaitingFrame() {
+        for (CameraController lane : lanes) {
+            if (lane.getInferenceQueueSize() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the fps, drops and latency of every lane.
+     *
+     * @return a string with one line per lane
+     */
+    public String toString() {
+        StringBuilder summary = new StringBuilder("MultiCameraController: workers=" + workers.size()
+                + ", lanes=" + lanes.size());
+
+        for (CameraController lane : lanes) {
+            summary.append(System.lineSeparator()).append("  ").append(lane.getSourceName()).append(':');
+
+            for (StageStats stats : lane.getStageStats()) {
+                summary.append(' ').append(stats).append(';');
+            }
+
+            summary.append(" latency: ").append(lane.getLatency());
+        }
+
+        return summary.toString();
+    }
+}
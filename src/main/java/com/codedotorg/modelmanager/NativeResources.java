@@ -0,0 +1,203 @@
+package com.codedotorg.modelmanager;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opencv.core.Mat;
+import org.tensorflow.Tensor;
+
+public final class NativeResources {
+
+    /**
+     * The kinds of native object that are counted.
+     */
+    public enum Kind {
+        /** A CapturedFrame and the Mat it owns */
+        FRAME,
+        /** A Mat allocated through counted or newMat and freed through release */
+        MAT,
+        /** An input or output Tensor allocated through counted and freed through close */
+        TENSOR
+    }
+
+    /** Whether or not native objects are counted, from the system property unlock.leakCheck */
+    private static final boolean ENABLED = Boolean.getBoolean("unlock.leakCheck");
+
+    /** The number of objects of each kind that have been created and not yet released */
+    private static final LongAdder[] LIVE = new LongAdder[Kind.values().length];
+
+    /** The number of objects of each kind that have been created */
+    private static final LongAdder[] CREATED = new LongAdder[Kind.values().length];
+
+    static {
+        for (int i = 0; i < LIVE.length; i++) {
+            LIVE[i] = new LongAdder();
+            CREATED[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Not instantiated; the counts are shared by the whole process.
+     */
+    private NativeResources() {
+    }
+
+    /**
+     * Returns whether the leak check is on. It is off unless unlock.leakCheck is true, so
+     * the counting costs nothing in normal runs.
+     *
+     * @return true if native objects are counted
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Counts a native object as created. Every call must be matched by a call to released
+     * once the object's native memory has been freed.
+     *
+     * @param kind the kind of object
+     */
+    public static void created(Kind kind) {
+        if (ENABLED) {
+            LIVE[kind.ordinal()].increment();
+            CREATED[kind.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Counts a native object as released.
+     *
+     * @param kind the kind of object
+     */
+    public static void released(Kind kind) {
+        if (ENABLED) {
+            LIVE[kind.ordinal()].decrement();
+        }
+    }
+
+    /**
+     * Allocates an empty Mat and counts it as created. It must be freed with release.
+     *
+     * @return the new Mat
+     */
+    public static Mat newMat() {
+        return counted(new Mat());
+    }
+
+    /**
+     * Counts a Mat that has just been allocated, such as a new MatOfByte, a clone or a
+     * submat view. Call this right where the native object is created, so a Mat that is
+     * never freed stays counted; it must be freed with release.
+     *
+     * @param mat the newly allocated Mat
+     * @return the same Mat
+     */
+    public static <T extends Mat> T counted(T mat) {
+        created(Kind.MAT);
+        return mat;
+    }
+
+    /**
+     * Counts a Tensor that has just been created, such as an input built from a frame or
+     * an output fetched from a session run. It must be freed with close.
+     *
+     * @param tensor the newly created Tensor
+     * @return the same Tensor
+     */
+    public static <T> Tensor<T> counted(Tensor<T> tensor) {
+        created(Kind.TENSOR);
+        return tensor;
+    }
+
+    /**
+     * Frees the native memory of a Mat allocated through counted or newMat and counts it
+     * as released. Every counted Mat must be freed exactly once this way.
+     *
+     * @param mat the Mat to free
+     */
+    public static void release(Mat mat) {
+        mat.release();
+        released(Kind.MAT);
+    }
+
+    /**
+     * Closes a Tensor created through counted and counts it as released. Every counted
+     * Tensor must be closed exactly once this way.
+     *
+     * @param tensor the Tensor to close
+     */
+    public static void close(Tensor<?> tensor) {
+        tensor.close();
+        released(Kind.TENSOR);
+    }
+
+    /**
+     * Returns the number of objects of the given kind that have been created and not released.
+     *
+     * @param kind the kind of object
+     * @return the live count, or 0 if the leak check is off
+     */
+    public static long getLive(Kind kind) {
+        return LIVE[kind.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of objects of the given kind that have been created.
+     *
+     * @param kind the kind of object
+     * @return the created count, or 0 if the leak check is off
+     */
+    public static long getCreated(Kind kind) {
+        return CREATED[kind.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of live objects of every kind.
+     *
+     * @return the total live count, or 0 if the leak check is off
+     */
+    public static long getLiveTotal() {
+        long total = 0;
+        for (LongAdder live : LIVE) {
+            total += live.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Checks that every counted object has been released. Call this once the pipeline has
+     * stopped and its queues are drained, such as when a tool finishes or a benchmark trial
+     * is torn down; while frames are in flight some are rightly still live.
+     *
+     * @param when what has just finished, for the message
+     * @throws IllegalStateException if the leak check is on and an object is still live
+     */
+    public static void checkNoLeaks(String when) {
+        if (ENABLED && getLiveTotal() != 0) {
+            throw new IllegalStateException("Native objects leaked after " + when + ": " + describe());
+        }
+    }
+
+    /**
+     * Describes the live and created counts of every kind.
+     *
+     * @return a string such as "frames 0 live of 1200, mats 0 live of 40, tensors 0 live of 2400"
+     */
+    public static String describe() {
+        if (!ENABLED) {
+            return "leak check off (set unlock.leakCheck=true)";
+        }
+
+        StringBuilder description = new StringBuilder();
+        for (Kind kind : Kind.values()) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(kind.name().toLowerCase(Locale.ROOT)).append("s ")
+                    .append(getLive(kind)).append(" live of ").append(getCreated(kind));
+        }
+
+        return description.toString();
+    }
+}
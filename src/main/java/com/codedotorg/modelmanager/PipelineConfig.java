@@ -0,0 +1,122 @@
+package com.codedotorg.modelmanager;
+
+public class PipelineConfig {
+
+    /** The number of threads running inference */
+    private int inferenceWorkers;
+
+    /** How many captured frames may wait for inference */
+    private int inferenceQueueDepth;
+
+    /** How many captured frames may wait to be displayed */
+    private int renderQueueDepth;
+
+    /** What to do with a frame when a queue is full */
+    private DropPolicy dropPolicy;
+
+    /** Whether frames are written straight into the displayed image instead of PNG encoded */
+    private boolean directDisplay;
+
+    /**
+     * Constructs a new PipelineConfig with one inference worker, queues that hold
+     * only the latest frame, stale frames dropped in favour of new ones, and
+     * frames displayed without encoding them.
+     */
+    public PipelineConfig() {
+        inferenceWorkers = 1;
+        inferenceQueueDepth = 1;
+        renderQueueDepth = 1;
+        dropPolicy = DropPolicy.DROP_OLDEST;
+        directDisplay = true;
+    }
+
+    /**
+     * Returns the number of threads running inference.
+     *
+     * @return the number of inference workers
+     */
+    public int getInferenceWorkers() {
+        return inferenceWorkers;
+    }
+
+    /**
+     * Sets the number of threads running inference.
+     *
+     * @param inferenceWorkers the number of inference workers, at least 1
+     */
+    public void setInferenceWorkers(int inferenceWorkers) {
+        this.inferenceWorkers = Math.max(1, inferenceWorkers);
+    }
+
+    /**
+     * Returns how many captured frames may wait for inference.
+     *
+     * @return the inference queue depth
+     */
+    public int getInferenceQueueDepth() {
+        return inferenceQueueDepth;
+    }
+
+    /**
+     * Sets how many captured frames may wait for inference.
+     *
+     * @param inferenceQueueDepth the inference queue depth, at least 1
+     */
+    public void setInferenceQueueDepth(int inferenceQueueDepth) {
+        this.inferenceQueueDepth = Math.max(1, inferenceQueueDepth);
+    }
+
+    /**
+     * Returns how many captured frames may wait to be displayed.
+     *
+     * @return the render queue depth
+     */
+    public int getRenderQueueDepth() {
+        return renderQueueDepth;
+    }
+
+    /**
+     * Sets how many captured frames may wait to be displayed.
+     *
+     * @param renderQueueDepth the render queue depth, at least 1
+     */
+    public void setRenderQueueDepth(int renderQueueDepth) {
+        this.renderQueueDepth = Math.max(1, renderQueueDepth);
+    }
+
+    /**
+     * Returns what to do with a frame when a queue is full.
+     *
+     * @return the drop policy
+     */
+    public DropPolicy getDropPolicy() {
+        return dropPolicy;
+    }
+
+    /**
+     * Sets what to do with a frame when a queue is full.
+     *
+     * @param dropPolicy the drop policy
+     */
+    public void setDropPolicy(DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    /**
+     * Returns whether frames are written straight into the displayed image.
+     *
+     * @return true for direct pixel transfer, false to PNG encode each frame
+     */
+    public boolean isDirectDisplay() {
+        return directDisplay;
+    }
+
+    /**
+     * Sets whether frames are written straight into the displayed image.
+     *
+     * @param directDisplay true for direct pixel transfer, false to PNG encode each frame
+     */
+    public void setDirectDisplay(boolean directDisplay) {
+        this.directDisplay = directDisplay;
+    }
+}
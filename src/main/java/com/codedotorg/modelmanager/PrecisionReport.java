@@ -0,0 +1,382 @@
+package com.codedotorg.modelmanager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.opencv.core.Mat;
+import org.tensorflow.DataType;
+
+public class PrecisionReport {
+
+    /** How to run the report from the command line */
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: PrecisionReport [options] <image directory | video file>...",
+            "  --candidate <model>   a quantized or smaller-input model to compare with the float model; may be repeated",
+            "  --input-size <WxH>    the resolution to run the candidate that follows at, if it accepts any resolution",
+            "  --output-quantization <scale>,<zero point>",
+            "                        how the 8-bit outputs of the candidate that follows map to probabilities",
+            "                        (default: unlock.model.outputScale and unlock.model.outputZeroPoint, or 1/255,0)",
+            "  --frames <n>          stop after this many frames (default: all of them)",
+            "  --label <name>        the expected class of the video files that follow it",
+            "The float model is the one in unlock.model. Images are labelled by the name of their directory.");
+
+    /** The number of frames each model is run on before its latency is recorded */
+    private static final int WARM_UP_FRAMES = 3;
+
+    /** The float model the candidates are compared with, first, followed by the candidates */
+    private final List<Variant> variants;
+
+    /** The number of frames compared */
+    private long frames;
+
+    /**
+     * Constructs a new PrecisionReport comparing the candidates with the float model.
+     *
+     * @param baseline the float model, with its model and labels loaded
+     * @param candidates the quantized or smaller-input models, with their models and labels loaded
+     */
+    public PrecisionReport(ModelManager baseline, List<ModelManager> candidates) {
+        this.variants = new ArrayList<>();
+        variants.add(new Variant(baseline));
+
+        for (ModelManager candidate : candidates) {
+            if (!candidate.getModelProcessor().getLabels().equals(baseline.getModelProcessor().getLabels())) {
+                throw new IllegalArgumentException("Candidate " + candidate.getModelProcessor().getModelPath()
+                        + " has different labels from the float model");
+            }
+            variants.add(new Variant(candidate));
+        }
+
+        for (Variant variant : variants) {
+            for (int i = 0; i < WARM_UP_FRAMES; i++) {
+                variant.model.warmUp();
+            }
+        }
+    }
+
+    /**
+     * Runs every model on every frame of the source. The models take turns on each frame,
+     * so they all see the same frames under the same load, and each candidate is scored
+     * against both the expected class and the float model's answer.
+     *
+     * @param source the FrameSource to compare on; it is opened here and closed when it runs out
+     * @param label the expected class of every frame, or null to use the image directory names
+     * @param maxFrames stop after this many frames in total, or a negative number for no limit
+     * @return the number of frames compared from this source, or -1 if it could not be opened
+     */
+    public long compare(FrameSource source, String label, long maxFrames) {
+        if (!source.open()) {
+            System.err.println("Failed to open " + source.getName());
+            return -1;
+        }
+
+        ConfusionMatrix labels = variants.get(0).confusion;
+        Mat frame = new Mat();
+        long compared = 0;
+
+        try {
+            while ((maxFrames < 0 || frames < maxFrames) && source.read(frame)) {
+                String expected = label;
+                if (expected == null && source instanceof ImageDirectoryFrameSource) {
+                    Path parent = ((ImageDirectoryFrameSource) source).getCurrentPath().getParent();
+                    expected = parent != null ? parent.getFileName().toString() : null;
+                }
+
+                int expectedIndex = labels.indexOf(expected);
+                float[] reference = null;
+
+                for (Variant variant : variants) {
+                    float[] predictions = variant.predict(frame, expectedIndex);
+
+                    if (reference == null) {
+                        reference = predictions;
+                    }
+                    else {
+                        variant.compareWith(reference, predictions);
+                    }
+                }
+
+                frames++;
+                compared++;
+            }
+        } finally {
+            frame.release();
+            source.close();
+        }
+
+        return compared;
+    }
+
+    /**
+     * Returns the report as a table with a row per model: its input, latency, accuracy on the
+     * labelled frames, and how often it agrees with the float model's top class.
+     *
+     * @return the report table
+     */
+    public String toString() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("Compared %d frames%n", frames));
+        table.append(String.format("%-40s %-9s %-6s %-18s %8s %8s %8s %9s %10s %10s%n", "model", "input", "type",
+                "output", "p50 ms", "p99 ms", "speedup", "accuracy", "agreement", "mean |dp|"));
+
+        double baselineMedian = variants.get(0).latency.getPercentile(50);
+
+        for (Variant variant : variants) {
+            ModelDescriptor descriptor = variant.model.getModelProcessor().getDescriptor();
+            double median = variant.latency.getPercentile(50);
+            boolean isBaseline = variant == variants.get(0);
+
+            table.append(String.format(Locale.ROOT, "%-40s %-9s %-6s %-18s %8.2f %8.2f %7.2fx %9s %10s %10s%n",
+                    shorten(variant.model.getModelProcessor().getModelPath().toString(), 40),
+                    descriptor.getInputWidth() + "x" + descriptor.getInputHeight(),
+                    descriptor.isQuantized() ? "uint8" : "float",
+                    describeOutput(variant.model.getModelProcessor()),
+                    LatencyHistogram.toMillis(median),
+                    LatencyHistogram.toMillis(variant.latency.getPercentile(99)),
+                    median > 0 ? baselineMedian / median : 0,
+                    variant.confusion.getTotal() > 0 ? String.format(Locale.ROOT, "%.3f", variant.confusion.getAccuracy()) : "-",
+                    isBaseline ? "-" : String.format(Locale.ROOT, "%.3f", variant.getAgreement()),
+                    isBaseline ? "-" : String.format(Locale.ROOT, "%.4f", variant.getMeanDifference())));
+        }
+
+        return table.toString();
+    }
+
+    /**
+     * Describes the output type of the model and, for an 8-bit output, how it is dequantized,
+     * since a wrong scale or zero point shows up as poor agreement with the float model.
+     *
+     * @param processor the ModelProcessor of the model
+     * @return "float", or "uint8" with the scale and zero point such as "uint8 0.00392@0"
+     */
+    private static String describeOutput(ModelProcessor processor) {
+        if (processor.getDescriptor().getOutput().dataType() != DataType.UINT8) {
+            return "float";
+        }
+
+        return String.format(Locale.ROOT, "uint8 %.5f@%d", processor.getOutputScale(), processor.getOutputZeroPoint());
+    }
+
+    /**
+     * Shortens the text to the given width by keeping its end, which is the most telling
+     * part of a model path.
+     *
+     * @param text the text to shorten
+     * @param width the largest number of characters to keep
+     * @return the shortened text
+     */
+    private static String shorten(String text, int width) {
+        return text.length() <= width ? text : "..." + text.substring(text.length() - width + 3);
+    }
+
+    /**
+     * Compares the quantized or smaller-input models given on the command line with the
+     * float model on a recorded frame set, and prints the accuracy-versus-latency table.
+     *
+     * @param args the options and inputs, see USAGE
+     */
+    public static void main(String[] args) {
+        List<Path> candidatePaths = new ArrayList<>();
+        List<String> candidateSizes = new ArrayList<>();
+        List<String> candidateQuantizations = new ArrayList<>();
+        String inputSize = null;
+        String outputQuantization = null;
+        long maxFrames = -1;
+        String label = null;
+        List<String> inputs = new ArrayList<>();
+        List<String> inputLabels = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--candidate":
+                        candidatePaths.add(Paths.get(args[++i]));
+                        candidateSizes.add(inputSize);
+                        candidateQuantizations.add(outputQuantization);
+                        inputSize = null;
+                        outputQuantization = null;
+                        break;
+                    case "--input-size":
+                        inputSize = args[++i];
+                        break;
+                    case "--output-quantization":
+                        outputQuantization = args[++i];
+                        break;
+                    case "--frames":
+                        maxFrames = Long.parseLong(args[++i]);
+                        break;
+                    case "--label":
+                        label = args[++i];
+                        break;
+                    case "--help":
+                        System.out.println(USAGE);
+                        return;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        inputs.add(args[i]);
+                        inputLabels.add(label);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        if (candidatePaths.isEmpty() || inputs.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        nu.pattern.OpenCV.loadLocally();
+        ModelManager baseline = new ModelManager();
+        List<ModelManager> candidates = new ArrayList<>();
+
+        if (baseline.getModelProcessor().getSession() == null || baseline.getModelProcessor().getLabels() == null) {
+            System.err.println("The float model or labels could not be loaded");
+            System.exit(1);
+        }
+
+        for (int i = 0; i < candidatePaths.size(); i++) {
+            ModelProcessor processor = new ModelProcessor(candidatePaths.get(i));
+
+            if (candidateSizes.get(i) != null) {
+                processor.setInputSize(candidateSizes.get(i));
+            }
+
+            if (candidateQuantizations.get(i) != null) {
+                try {
+                    processor.setOutputQuantization(candidateQuantizations.get(i));
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.err.println(USAGE);
+                    System.exit(2);
+                }
+            }
+
+            processor.loadModel();
+            processor.loadLabels();
+
+            if (processor.getSession() == null || processor.getLabels() == null) {
+                System.err.println("The model or labels of " + candidatePaths.get(i) + " could not be loaded");
+                System.exit(1);
+            }
+
+            candidates.add(new ModelManager(processor));
+        }
+
+        PrecisionReport report = new PrecisionReport(baseline, candidates);
+
+        for (int i = 0; i < inputs.size(); i++) {
+            Path input = Paths.get(inputs.get(i));
+            FrameSource source = Files.isDirectory(input)
+                    ? new ImageDirectoryFrameSource(input)
+                    : new VideoFileFrameSource(input.toString());
+
+            report.compare(source, inputLabels.get(i), maxFrames);
+        }
+
+        System.out.print(report);
+    }
+
+    /**
+     * One model in the report and what has been measured for it.
+     */
+    private static final class Variant {
+
+        /** The model being measured */
+        private final ModelManager model;
+
+        /** The time to preprocess each frame and run the model */
+        private final LatencyHistogram latency;
+
+        /** The predictions of the labelled frames against their class */
+        private final ConfusionMatrix confusion;
+
+        /** The number of frames whose top class matched the float model's */
+        private long agreements;
+
+        /** The number of frames compared with the float model */
+        private long comparisons;
+
+        /** The sum over the compared frames of the mean absolute probability difference */
+        private double differenceSum;
+
+        /**
+         * Constructs a new Variant for the given model.
+         *
+         * @param model the model to measure
+         */
+        private Variant(ModelManager model) {
+            this.model = model;
+            this.latency = new LatencyHistogram();
+            this.confusion = new ConfusionMatrix(model.getModelProcessor().getLabels());
+        }
+
+        /**
+         * Runs the model on the frame, recording its latency and, if the class is known,
+         * whether it was right.
+         *
+         * @param frame the frame to predict
+         * @param expected the index of the expected label, or -1 if it is not known
+         * @return the predicted class probabilities
+         */
+        private float[] predict(Mat frame, int expected) {
+            ModelPredictor predictor = model.getModelPredictor();
+
+            long start = System.nanoTime();
+            float[] predictions = predictor.processAndPredict(frame);
+            latency.record(System.nanoTime() - start);
+
+            confusion.record(expected, predictor.createPrediction(predictions));
+            return predictions;
+        }
+
+        /**
+         * Compares the model's probabilities for a frame with the float model's.
+         *
+         * @param reference the float model's probabilities
+         * @param predictions this model's probabilities
+         */
+        private void compareWith(float[] reference, float[] predictions) {
+            ModelPredictor predictor = model.getModelPredictor();
+
+            if (predictor.getIndexOfMaxValue(reference) == predictor.getIndexOfMaxValue(predictions)) {
+                agreements++;
+            }
+
+            double difference = 0;
+            for (int i = 0; i < reference.length; i++) {
+                difference += Math.abs(reference[i] - predictions[i]);
+            }
+
+            differenceSum += difference / reference.length;
+            comparisons++;
+        }
+
+        /**
+         * Returns how often the model's top class matched the float model's.
+         *
+         * @return the fraction of frames that agreed, or 0 if none were compared
+         */
+        private double getAgreement() {
+            return comparisons > 0 ? (double) agreements / comparisons : 0;
+        }
+
+        /**
+         * Returns the average over the frames of the mean absolute difference between the
+         * model's probabilities and the float model's.
+         *
+         * @return the mean probability difference, or 0 if no frames were compared
+         */
+        private double getMeanDifference() {
+            return comparisons > 0 ? differenceSum / comparisons : 0;
+        }
+    }
+}
@@ -2,12 +2,27 @@ package com.codedotorg.modelmanager;
 
 public class Prediction {
 
+    /** The class name reported when no class is confident enough */
+    public static final String UNCERTAIN = "uncertain";
+
     /** The name of the predicted class */
     private final String className;
 
     /** The confidence score of the prediction */
     private final float confidence;
 
+    /** The probability of every class, in label order */
+    private final float[] probabilities;
+
+    /** The sequence number of the frame the prediction was made for, or 0 if unknown */
+    private final long sequence;
+
+    /** When the frame was captured, from System.nanoTime(), or 0 if unknown */
+    private final long timestamp;
+
+    /** How consistently the predicted class has been the top class over recent frames, from 0 to 1 */
+    private final float stability;
+
     /**
      * Constructs a Prediction object with the given class name and confidence value.
      * 
@@ -15,8 +30,73 @@ public class Prediction {
      * @param confidence the confidence value of the prediction
      */
     public Prediction(String className, float confidence) {
+        this(className, confidence, new float[0], 0, 0);
+    }
+
+    /**
+     * Constructs a Prediction object with the given class name, confidence value and class probabilities.
+     *
+     * @param className the name of the predicted class
+     * @param confidence the confidence value of the prediction
+     * @param probabilities the probability of every class, in label order
+     */
+    public Prediction(String className, float confidence, float[] probabilities) {
+        this(className, confidence, probabilities, 0, 0);
+    }
+
+    /**
+     * Constructs a Prediction object for a specific frame.
+     *
+     * @param className the name of the predicted class
+     * @param confidence the confidence value of the prediction
+     * @param probabilities the probability of every class, in label order
+     * @param sequence the sequence number of the frame
+     * @param timestamp when the frame was captured, from System.nanoTime()
+     */
+    public Prediction(String className, float confidence, float[] probabilities, long sequence, long timestamp) {
+        this(className, confidence, probabilities, sequence, timestamp, 1);
+    }
+
+    /**
+     * Constructs a Prediction object for a specific frame that has been smoothed over recent frames.
+     *
+     * @param className the name of the predicted class
+     * @param confidence the confidence value of the prediction
+     * @param probabilities the probability of every class, in label order
+     * @param sequence the sequence number of the frame
+     * @param timestamp when the frame was captured, from System.nanoTime()
+     * @param stability how consistently the class has been the top class over recent frames, from 0 to 1
+     */
+    public Prediction(String className, float confidence, float[] probabilities, long sequence, long timestamp,
+            float stability) {
         this.className = className;
         this.confidence = confidence;
+        this.probabilities = probabilities.clone();
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.stability = stability;
+    }
+
+    /**
+     * Returns a copy of this Prediction tied to the given frame.
+     *
+     * @param frame the frame the prediction was made for
+     * @return the Prediction with the frame's sequence number and timestamp
+     */
+    public Prediction forFrame(CapturedFrame frame) {
+        return forFrame(frame.getSequence(), frame.getTimestamp());
+    }
+
+    /**
+     * Returns a copy of this prediction for the frame with the given sequence number and
+     * capture time, for callers that read frames without wrapping them in a CapturedFrame.
+     *
+     * @param sequence the position of the frame in the capture order
+     * @param timestamp when the frame was captured, from System.nanoTime()
+     * @return the prediction for that frame
+     */
+    public Prediction forFrame(long sequence, long timestamp) {
+        return new Prediction(className, confidence, probabilities, sequence, timestamp, stability);
     }
 
     /**
@@ -28,6 +108,15 @@ public class Prediction {
         return className;
     }
 
+    /**
+     * Returns whether no class was confident enough to be reported.
+     *
+     * @return true if the class name is UNCERTAIN
+     */
+    public boolean isUncertain() {
+        return UNCERTAIN.equals(className);
+    }
+
     /**
      * Returns the confidence level of the prediction.
      * 
@@ -37,6 +126,62 @@ public class Prediction {
         return confidence;
     }
 
+    /**
+     * Returns a copy of the probability of every class, in label order.
+     *
+     * @return the class probabilities
+     */
+    public float[] getProbabilities() {
+        return probabilities.clone();
+    }
+
+    /**
+     * Returns the probability of the class at the given index.
+     *
+     * @param index the index of the class in label order
+     * @return the probability of the class
+     */
+    public float getProbability(int index) {
+        return probabilities[index];
+    }
+
+    /**
+     * Returns the number of classes with a probability.
+     *
+     * @return the number of classes
+     */
+    public int getClassCount() {
+        return probabilities.length;
+    }
+
+    /**
+     * Returns the sequence number of the frame the prediction was made for.
+     *
+     * @return the frame sequence number, or 0 if unknown
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns when the frame the prediction was made for was captured.
+     *
+     * @return the capture time from System.nanoTime(), or 0 if unknown
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns how consistently the predicted class has been the top class over recent frames.
+     * A prediction from a single frame always has a stability of 1.
+     *
+     * @return the stability from 0 to 1
+     */
+    public float getStability() {
+        return stability;
+    }
+
     /**
      * Returns a string representation of the Prediction object.
      * 
@@ -0,0 +1,215 @@
+package com.codedotorg.modelmanager;
+
+import java.util.List;
+import java.util.Locale;
+
+public class PredictionSmoother {
+
+    /** The class labels, in the same order as the probabilities */
+    private final List<String> labels;
+
+    /** The number of classes */
+    private final int classCount;
+
+    /** How the probabilities are combined across frames */
+    private final SmoothingMethod method;
+
+    /** The number of recent frames that are combined */
+    private final int windowSize;
+
+    /** The weight of the newest frame in the exponential moving average */
+    private final float alpha;
+
+    /** The probabilities of the last windowSize frames, one row of classCount values per frame */
+    private final float[] window;
+
+    /** The top class of each frame in the window */
+    private final int[] topClasses;
+
+    /** The sum of each class's probability over the window, or its moving average for EMA */
+    private final float[] totals;
+
+    /** The number of frames in the window where each class was the top class */
+    private final int[] votes;
+
+    /** The smoothed probabilities of the newest frame, reused since Prediction keeps its own copy */
+    private final float[] smoothed;
+
+    /** Decides whether the smoothed top class is confident enough to report, or null to always report it */
+    private volatile ConfidenceGate confidenceGate;
+
+    /** The row of the window the next frame is written to */
+    private int next;
+
+    /** The number of frames in the window so far */
+    private int filled;
+
+    /**
+     * Constructs a new PredictionSmoother. For EMA, the newest frame is weighted so
+     * the average has about the same memory as a window of the given size.
+     *
+     * @param labels the class labels, in the same order as the probabilities
+     * @param method how the probabilities are combined across frames
+     * @param windowSize the number of recent frames that are combined, at least 1
+     */
+    public PredictionSmoother(List<String> labels, SmoothingMethod method, int windowSize) {
+        this.labels = labels;
+        this.classCount = labels.size();
+        this.method = method;
+        this.windowSize = Math.max(1, windowSize);
+        this.alpha = 2f / (this.windowSize + 1);
+        this.window = new float[this.windowSize * classCount];
+        this.topClasses = new int[this.windowSize];
+        this.totals = new float[classCount];
+        this.votes = new int[classCount];
+        this.smoothed = new float[classCount];
+        reset();
+    }
+
+    /**
+     * Constructs a new PredictionSmoother configured by the system properties
+     * unlock.smoothing (none, ema, window_mean or majority_vote; default ema)
+     * and unlock.smoothing.window (default 5).
+     *
+     * @param labels the class labels, in the same order as the probabilities
+     * @return the configured PredictionSmoother
+     */
+    public static PredictionSmoother fromSystemProperties(List<String> labels) {
+        SmoothingMethod method = SmoothingMethod.valueOf(
+                System.getProperty("unlock.smoothing", "ema").trim().toUpperCase(Locale.ROOT));
+        int windowSize = Integer.getInteger("unlock.smoothing.window", 5);
+        return new PredictionSmoother(labels, method, windowSize);
+    }
+
+    /**
+     * Adds the prediction for the next frame and returns the smoothed prediction. The
+     * smoothed prediction keeps the frame's sequence number and timestamp, and reports
+     * as its stability the share of frames in the window whose top class matches it.
+     * Apart from the returned Prediction and the copy of the probabilities it keeps,
+     * nothing is allocated.
+     *
+     * @param prediction the prediction for the next frame
+     * @return the smoothed prediction
+     */
+    public synchronized Prediction smooth(Prediction prediction) {
+        if (method == SmoothingMethod.NONE || prediction.getClassCount() != classCount) {
+            return prediction;
+        }
+
+        int row = next * classCount;
+        boolean full = filled == windowSize;
+        int top = 0;
+
+        // Take the oldest frame out of the running totals before it is overwritten
+        if (full) {
+            votes[topClasses[next]]--;
+
+            if (method == SmoothingMethod.WINDOW_MEAN) {
+                for (int i = 0; i < classCount; i++) {
+                    totals[i] -= window[row + i];
+                }
+            }
+        }
+
+        for (int i = 0; i < classCount; i++) {
+            float probability = prediction.getProbability(i);
+            window[row + i] = probability;
+
+            if (probability > window[row + top]) {
+                top = i;
+            }
+
+            if (method == SmoothingMethod.EMA) {
+                totals[i] = filled == 0 ? probability : totals[i] + alpha * (probability - totals[i]);
+            }
+            else if (method == SmoothingMethod.WINDOW_MEAN) {
+                totals[i] += probability;
+            }
+        }
+
+        topClasses[next] = top;
+        votes[top]++;
+        next = (next + 1) % windowSize;
+        if (!full) {
+            filled++;
+        }
+
+        return buildPrediction(prediction);
+    }
+
+    /**
+     * Builds the smoothed prediction from the current state of the window.
+     *
+     * @param prediction the prediction for the newest frame
+     * @return the smoothed prediction
+     */
+    private Prediction buildPrediction(Prediction prediction) {
+        int best = 0;
+
+        for (int i = 0; i < classCount; i++) {
+            if (method == SmoothingMethod.MAJORITY_VOTE) {
+                smoothed[i] = (float) votes[i] / filled;
+            }
+            else if (method == SmoothingMethod.WINDOW_MEAN) {
+                smoothed[i] = totals[i] / filled;
+            }
+            else {
+                smoothed[i] = totals[i];
+            }
+
+            if (smoothed[i] > smoothed[best]) {
+                best = i;
+            }
+        }
+
+        float stability = (float) votes[best] / filled;
+
+        ConfidenceGate gate = confidenceGate;
+        String className = gate == null || gate.isConfident(smoothed) ? labels.get(best) : Prediction.UNCERTAIN;
+
+        return new Prediction(className, smoothed[best], smoothed,
+                prediction.getSequence(), prediction.getTimestamp(), stability);
+    }
+
+    /**
+     * Forgets every frame in the window.
+     */
+    public synchronized void reset() {
+        next = 0;
+        filled = 0;
+
+        for (int i = 0; i < classCount; i++) {
+            totals[i] = 0;
+            votes[i] = 0;
+        }
+    }
+
+    /**
+     * Sets the gate that decides whether the smoothed top class is confident enough to report.
+     * Usually the same gate as the ModelPredictor's, so smoothed and single-frame predictions
+     * follow the same rules.
+     *
+     * @param confidenceGate the ConfidenceGate to use, or null to always report the top class
+     */
+    public void setConfidenceGate(ConfidenceGate confidenceGate) {
+        this.confidenceGate = confidenceGate;
+    }
+
+    /**
+     * Returns how the probabilities are combined across frames.
+     *
+     * @return the smoothing method
+     */
+    public SmoothingMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the number of recent frames that are combined.
+     *
+     * @return the window size
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+}
@@ -0,0 +1,212 @@
+package com.codedotorg.modelmanager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+public final class PreprocessContext implements AutoCloseable {
+
+    /** The descriptor of the model the buffers are sized for */
+    private final ModelDescriptor descriptor;
+
+    /** Holds the frame after it has been resized to the model input size */
+    private final Mat resized;
+
+    /** The size the frame is resized to */
+    private final Size inputSize;
+
+    /** Holds the raw pixel values of the resized frame */
+    private final byte[] pixels;
+
+    /** Holds the normalized pixel values in native memory so TensorFlow can copy them directly */
+    private final FloatBuffer floats;
+
+    /** A float Mat that shares its memory with the float buffer, so OpenCV can write into it directly */
+    private final Mat normalized;
+
+    /** The shape of the input tensor for a single frame */
+    private final long[] tensorShape;
+
+    /** Holds the raw pixels in native memory for a quantized model, or null for a float model */
+    private final ByteBuffer bytes;
+
+    /** A byte Mat that shares its memory with the byte buffer, or null for a float model */
+    private final Mat raw;
+
+    /** Holds a whole batch of normalized frames; grown when a larger batch arrives */
+    private FloatBuffer batchFloats;
+
+    /** Holds a whole batch of raw frames for a quantized model; grown when a larger batch arrives */
+    private ByteBuffer batchBytes;
+
+    /**
+     * Constructs a new PreprocessContext sized for the input of the given model.
+     * All buffers are allocated once here and reused for every frame.
+     *
+     * @param descriptor the descriptor of the model the frames are prepared for
+     */
+    public PreprocessContext(ModelDescriptor descriptor) {
+        int inputSize = descriptor.getInputSize();
+
+        this.descriptor = descriptor;
+        this.resized = new Mat();
+        this.inputSize = new Size(descriptor.getInputWidth(), descriptor.getInputHeight());
+        this.pixels = new byte[inputSize];
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(inputSize * Float.BYTES).order(ByteOrder.nativeOrder());
+        this.floats = buffer.asFloatBuffer();
+        this.normalized = new Mat(descriptor.getInputHeight(), descriptor.getInputWidth(),
+                CvType.CV_32FC(descriptor.getInputChannels()), buffer);
+        this.tensorShape = descriptor.getInputShape(1);
+
+        // A quantized model takes the 8-bit pixels as they are, so they go straight into a byte buffer
+        if (descriptor.isQuantized()) {
+            this.bytes = ByteBuffer.allocateDirect(inputSize);
+            this.raw = new Mat(descriptor.getInputHeight(), descriptor.getInputWidth(),
+                    CvType.CV_8UC(descriptor.getInputChannels()), bytes);
+        }
+        else {
+            this.bytes = null;
+            this.raw = null;
+        }
+    }
+
+    /**
+     * Returns the descriptor of the model the buffers are sized for.
+     *
+     * @return the ModelDescriptor the context was built from
+     */
+    public ModelDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Returns the reusable Mat that holds the resized frame.
+     *
+     * @return the resized Mat
+     */
+    public Mat getResized() {
+        return resized;
+    }
+
+    /**
+     * Returns the size frames are resized to.
+     *
+     * @return the model input size
+     */
+    public Size getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * Returns the reusable array that holds the raw pixel values.
+     *
+     * @return the pixel array
+     */
+    public byte[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Returns the reusable direct buffer that holds the normalized pixel values.
+     *
+     * @return the float buffer
+     */
+    public FloatBuffer getFloats() {
+        return floats;
+    }
+
+    /**
+     * Returns the float Mat that shares its memory with the float buffer.
+     * Anything OpenCV writes into this Mat can be read from the float buffer.
+     *
+     * @return the normalized Mat
+     */
+    public Mat getNormalized() {
+        return normalized;
+    }
+
+    /**
+     * Returns the reusable direct buffer that holds the raw pixels for a quantized model.
+     *
+     * @return the byte buffer, or null if the model is not quantized
+     */
+    public ByteBuffer getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the byte Mat that shares its memory with the byte buffer.
+     * Anything OpenCV writes into this Mat can be read from the byte buffer.
+     *
+     * @return the raw Mat, or null if the model is not quantized
+     */
+    public Mat getRaw() {
+        return raw;
+    }
+
+    /**
+     * Returns a cleared direct buffer large enough for the given number of raw frames.
+     * The buffer is reused for every batch and only reallocated when a larger batch arrives.
+     *
+     * @param batchSize the number of frames in the batch
+     * @return the batch buffer, limited to exactly batchSize frames
+     */
+    public ByteBuffer getBatchBytes(int batchSize) {
+        int size = batchSize * pixels.length;
+
+        if (batchBytes == null || batchBytes.capacity() < size) {
+            batchBytes = ByteBuffer.allocateDirect(size);
+        }
+
+        batchBytes.clear();
+        batchBytes.limit(size);
+        return batchBytes;
+    }
+
+    /**
+     * Returns a cleared direct buffer large enough for the given number of frames.
+     * The buffer is reused for every batch and only reallocated when a larger batch arrives.
+     *
+     * @param batchSize the number of frames in the batch
+     * @return the batch buffer, limited to exactly batchSize frames
+     */
+    public FloatBuffer getBatchFloats(int batchSize) {
+        int size = batchSize * pixels.length;
+
+        if (batchFloats == null || batchFloats.capacity() < size) {
+            batchFloats = ByteBuffer.allocateDirect(size * Float.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+
+        batchFloats.clear();
+        batchFloats.limit(size);
+        return batchFloats;
+    }
+
+    /**
+     * Returns the shape of the input tensor for a single frame.
+     *
+     * @return the tensor shape as [1, height, width, channels]
+     */
+    public long[] getTensorShape() {
+        return tensorShape;
+    }
+
+    /**
+     * Releases the native memory held by the resized, normalized and raw Mats.
+     */
+    public void close() {
+        resized.release();
+        normalized.release();
+
+        if (raw != null) {
+            raw.release();
+        }
+    }
+}
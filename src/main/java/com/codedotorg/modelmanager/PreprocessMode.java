@@ -0,0 +1,10 @@
+package com.codedotorg.modelmanager;
+
+public enum PreprocessMode {
+
+    /** Copies the resized frame into a byte array and normalizes it one value at a time in Java */
+    JAVA,
+
+    /** Resizes, converts BGR to RGB and normalizes inside OpenCV, writing straight into the tensor buffer */
+    NATIVE
+}
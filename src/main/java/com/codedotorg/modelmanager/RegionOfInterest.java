@@ -0,0 +1,203 @@
+package com.codedotorg.modelmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+public class RegionOfInterest {
+
+    /** The width frames are shrunk to before looking for the hand */
+    private static final int DETECTION_WIDTH = 160;
+
+    /** The lower bound of skin tones in YCrCb */
+    private static final Scalar SKIN_LOWER = new Scalar(0, 133, 77);
+
+    /** The upper bound of skin tones in YCrCb */
+    private static final Scalar SKIN_UPPER = new Scalar(255, 173, 127);
+
+    /** The smallest fraction of the frame the hand must cover to be cropped to */
+    private static final double MIN_AREA_FRACTION = 0.02;
+
+    /** The fixed region to crop to, or null to find the hand in each frame */
+    private final Rect fixedRegion;
+
+    /** How much the found hand region is grown on each side, as a fraction of its size */
+    private final double padding;
+
+    /**
+     * Constructs a new RegionOfInterest.
+     *
+     * @param fixedRegion the fixed region to crop to, or null to find the hand in each frame
+     * @param padding how much a found hand region is grown on each side
+     */
+    private RegionOfInterest(Rect fixedRegion, double padding) {
+        this.fixedRegion = fixedRegion;
+        this.padding = padding;
+    }
+
+    /**
+     * Returns a RegionOfInterest that always crops to the given rectangle.
+     *
+     * @param x the left edge of the region in pixels
+     * @param y the top edge of the region in pixels
+     * @param width the width of the region in pixels
+     * @param height the height of the region in pixels
+     * @return the fixed RegionOfInterest
+     */
+    public static RegionOfInterest fixed(int x, int y, int width, int height) {
+        return new RegionOfInterest(new Rect(x, y, width, height), 0);
+    }
+
+    /**
+     * Returns a RegionOfInterest that finds the largest skin coloured area in each frame
+     * and crops to a square around it, grown by the given padding on each side.
+     *
+     * @param padding how much the hand region is grown on each side, as a fraction of its size
+     * @return the auto-detecting RegionOfInterest
+     */
+    public static RegionOfInterest autoDetect(double padding) {
+        return new RegionOfInterest(null, Math.max(0, padding));
+    }
+
+    /**
+     * Constructs a RegionOfInterest configured by the system property unlock.roi, which is
+     * either "auto" to find the hand in each frame or "x,y,width,height" for a fixed region.
+     *
+     * @return the configured RegionOfInterest, or null if unlock.roi is not set
+     */
+    public static RegionOfInterest fromSystemProperties() {
+        String roi = System.getProperty("unlock.roi");
+
+        if (roi == null || roi.trim().isEmpty()) {
+            return null;
+        }
+
+        if (roi.trim().equalsIgnoreCase("auto")) {
+            return autoDetect(0.2);
+        }
+
+        String[] parts = roi.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("unlock.roi must be \"auto\" or \"x,y,width,height\": " + roi);
+        }
+
+        return fixed(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+    }
+
+    /**
+     * Returns whether the region is found in each frame instead of being fixed.
+     *
+     * @return true if the hand is detected in each frame
+     */
+    public boolean isAutoDetect() {
+        return fixedRegion == null;
+    }
+
+    /**
+     * Returns the region of the frame to give to the model, clipped to the frame.
+     *
+     * @param frame the captured BGR frame
+     * @return the region to crop to, or the whole frame if no region applies
+     */
+    public Rect locate(Mat frame) {
+        Rect whole = new Rect(0, 0, frame.cols(), frame.rows());
+        Rect region = fixedRegion != null ? fixedRegion : detectHand(frame);
+        return region != null ? clip(region, whole) : whole;
+    }
+
+    /**
+     * Finds the largest skin coloured area on a shrunk copy of the frame and returns a
+     * padded square around it in the coordinates of the full frame.
+     *
+     * @param frame the captured BGR frame
+     * @return the hand region, or null if no large enough area was found
+     */
+    private Rect detectHand(Mat frame) {
+        double scale = (double) frame.cols() / DETECTION_WIDTH;
+        Mat small = new Mat();
+        Mat mask = new Mat();
+        Mat hierarchy = new Mat();
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
+        List<MatOfPoint> contours = new ArrayList<>();
+
+        try {
+            Imgproc.resize(frame, small, new Size(DETECTION_WIDTH, Math.max(1, Math.round(frame.rows() / scale))),
+                    0, 0, Imgproc.INTER_AREA);
+            Imgproc.cvtColor(small, small, Imgproc.COLOR_BGR2YCrCb);
+            Core.inRange(small, SKIN_LOWER, SKIN_UPPER, mask);
+
+            // Remove specks so the largest contour is the hand rather than noise
+            Imgproc.morphologyEx(mask, mask, Imgproc.MORPH_OPEN, kernel);
+            Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+
+            MatOfPoint largest = null;
+            double largestArea = MIN_AREA_FRACTION * mask.total();
+            for (MatOfPoint contour : contours) {
+                double area = Imgproc.contourArea(contour);
+                if (area > largestArea) {
+                    largest = contour;
+                    largestArea = area;
+                }
+            }
+
+            if (largest == null) {
+                return null;
+            }
+
+            // Grow the box into a padded square so the hand keeps its proportions when resized
+            Rect box = Imgproc.boundingRect(largest);
+            double side = Math.max(box.width, box.height) * (1 + 2 * padding) * scale;
+            double centerX = (box.x + box.width / 2.0) * scale;
+            double centerY = (box.y + box.height / 2.0) * scale;
+
+            return new Rect((int) Math.round(centerX - side / 2), (int) Math.round(centerY - side / 2),
+                    (int) Math.round(side), (int) Math.round(side));
+        } finally {
+            small.release();
+            mask.release();
+            hierarchy.release();
+            kernel.release();
+            for (MatOfPoint contour : contours) {
+                contour.release();
+            }
+        }
+    }
+
+    /**
+     * Clips the region to the frame, falling back on the whole frame if nothing is left.
+     *
+     * @param region the region to clip
+     * @param whole the rectangle covering the whole frame
+     * @return the clipped region
+     */
+    private static Rect clip(Rect region, Rect whole) {
+        int x = Math.max(region.x, 0);
+        int y = Math.max(region.y, 0);
+        int right = Math.min(region.x + region.width, whole.width);
+        int bottom = Math.min(region.y + region.height, whole.height);
+
+        if (right <= x || bottom <= y) {
+            return whole;
+        }
+
+        return new Rect(x, y, right - x, bottom - y);
+    }
+
+    /**
+     * Returns a string representation of the RegionOfInterest object.
+     *
+     * @return a string describing the fixed region or the detection padding
+     */
+    public String toString() {
+        return fixedRegion != null ? "RegionOfInterest: fixed " + fixedRegion
+                : "RegionOfInterest: auto, padding=" + padding;
+    }
+}
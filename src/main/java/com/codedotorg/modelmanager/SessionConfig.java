@@ -0,0 +1,136 @@
+package com.codedotorg.modelmanager;
+
+import org.tensorflow.framework.ConfigProto;
+
+public class SessionConfig {
+
+    /** The number of threads used inside one operation, such as a convolution, or 0 for TensorFlow's default */
+    private int intraOpThreads;
+
+    /** The number of operations run at the same time, or 0 for TensorFlow's default */
+    private int interOpThreads;
+
+    /** Whether the session gets its own thread pools instead of the process-wide ones */
+    private boolean perSessionThreads;
+
+    /**
+     * Constructs a new SessionConfig that leaves every thread setting at TensorFlow's
+     * default, which sizes the shared thread pools to the number of cores.
+     */
+    public SessionConfig() {
+        this(0, 0);
+    }
+
+    /**
+     * Constructs a new SessionConfig with the given thread pool sizes.
+     *
+     * @param intraOpThreads the number of threads used inside one operation, or 0 for the default
+     * @param interOpThreads the number of operations run at the same time, or 0 for the default
+     */
+    public SessionConfig(int intraOpThreads, int interOpThreads) {
+        setIntraOpThreads(intraOpThreads);
+        setInterOpThreads(interOpThreads);
+        perSessionThreads = false;
+    }
+
+    /**
+     * Constructs a new SessionConfig configured by the system properties
+     * unlock.intraOpThreads and unlock.interOpThreads (default 0, TensorFlow's default).
+     *
+     * @return the configured SessionConfig
+     */
+    public static SessionConfig fromSystemProperties() {
+        return new SessionConfig(Integer.getInteger("unlock.intraOpThreads", 0),
+                Integer.getInteger("unlock.interOpThreads", 0));
+    }
+
+    /**
+     * Returns a copy of these settings, so they can be changed without affecting the caller's.
+     *
+     * @return the copied SessionConfig
+     */
+    public SessionConfig copy() {
+        SessionConfig copy = new SessionConfig(intraOpThreads, interOpThreads);
+        copy.setPerSessionThreads(perSessionThreads);
+        return copy;
+    }
+
+    /**
+     * Returns the number of threads used inside one operation.
+     *
+     * @return the intra-op thread count, or 0 for TensorFlow's default
+     */
+    public int getIntraOpThreads() {
+        return intraOpThreads;
+    }
+
+    /**
+     * Sets the number of threads used inside one operation.
+     *
+     * @param intraOpThreads the intra-op thread count, or 0 for TensorFlow's default
+     */
+    public void setIntraOpThreads(int intraOpThreads) {
+        this.intraOpThreads = Math.max(0, intraOpThreads);
+    }
+
+    /**
+     * Returns the number of operations run at the same time.
+     *
+     * @return the inter-op thread count, or 0 for TensorFlow's default
+     */
+    public int getInterOpThreads() {
+        return interOpThreads;
+    }
+
+    /**
+     * Sets the number of operations run at the same time.
+     *
+     * @param interOpThreads the inter-op thread count, or 0 for TensorFlow's default
+     */
+    public void setInterOpThreads(int interOpThreads) {
+        this.interOpThreads = Math.max(0, interOpThreads);
+    }
+
+    /**
+     * Returns whether the session gets its own thread pools.
+     *
+     * @return true for per-session thread pools, false for the process-wide ones
+     */
+    public boolean isPerSessionThreads() {
+        return perSessionThreads;
+    }
+
+    /**
+     * Sets whether the session gets its own thread pools. Sessions that share the
+     * process-wide pools compete for the same threads however many there are.
+     *
+     * @param perSessionThreads true for per-session thread pools, false for the process-wide ones
+     */
+    public void setPerSessionThreads(boolean perSessionThreads) {
+        this.perSessionThreads = perSessionThreads;
+    }
+
+    /**
+     * Returns the settings as a serialized ConfigProto for a TensorFlow Session.
+     *
+     * @return the ConfigProto bytes
+     */
+    public byte[] toConfigProto() {
+        return ConfigProto.newBuilder()
+                .setIntraOpParallelismThreads(intraOpThreads)
+                .setInterOpParallelismThreads(interOpThreads)
+                .setUsePerSessionThreads(perSessionThreads)
+                .build()
+                .toByteArray();
+    }
+
+    /**
+     * Returns a string representation of the SessionConfig object.
+     *
+     * @return a string containing the thread settings
+     */
+    public String toString() {
+        return "SessionConfig: intraOpThreads=" + intraOpThreads + ", interOpThreads=" + interOpThreads
+                + ", perSessionThreads=" + perSessionThreads;
+    }
+}
@@ -0,0 +1,10 @@
+package com.codedotorg.modelmanager;
+
+public enum SessionMode {
+
+    /** Every worker runs the model in the same Session, which shares one set of TensorFlow thread pools */
+    SHARED,
+
+    /** Every worker runs the model in its own Session with its own thread pools, over the same loaded graph */
+    PER_WORKER
+}
@@ -0,0 +1,535 @@
+package com.codedotorg.modelmanager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+public class SessionRecorder implements AutoCloseable {
+
+    /** The size of the write buffer; frames larger than it are written straight to the file */
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    /** The number of frames that may wait for the writer before frames are dropped */
+    private static final int QUEUE_DEPTH = 64;
+
+    /** How long the writer waits for a record before flushing what it has to the file */
+    private static final long FLUSH_MILLIS = 200;
+
+    /** Marks the end of the records for the writer */
+    private static final Entry END = new Entry((byte) 0, null, null, 0, 0);
+
+    /** The recording file */
+    private final Path path;
+
+    /** Writes the recording from start to end; nothing is ever rewritten */
+    private final FileChannel channel;
+
+    /** Collects records so the file is written in large sequential blocks */
+    private final ByteBuffer buffer;
+
+    /**
+     * The records waiting for the writer, in the order they happened. Only frames are
+     * bounded, by queuedFrames; the other records are small and are never held up.
+     */
+    private final BlockingQueue<Entry> queue;
+
+    /** The number of frames in the queue or being written */
+    private final AtomicInteger queuedFrames;
+
+    /** The file extension frames are encoded with, such as ".png" */
+    private final String extension;
+
+    /** The encoder settings for the frame format */
+    private final MatOfInt encodeParams;
+
+    /** Encodes and writes the records */
+    private final Thread writer;
+
+    /** The number of frames dropped because the writer fell behind */
+    private final LongAdder dropped;
+
+    /** The number of frames written */
+    private long frames;
+
+    /** The number of bytes written */
+    private long bytes;
+
+    /** The first error the writer hit, after which nothing more is recorded */
+    private volatile IOException failure;
+
+    /** Whether the recorder has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Creates the recording file, replacing any file already there, writes its header and
+     * starts the writer thread.
+     *
+     * @param path the recording file
+     * @param labels the labels of the model, in label order, so a replay can check it uses the same classes
+     * @param format the image format of the frames: "png" to keep every pixel, or "jpg" for smaller files
+     * @throws IOException if the file cannot be created
+     */
+    public SessionRecorder(Path path, List<String> labels, String format) throws IOException {
+        String frameFormat = format.trim().toLowerCase(Locale.ROOT);
+
+        if (frameFormat.equals("png")) {
+            // Fast compression keeps the writer ahead of the camera; the pixels are the same either way
+            encodeParams = new MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, 1);
+        }
+        else if (frameFormat.equals("jpg")) {
+            encodeParams = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, 90);
+        }
+        else {
+            throw new IllegalArgumentException("Frames can be recorded as png or jpg, not " + format);
+        }
+
+        this.path = path;
+        this.extension = "." + frameFormat;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        this.queue = new LinkedBlockingQueue<>();
+        this.queuedFrames = new AtomicInteger();
+        this.dropped = new LongAdder();
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+            writeHeader(frameFormat, labels);
+        } catch (IOException e) {
+            channel.close();
+            encodeParams.release();
+            throw e;
+        }
+
+        this.writer = new Thread(this::runWriter, "session-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Constructs a SessionRecorder configured by the system properties unlock.record, the
+     * file to record to, and unlock.record.format, png (default) or jpg. Recording is off
+     * unless unlock.record is set.
+     *
+     * @param labels the labels of the model, in label order
+     * @return the SessionRecorder, or null if recording is off or the file cannot be created
+     */
+    public static SessionRecorder fromSystemProperties(List<String> labels) {
+        String file = System.getProperty("unlock.record");
+
+        if (file == null || file.trim().isEmpty()) {
+            return null;
+        }
+
+        try {
+            SessionRecorder recorder = new SessionRecorder(Paths.get(file.trim()), labels,
+                    System.getProperty("unlock.record.format", "png"));
+            System.out.println("Recording the session to " + recorder.getPath());
+            return recorder;
+        } catch (IOException e) {
+            System.err.println("Failed to start recording to " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Records a frame that is about to go to the model. The frame is copied, so the caller
+     * keeps ownership of it, and encoded on the writer thread. If the writer has fallen
+     * behind, the frame is dropped from the recording rather than holding up inference,
+     * and a drop record is written in its place so a replay knows to skip it.
+     *
+     * @param frame the frame taken from the inference queue
+     */
+    public void recordFrame(CapturedFrame frame) {
+        if (closed || failure != null) {
+            return;
+        }
+
+        if (queuedFrames.incrementAndGet() > QUEUE_DEPTH) {
+            queuedFrames.decrementAndGet();
+            dropped.increment();
+            enqueue(new Entry(SessionRecording.DROP, null, null, frame.getSequence(), frame.getTimestamp()));
+            return;
+        }
+
+        enqueue(new Entry(SessionRecording.FRAME, frame.copy(), null, 0, 0));
+    }
+
+    /**
+     * Records the raw model output for a frame, before it is smoothed.
+     *
+     * @param prediction the prediction, tied to its frame
+     */
+    public void recordPrediction(Prediction prediction) {
+        enqueue(new Entry(SessionRecording.PREDICTION, null, prediction, 0, 0));
+    }
+
+    /**
+     * Records a digit accepted into the PIN.
+     *
+     * @param prediction the prediction that completed the digit
+     */
+    public void recordDigit(Prediction prediction) {
+        enqueue(new Entry(SessionRecording.DIGIT, null, prediction, 0, 0));
+    }
+
+    /**
+     * Records that the app was reset for a new PIN.
+     */
+    public void recordReset() {
+        enqueue(new Entry(SessionRecording.RESET, null, null, 0, System.nanoTime()));
+    }
+
+    /**
+     * Queues a record without waiting. Predictions, digits, resets and drops are what a
+     * replay is checked against, so unlike frames they are never dropped; they are a few
+     * dozen bytes each, so leaving them unbounded costs little even if the writer stalls.
+     *
+     * @param entry the record to queue
+     */
+    private void enqueue(Entry entry) {
+        if (closed || failure != null) {
+            if (entry.frame != null) {
+                entry.frame.release();
+            }
+            return;
+        }
+
+        queue.offer(entry);
+    }
+
+    /**
+     * Writes records from the queue until the end marker is reached, flushing to the file
+     * whenever the queue runs dry so a crash loses little of the session.
+     */
+    private void runWriter() {
+        MatOfByte encoded = new MatOfByte();
+
+        try {
+            while (true) {
+                Entry entry = queue.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (entry == null) {
+                    flush();
+                    continue;
+                }
+
+                if (entry == END) {
+                    break;
+                }
+
+                try {
+                    write(entry, encoded);
+                } finally {
+                    if (entry.frame != null) {
+                        entry.frame.release();
+                        queuedFrames.decrementAndGet();
+                    }
+                }
+            }
+
+            flush();
+        } catch (IOException e) {
+            failure = e;
+            System.err.println("Stopped recording to " + path + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            encoded.release();
+
+            // Frames still queued after a failure are released here
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                if (entry.frame != null) {
+                    entry.frame.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Serializes a record into the write buffer. Every record is its type, the length of
+     * its payload, and the payload, so a reader can skip records it does not know.
+     *
+     * @param entry the record to write
+     * @param encoded reused to hold the encoded frame
+     * @throws IOException if the file cannot be written
+     */
+    private void write(Entry entry, MatOfByte encoded) throws IOException {
+        switch (entry.type) {
+            case SessionRecording.FRAME: {
+                CapturedFrame frame = entry.frame;
+                Imgcodecs.imencode(extension, frame.getMat(), encoded, encodeParams);
+                byte[] image = encoded.toArray();
+
+                putHeader(entry.type, 16 + image.length);
+                buffer.putLong(frame.getSequence());
+                buffer.putLong(frame.getTimestamp());
+                putBytes(image);
+                frames++;
+                break;
+            }
+            case SessionRecording.PREDICTION: {
+                Prediction prediction = entry.prediction;
+                byte[] name = prediction.getClassName().getBytes(StandardCharsets.UTF_8);
+                float[] probabilities = prediction.getProbabilities();
+
+                putHeader(entry.type, 16 + 4 + 2 + name.length + 4 + 4 * probabilities.length);
+                buffer.putLong(prediction.getSequence());
+                buffer.putLong(prediction.getTimestamp());
+                buffer.putFloat(prediction.getConfidence());
+                putString(name);
+                buffer.putInt(probabilities.length);
+                for (float probability : probabilities) {
+                    buffer.putFloat(probability);
+                }
+                break;
+            }
+            case SessionRecording.DIGIT: {
+                Prediction prediction = entry.prediction;
+                byte[] name = prediction.getClassName().getBytes(StandardCharsets.UTF_8);
+
+                putHeader(entry.type, 16 + 2 + name.length);
+                buffer.putLong(prediction.getSequence());
+                buffer.putLong(prediction.getTimestamp());
+                putString(name);
+                break;
+            }
+            case SessionRecording.RESET:
+                putHeader(entry.type, 8);
+                buffer.putLong(entry.timestamp);
+                break;
+            case SessionRecording.DROP:
+                putHeader(entry.type, 16);
+                buffer.putLong(entry.sequence);
+                buffer.putLong(entry.timestamp);
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + entry.type);
+        }
+    }
+
+    /**
+     * Writes the magic number, the format version, the frame format and the model labels.
+     *
+     * @param frameFormat the image format of the frames
+     * @param labels the labels of the model
+     * @throws IOException if the file cannot be written
+     */
+    private void writeHeader(String frameFormat, List<String> labels) throws IOException {
+        byte[] format = frameFormat.getBytes(StandardCharsets.UTF_8);
+        byte[][] names = new byte[labels.size()][];
+        int length = 2 + format.length + 4;
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = labels.get(i).getBytes(StandardCharsets.UTF_8);
+            length += 2 + names[i].length;
+        }
+
+        ensureRoom(12 + length);
+        buffer.putInt(SessionRecording.MAGIC);
+        buffer.putInt(SessionRecording.VERSION);
+        buffer.putInt(length);
+        putString(format);
+        buffer.putInt(names.length);
+        for (byte[] name : names) {
+            putString(name);
+        }
+        flush();
+    }
+
+    /**
+     * Starts a record, flushing first if the buffer cannot hold its fixed-size fields.
+     *
+     * @param type the kind of record
+     * @param length the length of the payload
+     * @throws IOException if the file cannot be written
+     */
+    private void putHeader(byte type, int length) throws IOException {
+        // Only a frame's image can be larger than the buffer, and putBytes handles that
+        ensureRoom(SessionRecording.RECORD_HEADER_BYTES + Math.min(length, 64 * 1024));
+        buffer.put(type);
+        buffer.putInt(length);
+    }
+
+    /**
+     * Writes a string as a 2-byte length followed by its UTF-8 bytes.
+     *
+     * @param utf8 the UTF-8 bytes of the string
+     */
+    private void putString(byte[] utf8) {
+        buffer.putShort((short) utf8.length);
+        buffer.put(utf8);
+    }
+
+    /**
+     * Writes bytes into the buffer, or straight to the file if they do not fit.
+     *
+     * @param data the bytes to write
+     * @throws IOException if the file cannot be written
+     */
+    private void putBytes(byte[] data) throws IOException {
+        if (buffer.remaining() >= data.length) {
+            buffer.put(data);
+            return;
+        }
+
+        flush();
+
+        if (buffer.remaining() >= data.length) {
+            buffer.put(data);
+        }
+        else {
+            writeFully(ByteBuffer.wrap(data));
+        }
+    }
+
+    /**
+     * Flushes the buffer if it has less than the given room left.
+     *
+     * @param room the number of bytes needed
+     * @throws IOException if the file cannot be written
+     */
+    private void ensureRoom(int room) throws IOException {
+        if (buffer.remaining() < room) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes everything in the buffer to the end of the file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes all of the given bytes to the end of the file.
+     *
+     * @param data the bytes to write
+     * @throws IOException if the file cannot be written
+     */
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            bytes += channel.write(data);
+        }
+    }
+
+    /**
+     * Returns the recording file.
+     *
+     * @return the path of the recording
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the number of frames left out of the recording because the writer fell behind.
+     *
+     * @return the number of dropped frames
+     */
+    public long getDroppedFrames() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the records still queued, then closes the file. Recording anything after
+     * this does nothing.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            queue.offer(END);
+            writer.join();
+            channel.close();
+
+            // Frames queued while the recorder was closing are released here
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                if (entry.frame != null) {
+                    entry.frame.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Failed to close " + path + ": " + e.getMessage());
+        } finally {
+            encodeParams.release();
+        }
+
+        System.out.println(this);
+    }
+
+    /**
+     * Returns a string representation of the SessionRecorder object.
+     *
+     * @return a string with the file, the frames written and dropped, and the size
+     */
+    public String toString() {
+        return String.format("SessionRecorder: %s, %d frames recorded, %d dropped, %.1f MB",
+                path, frames, dropped.sum(), bytes / 1e6);
+    }
+
+    /**
+     * A record waiting for the writer.
+     */
+    private static final class Entry {
+
+        /** The kind of record */
+        private final byte type;
+
+        /** The copied frame of a frame record, owned by the entry, or null */
+        private final CapturedFrame frame;
+
+        /** The prediction of a prediction or digit record, or null */
+        private final Prediction prediction;
+
+        /** The sequence number of a dropped frame */
+        private final long sequence;
+
+        /** When a reset happened or a dropped frame was captured, from System.nanoTime() */
+        private final long timestamp;
+
+        /**
+         * Constructs a new Entry.
+         *
+         * @param type the kind of record
+         * @param frame the copied frame of a frame record, or null
+         * @param prediction the prediction of a prediction or digit record, or null
+         * @param sequence the sequence number of a dropped frame
+         * @param timestamp when a reset happened or a dropped frame was captured
+         */
+        private Entry(byte type, CapturedFrame frame, Prediction prediction, long sequence, long timestamp) {
+            this.type = type;
+            this.frame = frame;
+            this.prediction = prediction;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+        }
+    }
+}
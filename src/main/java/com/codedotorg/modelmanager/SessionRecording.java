@@ -0,0 +1,377 @@
+package com.codedotorg.modelmanager;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+public class SessionRecording implements AutoCloseable {
+
+    /** The first bytes of every recording, "UNLK" */
+    static final int MAGIC = 0x554E4C4B;
+
+    /** Changes whenever the file layout changes, so old recordings are not misread */
+    static final int VERSION = 1;
+
+    /** A frame that went to the model, encoded as an image */
+    public static final byte FRAME = 'F';
+
+    /** The raw model output for a frame, before smoothing */
+    public static final byte PREDICTION = 'P';
+
+    /** A digit accepted into the PIN */
+    public static final byte DIGIT = 'D';
+
+    /** The app was reset for a new PIN */
+    public static final byte RESET = 'R';
+
+    /**
+     * A frame that went to the model but was left out of the recording because the writer
+     * fell behind. Its prediction is still recorded. Readers that predate it skip it.
+     */
+    public static final byte DROP = 'X';
+
+    /** The size of the type and length that come before every record's payload */
+    static final int RECORD_HEADER_BYTES = 5;
+
+    /** The size of the read buffer; it grows for frames that do not fit */
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    /** The recording file */
+    private final Path path;
+
+    /** Reads the recording from start to end */
+    private final FileChannel channel;
+
+    /** The labels of the model the session was recorded with, in label order */
+    private final List<String> labels;
+
+    /** The image format the frames are encoded in, such as "png" */
+    private final String frameFormat;
+
+    /** Holds bytes read from the file that have not been parsed yet */
+    private ByteBuffer buffer;
+
+    /** Whether the end of the file has been reached */
+    private boolean endOfFile;
+
+    /**
+     * Opens a recording written by SessionRecorder and reads its header.
+     *
+     * @param path the recording file
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public SessionRecording(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        buffer.flip();
+
+        try {
+            if (!fill(8) || buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a session recording");
+            }
+
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + " is recording version " + version + ", expected " + VERSION);
+            }
+
+            if (!fill(4)) {
+                throw new EOFException("Truncated header in " + path);
+            }
+            int headerLength = buffer.getInt();
+            if (!fill(headerLength)) {
+                throw new EOFException("Truncated header in " + path);
+            }
+
+            this.frameFormat = getString(buffer);
+            int labelCount = buffer.getInt();
+            List<String> names = new ArrayList<>(labelCount);
+            for (int i = 0; i < labelCount; i++) {
+                names.add(getString(buffer));
+            }
+            this.labels = Collections.unmodifiableList(names);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the record, or null at the end of the recording. A record cut short because
+     *         the app stopped while writing it counts as the end.
+     * @throws IOException if the file cannot be read
+     */
+    public Record next() throws IOException {
+        if (!fill(RECORD_HEADER_BYTES)) {
+            warnIfTruncated();
+            return null;
+        }
+
+        byte type = buffer.get();
+        int length = buffer.getInt();
+
+        if (!fill(length)) {
+            System.err.println("Ignoring a record cut short at the end of " + path);
+            return null;
+        }
+
+        ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        buffer.position(buffer.position() + length);
+
+        switch (type) {
+            case FRAME: {
+                long sequence = payload.getLong();
+                long timestamp = payload.getLong();
+                byte[] image = new byte[payload.remaining()];
+                payload.get(image);
+                return new Record(type, sequence, timestamp, null, 0, null, image);
+            }
+            case PREDICTION: {
+                long sequence = payload.getLong();
+                long timestamp = payload.getLong();
+                float confidence = payload.getFloat();
+                String className = getString(payload);
+                float[] probabilities = new float[payload.getInt()];
+                payload.asFloatBuffer().get(probabilities);
+                return new Record(type, sequence, timestamp, className, confidence, probabilities, null);
+            }
+            case DIGIT: {
+                long sequence = payload.getLong();
+                long timestamp = payload.getLong();
+                String className = getString(payload);
+                return new Record(type, sequence, timestamp, className, 0, null, null);
+            }
+            case RESET:
+                return new Record(type, 0, payload.getLong(), null, 0, null, null);
+            case DROP: {
+                long sequence = payload.getLong();
+                long timestamp = payload.getLong();
+                return new Record(type, sequence, timestamp, null, 0, null, null);
+            }
+            default:
+                // Records from a newer recorder are skipped rather than failing the replay
+                return next();
+        }
+    }
+
+    /**
+     * Makes sure the buffer holds at least the given number of unparsed bytes, reading
+     * more of the file and growing the buffer if needed.
+     *
+     * @param bytes the number of bytes needed
+     * @return false if the file ends first
+     * @throws IOException if the file cannot be read
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+
+        if (bytes > buffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(bytes, buffer.capacity() * 2));
+            grown.put(buffer);
+            buffer = grown;
+        }
+        else {
+            buffer.compact();
+        }
+
+        while (buffer.position() < bytes && !endOfFile) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+            }
+        }
+
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * Warns if the file ends part way through a record header.
+     */
+    private void warnIfTruncated() {
+        if (buffer.hasRemaining()) {
+            System.err.println("Ignoring " + buffer.remaining() + " trailing bytes at the end of " + path);
+            buffer.position(buffer.limit());
+        }
+    }
+
+    /**
+     * Reads a string written as a 2-byte length followed by its UTF-8 bytes.
+     *
+     * @param source the buffer to read from
+     * @return the string
+     */
+    static String getString(ByteBuffer source) {
+        byte[] bytes = new byte[source.getShort() & 0xFFFF];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the recording file.
+     *
+     * @return the path of the recording
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the labels of the model the session was recorded with.
+     *
+     * @return the labels, in label order
+     */
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * Returns the image format the frames are encoded in.
+     *
+     * @return the format, such as "png" or "jpg"
+     */
+    public String getFrameFormat() {
+        return frameFormat;
+    }
+
+    /**
+     * Closes the recording file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * One record of a recording: a frame, a prediction, an accepted digit, a reset or a dropped frame.
+     */
+    public static final class Record {
+
+        /** The kind of record: FRAME, PREDICTION, DIGIT, RESET or DROP */
+        private final byte type;
+
+        /** The sequence number of the frame, or 0 for a reset */
+        private final long sequence;
+
+        /** When the frame was captured or the reset happened, from System.nanoTime() in the recording app */
+        private final long timestamp;
+
+        /** The class of a prediction or digit, or null */
+        private final String className;
+
+        /** The confidence of a prediction */
+        private final float confidence;
+
+        /** The raw class probabilities of a prediction, or null */
+        private final float[] probabilities;
+
+        /** The encoded image of a frame, or null */
+        private final byte[] image;
+
+        /**
+         * Constructs a new Record.
+         *
+         * @param type the kind of record
+         * @param sequence the sequence number of the frame
+         * @param timestamp when the frame was captured or the reset happened
+         * @param className the class of a prediction or digit, or null
+         * @param confidence the confidence of a prediction
+         * @param probabilities the raw class probabilities of a prediction, or null
+         * @param image the encoded image of a frame, or null
+         */
+        private Record(byte type, long sequence, long timestamp, String className, float confidence,
+                float[] probabilities, byte[] image) {
+            this.type = type;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.className = className;
+            this.confidence = confidence;
+            this.probabilities = probabilities;
+            this.image = image;
+        }
+
+        /**
+         * Returns the kind of record.
+         *
+         * @return FRAME, PREDICTION, DIGIT, RESET or DROP
+         */
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * Returns the sequence number of the frame the record is for.
+         *
+         * @return the frame sequence number, or 0 for a reset
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Returns when the frame was captured or the reset happened, in the recording app's clock.
+         *
+         * @return the timestamp in nanoseconds
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the class of a prediction or accepted digit.
+         *
+         * @return the class name, or null for frames, resets and drops
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * Returns the recorded prediction.
+         *
+         * @return the Prediction with its frame's sequence number and timestamp, or null if
+         *         this is not a prediction record
+         */
+        public Prediction toPrediction() {
+            return type == PREDICTION
+                    ? new Prediction(className, confidence, probabilities, sequence, timestamp)
+                    : null;
+        }
+
+        /**
+         * Decodes the frame of a frame record. The caller owns the returned Mat and must release it.
+         *
+         * @return the BGR frame, or null if this is not a frame record
+         */
+        public Mat decodeFrame() {
+            if (image == null) {
+                return null;
+            }
+
+            MatOfByte encoded = new MatOfByte(image);
+            try {
+                return Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR);
+            } finally {
+                encoded.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.codedotorg.modelmanager;
+
+public enum SmoothingMethod {
+
+    /** Passes every prediction through unchanged */
+    NONE,
+
+    /** Exponential moving average of the class probabilities */
+    EMA,
+
+    /** Mean of the class probabilities over the last frames in the window */
+    WINDOW_MEAN,
+
+    /** The class that was most often the top class over the last frames in the window */
+    MAJORITY_VOTE
+}
@@ -0,0 +1,140 @@
+package com.codedotorg.modelmanager;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StageStats {
+
+    /** How long each fps measurement window lasts */
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    /** The name of the stage */
+    private final String name;
+
+    /** The number of frames the stage has finished */
+    private final AtomicLong frames;
+
+    /** The number of frames the stage has dropped */
+    private final AtomicLong drops;
+
+    /** When the current fps window started */
+    private volatile long windowStart;
+
+    /** The frame count when the current fps window started */
+    private volatile long windowFrames;
+
+    /** The frames per second measured over the last full window */
+    private volatile double fps;
+
+    /** When the stage last finished a frame, from System.nanoTime(), or 0 if it has not */
+    private volatile long lastFrameTime;
+
+    /**
+     * Constructs a new StageStats for the stage with the given name.
+     *
+     * @param name the name of the stage
+     */
+    public StageStats(String name) {
+        this.name = name;
+        this.frames = new AtomicLong();
+        this.drops = new AtomicLong();
+        this.windowStart = System.nanoTime();
+        this.windowFrames = 0;
+        this.fps = 0;
+        this.lastFrameTime = 0;
+    }
+
+    /**
+     * Records that the stage finished a frame and updates the fps once per window.
+     */
+    public void recordFrame() {
+        long count = frames.incrementAndGet();
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        lastFrameTime = now;
+
+        if (elapsed >= WINDOW_NANOS) {
+            synchronized (this) {
+                elapsed = now - windowStart;
+
+                if (elapsed >= WINDOW_NANOS) {
+                    fps = (count - windowFrames) * 1e9 / elapsed;
+                    windowFrames = count;
+                    windowStart = now;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that the stage dropped the given number of frames.
+     *
+     * @param count the number of frames dropped
+     */
+    public void recordDrops(long count) {
+        drops.addAndGet(count);
+    }
+
+    /**
+     * Returns the name of the stage.
+     *
+     * @return the name of the stage
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of frames the stage has finished.
+     *
+     * @return the number of frames
+     */
+    public long getFrames() {
+        return frames.get();
+    }
+
+    /**
+     * Returns the number of frames the stage has dropped.
+     *
+     * @return the number of dropped frames
+     */
+    public long getDrops() {
+        return drops.get();
+    }
+
+    /**
+     * Returns when the stage last finished a frame.
+     *
+     * @return the time from System.nanoTime(), or 0 if the stage has not finished a frame
+     */
+    public long getLastFrameTime() {
+        return lastFrameTime;
+    }
+
+    /**
+     * Returns the frames per second measured over the last full second. The fps is only
+     * updated when a frame arrives, so once a stage stalls the window it is measured over
+     * runs late; the rate over that open window is returned instead, and it falls towards
+     * zero for as long as no frames arrive.
+     *
+     * @return the frames per second
+     */
+    public double getFps() {
+        long elapsed = System.nanoTime() - windowStart;
+
+        if (elapsed >= 2 * WINDOW_NANOS) {
+            return (frames.get() - windowFrames) * 1e9 / elapsed;
+        }
+
+        return fps;
+    }
+
+    /**
+     * Returns a string representation of the StageStats object.
+     *
+     * @return a string containing the name, fps, frame count and drop count
+     */
+    public String toString() {
+        return name + ": fps=" + String.format(Locale.ROOT, "%.1f", getFps()) + ", frames=" + getFrames() + ", drops=" + getDrops();
+    }
+}
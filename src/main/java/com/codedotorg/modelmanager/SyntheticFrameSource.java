@@ -0,0 +1,120 @@
+package com.codedotorg.modelmanager;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+public class SyntheticFrameSource implements FrameSource {
+
+    /** The width of each frame in pixels */
+    private final int width;
+
+    /** The height of each frame in pixels */
+    private final int height;
+
+    /** The number of frames per second */
+    private final double frameRate;
+
+    /** The number of frames to produce, or -1 for no limit */
+    private final long frameCount;
+
+    /** Whether frames are paced at the frame rate or produced as fast as possible */
+    private final boolean realTime;
+
+    /** The number of frames produced so far */
+    private long produced;
+
+    /** When the first frame was produced, used to pace real time frames */
+    private long startTime;
+
+    /**
+     * Constructs a new SyntheticFrameSource that draws a square moving across a gradient.
+     * The frames are the same every run, so results are reproducible.
+     *
+     * @param width the width of each frame in pixels
+     * @param height the height of each frame in pixels
+     * @param frameRate the number of frames per second
+     * @param frameCount the number of frames to produce, or -1 for no limit
+     * @param realTime true to pace frames at the frame rate, false to produce them as fast as possible
+     */
+    public SyntheticFrameSource(int width, int height, double frameRate, long frameCount, boolean realTime) {
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.frameCount = frameCount;
+        this.realTime = realTime;
+    }
+
+    /**
+     * Starts producing frames from the first one.
+     *
+     * @return true
+     */
+    public boolean open() {
+        produced = 0;
+        startTime = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Draws the next frame, waiting for its time first if frames are paced.
+     *
+     * @param frame the Mat to draw the frame into
+     * @return true if a frame was drawn, false once frameCount frames have been produced
+     */
+    public boolean read(Mat frame) {
+        if (frameCount >= 0 && produced >= frameCount) {
+            return false;
+        }
+
+        if (realTime && frameRate > 0) {
+            long due = startTime + (long) (produced * 1e9 / frameRate);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+
+        frame.create(height, width, CvType.CV_8UC3);
+
+        // A slowly shifting background with a square that moves across it
+        int shade = (int) (produced % 256);
+        frame.setTo(new Scalar(shade, 128, 255 - shade));
+
+        int size = Math.max(1, Math.min(width, height) / 4);
+        int x = (int) ((produced * 4) % Math.max(1, width - size));
+        int y = (height - size) / 2;
+        Imgproc.rectangle(frame, new Point(x, y), new Point(x + size, y + size), new Scalar(255, 255, 255), -1);
+
+        produced++;
+        return true;
+    }
+
+    /**
+     * Returns the number of frames per second.
+     *
+     * @return the frame rate
+     */
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * Returns the size and frame rate of the source.
+     *
+     * @return the name of the source
+     */
+    public String getName() {
+        return "synthetic " + width + "x" + height + "@" + frameRate;
+    }
+
+    /**
+     * Nothing to release.
+     */
+    public void close() {
+    }
+}
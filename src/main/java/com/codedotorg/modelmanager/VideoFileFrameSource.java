@@ -0,0 +1,72 @@
+package com.codedotorg.modelmanager;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+public class VideoFileFrameSource implements FrameSource {
+
+    /** The path to the video file */
+    private final String path;
+
+    /** Reads frames from the video file */
+    private VideoCapture video;
+
+    /**
+     * Constructs a new VideoFileFrameSource for the given video file. Frames are
+     * read as fast as they can be decoded, not at the video's frame rate.
+     *
+     * @param path the path to the video file
+     */
+    public VideoFileFrameSource(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Opens the video file.
+     *
+     * @return true if the file was opened
+     */
+    public boolean open() {
+        video = new VideoCapture(path);
+        return video.isOpened();
+    }
+
+    /**
+     * Decodes the next frame of the video.
+     *
+     * @param frame the Mat to read the frame into
+     * @return true if a frame was read, false at the end of the video
+     */
+    public boolean read(Mat frame) {
+        return video != null && video.read(frame);
+    }
+
+    /**
+     * Returns the frame rate stored in the video file.
+     *
+     * @return the frame rate, or 0 if it is not known
+     */
+    public double getFrameRate() {
+        return video != null ? video.get(Videoio.CAP_PROP_FPS) : 0;
+    }
+
+    /**
+     * Returns the path to the video file.
+     *
+     * @return the name of the source
+     */
+    public String getName() {
+        return path;
+    }
+
+    /**
+     * Closes the video file.
+     */
+    public void close() {
+        if (video != null) {
+            video.release();
+            video = null;
+        }
+    }
+}
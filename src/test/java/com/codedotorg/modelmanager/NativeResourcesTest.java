@@ -0,0 +1,186 @@
+package com.codedotorg.modelmanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.tensorflow.DataType;
+import org.tensorflow.Graph;
+import org.tensorflow.Output;
+import org.tensorflow.Shape;
+import org.tensorflow.Tensor;
+
+/**
+ * Runs synthetic frames through the per-frame path and checks that every Mat and Tensor it
+ * allocates is freed again. Needs -Dunlock.leakCheck=true, which the surefire configuration
+ * sets; without it the tests are skipped.
+ */
+class NativeResourcesTest {
+
+    /** The labels file that ships with the app */
+    private static final String LABELS_PATH = "src/main/java/com/codedotorg/model/labels.txt";
+
+    /** The number of frames run through each path */
+    private static final int FRAMES = 50;
+
+    private Graph graph;
+    private ModelManager model;
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(NativeResources.isEnabled(), "run with -Dunlock.leakCheck=true");
+        nu.pattern.OpenCV.loadLocally();
+
+        graph = createGraph(10);
+        ModelProcessor processor = new ModelProcessor();
+        processor.loadGraph(graph, "input", "probabilities");
+        processor.loadLabels(Paths.get(LABELS_PATH));
+        model = new ModelManager(processor);
+
+        assertEquals(0, NativeResources.getLiveTotal(), NativeResources.describe());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (model != null) {
+            model.getModelProcessor().getSession().close();
+        }
+        if (graph != null) {
+            graph.close();
+        }
+    }
+
+    /**
+     * Every frame goes through CameraController.predict with a motion gate and a cropped
+     * region of interest, so the gate thumbnails, the cropped view and both Tensors are counted.
+     */
+    @Test
+    void cameraControllerPredictFreesEverything() {
+        CameraController controller = new CameraController();
+        MotionGate gate = new MotionGate(4, 5);
+        controller.setMotionGate(gate);
+        model.getModelProcessor().setRegionOfInterest(RegionOfInterest.fixed(80, 60, 320, 240));
+
+        long tensorsBefore = NativeResources.getCreated(NativeResources.Kind.TENSOR);
+
+        for (int i = 1; i <= FRAMES; i++) {
+            controller.predict(model, new CapturedFrame(randomFrame(), i, System.nanoTime()));
+        }
+
+        gate.release();
+        model.releaseThreadResources();
+
+        // An input and an output Tensor per frame that reached the model
+        assertTrue(NativeResources.getCreated(NativeResources.Kind.TENSOR) - tensorsBefore >= 2,
+                NativeResources.describe());
+        assertEquals(0, NativeResources.getLiveTotal(), NativeResources.describe());
+    }
+
+    /**
+     * The batched path through ModelPredictor frees its batch Tensor and the Tensor it fetches.
+     */
+    @Test
+    void modelPredictorBatchFreesEverything() {
+        List<Mat> frames = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            frames.add(randomFrame());
+        }
+
+        try {
+            for (int i = 0; i < FRAMES / frames.size(); i++) {
+                assertEquals(frames.size(), model.getModelPredictor().processAndPredictBatch(frames).length);
+            }
+        } finally {
+            frames.forEach(Mat::release);
+            model.releaseThreadResources();
+        }
+
+        assertEquals(0, NativeResources.getLiveTotal(), NativeResources.describe());
+    }
+
+    /**
+     * A counted Mat that is never freed is reported, so the check can actually fail.
+     */
+    @Test
+    void unreleasedMatIsReported() {
+        Mat leaked = NativeResources.newMat();
+
+        assertEquals(1, NativeResources.getLive(NativeResources.Kind.MAT));
+        assertThrows(IllegalStateException.class, () -> NativeResources.checkNoLeaks("unreleasedMatIsReported"));
+
+        NativeResources.release(leaked);
+        assertEquals(0, NativeResources.getLiveTotal(), NativeResources.describe());
+    }
+
+    /**
+     * Returns a 640x480 frame of random pixels, so the motion gate sees every frame as changed.
+     *
+     * @return the frame; the caller releases it
+     */
+    private static Mat randomFrame() {
+        Mat frame = new Mat(480, 640, CvType.CV_8UC3);
+        Core.randu(frame, 0, 256);
+        return frame;
+    }
+
+    /**
+     * Builds a tiny classifier with the same input and output as the real model: the mean
+     * of each channel through a dense layer and a softmax.
+     *
+     * @param classCount the number of classes
+     * @return the graph, with an input named "input" and an output named "probabilities"
+     */
+    private static Graph createGraph(int classCount) {
+        Graph graph = new Graph();
+
+        Output<?> input = graph.opBuilder("Placeholder", "input")
+                .setAttr("dtype", DataType.FLOAT)
+                .setAttr("shape", Shape.make(-1, 224, 224, 3))
+                .build()
+                .output(0);
+
+        Output<?> axes = constant(graph, "axes", new int[] {1, 2});
+        Output<?> pooled = graph.opBuilder("Mean", "pool").addInput(input).addInput(axes).build().output(0);
+
+        float[][] dense = new float[3][classCount];
+        for (int i = 0; i < dense.length; i++) {
+            for (int j = 0; j < classCount; j++) {
+                dense[i][j] = (i + 1) * (j - classCount / 2f) / classCount;
+            }
+        }
+        Output<?> weights = constant(graph, "weights", dense);
+        Output<?> logits = graph.opBuilder("MatMul", "logits").addInput(pooled).addInput(weights).build().output(0);
+        graph.opBuilder("Softmax", "probabilities").addInput(logits).build();
+
+        return graph;
+    }
+
+    /**
+     * Adds a constant to the graph.
+     *
+     * @param graph the graph to add it to
+     * @param name the name of the constant
+     * @param value the array to hold
+     * @return the output of the constant
+     */
+    private static Output<?> constant(Graph graph, String name, Object value) {
+        try (Tensor<?> tensor = Tensor.create(value)) {
+            return graph.opBuilder("Const", name)
+                    .setAttr("dtype", tensor.dataType())
+                    .setAttr("value", tensor)
+                    .build()
+                    .output(0);
+        }
+    }
+}